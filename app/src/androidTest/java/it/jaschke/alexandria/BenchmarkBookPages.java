@@ -0,0 +1,117 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+import it.jaschke.alexandria.adapter.PagedBookListAdapter;
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.BookProvider;
+import it.jaschke.alexandria.data.DbHelper;
+
+/**
+ * Compares the book list query at 100k saved books: the single cursor over all books the list
+ *  used to load, and the pages the list loads now. Measures the time to the first row, the memory
+ *  held for it, and the time to read through all books. Runs on a database of its own.
+ */
+public class BenchmarkBookPages extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkBookPages.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE = "benchmark_pages.db";
+    private static final int BOOKS = 100000;
+    private static final String SELECTION = AlexandriaContract.BookEntry.SAVED + " = ?";
+    private static final String[] SELECTION_ARGS = { "1" };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        mDb = new DbHelper(mContext, BENCHMARK_DATABASE).getWritableDatabase();
+        Random random = new Random(42);
+        mDb.beginTransaction();
+        try {
+            ContentValues book = TestDb.getBookValues();
+            book.put(AlexandriaContract.BookEntry.SAVED, 1);
+            for (int i = 0; i < BOOKS; i++) {
+                book.put(AlexandriaContract.BookEntry._ID, TestDb.ean + i);
+                book.put(AlexandriaContract.BookEntry.TITLE, TestDb.title + " " + random.nextInt(BOOKS));
+                mDb.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, book);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        super.tearDown();
+    }
+
+    public void testBenchmarkFirstRowAndScroll() {
+        // the single cursor, as the loader counts it before delivering
+        long pss = Debug.getPss();
+        long start = System.nanoTime();
+        Cursor all = mDb.query(AlexandriaContract.BookEntry.TABLE_NAME, null, SELECTION, SELECTION_ARGS,
+                null, null, null);
+        all.getCount();
+        all.moveToFirst();
+        long allFirstMicros = (System.nanoTime() - start) / 1000;
+        long allKb = Debug.getPss() - pss;
+        start = System.nanoTime();
+        int allRows = readAll(all);
+        long allScrollMillis = (System.nanoTime() - start) / 1000000;
+        all.close();
+
+        // the first page, then the following pages as the adapter loads them
+        pss = Debug.getPss();
+        start = System.nanoTime();
+        Cursor page = BookProvider.queryPage(mDb,
+                AlexandriaContract.BookEntry.buildPageUri(PagedBookListAdapter.PAGE_SIZE, null, 0),
+                null, SELECTION, SELECTION_ARGS);
+        page.getCount();
+        page.moveToFirst();
+        long pageFirstMicros = (System.nanoTime() - start) / 1000;
+        long pageKb = Debug.getPss() - pss;
+        start = System.nanoTime();
+        int pageRows = 0;
+        while (page.getCount() > 0) {
+            pageRows += readAll(page);
+            page.moveToLast();
+            String title = page.getString(page.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+            long ean = page.getLong(page.getColumnIndex(AlexandriaContract.BookEntry._ID));
+            page.close();
+            page = BookProvider.queryPage(mDb,
+                    AlexandriaContract.BookEntry.buildPageUri(PagedBookListAdapter.PAGE_SIZE, title, ean),
+                    null, SELECTION, SELECTION_ARGS);
+        }
+        page.close();
+        long pageScrollMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(BOOKS, allRows);
+        assertEquals(BOOKS, pageRows);
+        Log.i(LOG_TAG, String.format("%d books: single cursor first row %d us, %d KiB, all rows %d ms; " +
+                "pages of %d first row %d us, %d KiB, all rows %d ms", BOOKS, allFirstMicros, allKb,
+                allScrollMillis, PagedBookListAdapter.PAGE_SIZE, pageFirstMicros, pageKb, pageScrollMillis));
+    }
+
+    private static int readAll(Cursor cursor) {
+        int rows = 0;
+        int title = cursor.getColumnIndex(AlexandriaContract.BookEntry.TITLE);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            cursor.getString(title);
+            rows++;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,122 @@
+package it.jaschke.alexandria;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import it.jaschke.alexandria.data.Book;
+import it.jaschke.alexandria.services.CatalogSource;
+import it.jaschke.alexandria.services.MetadataSource;
+import it.jaschke.alexandria.tools.CatalogBuilder;
+
+/**
+ * Measures the lookup latency of the memory-mapped offline catalog for hits and misses, on a
+ *  generated catalog of 100.000 books
+ */
+public class BenchmarkCatalogLookup extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkCatalogLookup.class.getSimpleName();
+
+    private static final int BOOKS = 100000;
+    private static final int LOOKUPS = 20000;
+    // first generated ean, every second ean is in the catalog
+    private static final long FIRST_EAN = 9780000000000L;
+
+    private File mCatalogFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCatalogFile = new File(mContext.getCacheDir(), "benchmark_catalog.bin");
+        CatalogBuilder builder = new CatalogBuilder();
+        for (int i = 0; i < BOOKS; i++) {
+            builder.add(String.valueOf(FIRST_EAN + 2 * i), "Title " + i, "Subtitle " + i,
+                    "Description of book " + i, "http://books.google.com/books/content?id=" + i,
+                    Arrays.asList("Author " + i, "Second Author " + i), Arrays.asList("Category " + (i % 50)));
+        }
+        OutputStream out = new FileOutputStream(mCatalogFile);
+        try {
+            builder.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCatalogFile.delete();
+        super.tearDown();
+    }
+
+    public void testLookup() throws Exception {
+        CatalogSource catalog = CatalogSource.open(mCatalogFile);
+        assertEquals(BOOKS, catalog.size());
+
+        Book book = catalog.lookup(String.valueOf(FIRST_EAN + 2 * 1234), false, null);
+        assertEquals("Title 1234", book.getTitle());
+        assertEquals("Subtitle 1234", book.getSubtitle());
+        assertEquals(Arrays.asList("Author 1234", "Second Author 1234"), book.getAuthors());
+        assertEquals(Arrays.asList("Category 34"), book.getCategories());
+        assertSame(MetadataSource.UNCHANGED, catalog.lookup(String.valueOf(FIRST_EAN), true, null));
+        assertNull(catalog.lookup(String.valueOf(FIRST_EAN + 1), false, null));
+        assertNull(catalog.lookup(String.valueOf(FIRST_EAN + 2 * BOOKS), false, null));
+    }
+
+    public void testCsv() throws Exception {
+        CatalogBuilder builder = new CatalogBuilder();
+        builder.addCsv(new StringReader("ean,title,subtitle,description,imgurl,authors,categories\r\n" +
+                "9780137903955,Artificial Intelligence,A Modern Approach,\"Covers \"\"agents\"\",\nsearch\",," +
+                "Stuart Russell;Peter Norvig,Computers\r\n" +
+                "12345,Invalid ean,,,,,\n"));
+        assertEquals(1, builder.size());
+        assertEquals(1, builder.getSkipped());
+    }
+
+    public void testBenchmarkLookup() throws Exception {
+        CatalogSource catalog = CatalogSource.open(mCatalogFile);
+        Random random = new Random(42);
+        String[] hits = new String[LOOKUPS];
+        String[] misses = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            long n = random.nextInt(BOOKS);
+            hits[i] = String.valueOf(FIRST_EAN + 2 * n);
+            misses[i] = String.valueOf(FIRST_EAN + 2 * n + 1);
+        }
+        // warm up, touches the pages of the index
+        for (int i = 0; i < LOOKUPS; i++) {
+            catalog.lookup(hits[i], false, null);
+            catalog.lookup(misses[i], false, null);
+        }
+
+        long start = System.nanoTime();
+        for (String ean : hits) {
+            catalog.lookup(ean, false, null);
+        }
+        long hitNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        for (String ean : misses) {
+            catalog.lookup(ean, false, null);
+        }
+        long missNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        // a miss is a search of the mapped index only
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        for (String ean : misses) {
+            catalog.lookup(ean, false, null);
+        }
+        Debug.stopAllocCounting();
+        long missAllocated = Debug.getThreadAllocSize() / LOOKUPS;
+
+        Log.i(LOG_TAG, String.format("%d books, %d bytes: hit %d ns, miss %d ns, %d bytes allocated per miss",
+                BOOKS, mCatalogFile.length(), hitNanos, missNanos, missAllocated));
+        assertEquals(0, missAllocated);
+    }
+}
@@ -0,0 +1,176 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.DbHelper;
+import it.jaschke.alexandria.data.StorageProfile;
+
+/**
+ * Measures the latency of the book list query while 1,000 books are imported on another thread,
+ *  each book with its author and category in a transaction of its own as the service writes them.
+ *  Runs once with write-ahead logging and once with the rollback journal the database used before,
+ *  on a database of its own. Also checks that with write-ahead logging a read completes while an
+ *  import transaction is open.
+ */
+public class BenchmarkConcurrentReads extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkConcurrentReads.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE = "benchmark_concurrent.db";
+    private static final int BOOKS = 1000;
+    // seconds the writer keeps its transaction open waiting for the reader
+    private static final int READ_TIMEOUT = 5;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        super.tearDown();
+    }
+
+    public void testBenchmarkReadsDuringImport() throws Exception {
+        String wal = runImport(true);
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        String rollback = runImport(false);
+        Log.i(LOG_TAG, "read latency during the import of " + BOOKS + " books, wal: " + wal +
+                ", rollback journal: " + rollback);
+    }
+
+    public void testReadsCompleteDuringImportTransaction() throws Exception {
+        DbHelper dbHelper = new DbHelper(mContext, BENCHMARK_DATABASE);
+        dbHelper.setWriteAheadLoggingEnabled(true);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        insertBook(db, TestDb.ean);
+
+        // the writer holds a transaction with an uncommitted book open until the read is done
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        final boolean[] readDuringTransaction = new boolean[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues book = TestDb.getBookValues();
+                book.put(AlexandriaContract.BookEntry._ID, TestDb.ean + 1);
+                book.put(AlexandriaContract.BookEntry.SAVED, 1);
+                db.beginTransaction();
+                try {
+                    db.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, book);
+                    inTransaction.countDown();
+                    readDuringTransaction[0] = readDone.await(READ_TIMEOUT, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue(inTransaction.await(READ_TIMEOUT, TimeUnit.SECONDS));
+        // with write-ahead logging the read does not wait for the writer, and sees the last commit
+        int saved = queryList(db);
+        readDone.countDown();
+        writer.join();
+        assertTrue("read blocked by the open import transaction", readDuringTransaction[0]);
+        assertEquals(1, saved);
+        assertEquals(2, queryList(db));
+        dbHelper.close();
+    }
+
+    /**
+     * Import the books on a writer thread and query the book list until the import is done
+     * @param writeAheadLogging boolean
+     * @return String summary of the read latencies
+     * @throws InterruptedException
+     */
+    private String runImport(boolean writeAheadLogging) throws InterruptedException {
+        DbHelper dbHelper = new DbHelper(mContext, BENCHMARK_DATABASE);
+        dbHelper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        dbHelper.setStorageProfile(StorageProfile.BULK_IMPORT);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < BOOKS; i++) {
+                    insertBook(db, TestDb.ean + i);
+                }
+            }
+        });
+        List<Long> latencies = new ArrayList<Long>();
+        long start = System.nanoTime();
+        writer.start();
+        while (writer.isAlive()) {
+            long queryStart = System.nanoTime();
+            queryList(db);
+            latencies.add(System.nanoTime() - queryStart);
+        }
+        writer.join();
+        long importMillis = (System.nanoTime() - start) / 1000000;
+        assertFalse(latencies.isEmpty());
+        assertEquals(BOOKS, queryList(db));
+
+        dbHelper.setStorageProfile(StorageProfile.INTERACTIVE);
+        dbHelper.close();
+
+        Collections.sort(latencies);
+        return String.format("%d reads, median %d us, p95 %d us, max %d us, import %d ms", latencies.size(),
+                percentile(latencies, 50) / 1000, percentile(latencies, 95) / 1000,
+                latencies.get(latencies.size() - 1) / 1000, importMillis);
+    }
+
+    private static void insertBook(SQLiteDatabase db, long ean) {
+        ContentValues book = TestDb.getBookValues();
+        book.put(AlexandriaContract.BookEntry._ID, ean);
+        book.put(AlexandriaContract.BookEntry.SAVED, 1);
+        ContentValues author = TestDb.getAuthorValues();
+        author.put(AlexandriaContract.AuthorEntry._ID, ean);
+        ContentValues category = TestDb.getCategoryValues();
+        category.put(AlexandriaContract.CategoryEntry._ID, ean);
+        db.beginTransaction();
+        try {
+            db.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, book);
+            db.insert(AlexandriaContract.AuthorEntry.TABLE_NAME, null, author);
+            db.insert(AlexandriaContract.CategoryEntry.TABLE_NAME, null, category);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Read the saved books the way the book list does
+     * @param db SQLiteDatabase
+     * @return int number of saved books read
+     */
+    private static int queryList(SQLiteDatabase db) {
+        Cursor cursor = db.query(AlexandriaContract.BookEntry.TABLE_NAME, null,
+                AlexandriaContract.BookEntry.SAVED + " = ?", new String[] { "1" }, null, null, null);
+        int count = 0;
+        while (cursor.moveToNext()) {
+            cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+            count++;
+        }
+        cursor.close();
+        return count;
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percent / 100));
+    }
+}
@@ -0,0 +1,131 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.DbHelper;
+
+/**
+ * Measures the lookup of the saved flag of a book by ean, as the service does before every fetch:
+ *  with the ean concatenated into the sql as the provider used to do, so every ean is a new
+ *  statement, with the ean as bound argument of a query, with a compiled statement binding the
+ *  ean as long, and through the provider call that uses the compiled statement
+ */
+public class BenchmarkIdLookup extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkIdLookup.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE = "benchmark_lookup.db";
+    private static final int BOOKS = 1000;
+    private static final int ROUNDS = 5;
+
+    private DbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        mDbHelper = new DbHelper(mContext, BENCHMARK_DATABASE);
+        mDb = mDbHelper.getWritableDatabase();
+        mDb.beginTransaction();
+        try {
+            ContentValues book = TestDb.getBookValues();
+            for (int i = 0; i < BOOKS; i++) {
+                book.put(AlexandriaContract.BookEntry._ID, TestDb.ean + i);
+                book.put(AlexandriaContract.BookEntry.SAVED, i % 2);
+                mDb.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, book);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        mContext.getContentResolver().delete(AlexandriaContract.BookEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, TestDb.getBookValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(AlexandriaContract.BookEntry.CONTENT_URI, null, null);
+        mDbHelper.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        super.tearDown();
+    }
+
+    public void testBenchmarkLookup() {
+        SQLiteStatement statement = mDb.compileStatement("SELECT " + AlexandriaContract.BookEntry.SAVED +
+                " FROM " + AlexandriaContract.BookEntry.TABLE_NAME + " WHERE " + AlexandriaContract.BookEntry._ID + " = ?");
+        String table = AlexandriaContract.BookEntry.TABLE_NAME;
+        String[] columns = { AlexandriaContract.BookEntry.SAVED };
+
+        // warm up and check that all ways read the same flags
+        long concatenatedSum = 0;
+        long boundSum = 0;
+        long compiledSum = 0;
+        for (int i = 0; i < BOOKS; i++) {
+            long ean = TestDb.ean + i;
+            concatenatedSum += readCursor(mDb.query(table, columns,
+                    AlexandriaContract.BookEntry._ID + " = '" + ean + "'", null, null, null, null));
+            boundSum += readCursor(mDb.query(table, columns, AlexandriaContract.BookEntry._ID + " = ?",
+                    new String[] { Long.toString(ean) }, null, null, null));
+            statement.bindLong(1, ean);
+            compiledSum += statement.simpleQueryForLong();
+        }
+        assertEquals(BOOKS / 2, concatenatedSum);
+        assertEquals(BOOKS / 2, boundSum);
+        assertEquals(BOOKS / 2, compiledSum);
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < BOOKS; i++) {
+                readCursor(mDb.query(table, columns,
+                        AlexandriaContract.BookEntry._ID + " = '" + (TestDb.ean + i) + "'", null, null, null, null));
+            }
+        }
+        long concatenatedNanos = (System.nanoTime() - start) / (ROUNDS * BOOKS);
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < BOOKS; i++) {
+                readCursor(mDb.query(table, columns, AlexandriaContract.BookEntry._ID + " = ?",
+                        new String[] { Long.toString(TestDb.ean + i) }, null, null, null));
+            }
+        }
+        long boundNanos = (System.nanoTime() - start) / (ROUNDS * BOOKS);
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < BOOKS; i++) {
+                statement.bindLong(1, TestDb.ean + i);
+                statement.simpleQueryForLong();
+            }
+        }
+        long compiledNanos = (System.nanoTime() - start) / (ROUNDS * BOOKS);
+        statement.close();
+
+        // the provider call has the overhead of the content resolver on top of the statement
+        String ean = Long.toString(TestDb.ean);
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS * BOOKS; i++) {
+            Bundle result = mContext.getContentResolver().call(AlexandriaContract.BASE_CONTENT_URI,
+                    AlexandriaContract.METHOD_BOOK_SAVED, ean, null);
+            assertEquals(0, result.getLong(AlexandriaContract.EXTRA_RESULT));
+        }
+        long callNanos = (System.nanoTime() - start) / (ROUNDS * BOOKS);
+
+        Log.i(LOG_TAG, String.format("per lookup: concatenated %d us, bound query %d us, compiled statement " +
+                "%d us, provider call %d us", concatenatedNanos / 1000, boundNanos / 1000, compiledNanos / 1000,
+                callNanos / 1000));
+    }
+
+    private static long readCursor(Cursor cursor) {
+        long saved = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        cursor.close();
+        return saved;
+    }
+}
@@ -0,0 +1,95 @@
+package it.jaschke.alexandria;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Compares the isbn codec with the former normalization, that prefixed isbn-10 strings and parsed
+ *  the result with Long.parseLong, on time and allocations per isbn
+ */
+public class BenchmarkIsbnCodec extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkIsbnCodec.class.getSimpleName();
+
+    private static final int ISBNS = 1000;
+    private static final int ROUNDS = 100;
+    private static final String EAN_PREFIX = "978";
+
+    private String[] mIsbns;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // half isbn-10, half isbn-13 numbers
+        Random random = new Random(42);
+        mIsbns = new String[ISBNS];
+        for (int i = 0; i < ISBNS; i++) {
+            long ean = IsbnCodec.parse(String.format("%09d0", random.nextInt(1000000000)));
+            while (ean == IsbnCodec.INVALID) {
+                ean = IsbnCodec.parse(String.format("%09d%d", random.nextInt(1000000000), random.nextInt(10)));
+            }
+            mIsbns[i] = i % 2 == 0 ? IsbnCodec.toIsbn10(ean) : String.valueOf(ean);
+        }
+    }
+
+    public void testBenchmarkParse() {
+        // warm up
+        long codecSum = parseWithCodec();
+        long prefixSum = parseWithPrefix();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            codecSum += parseWithCodec();
+        }
+        long codecNanos = (System.nanoTime() - start) / (ROUNDS * ISBNS);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            prefixSum += parseWithPrefix();
+        }
+        long prefixNanos = (System.nanoTime() - start) / (ROUNDS * ISBNS);
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        parseWithCodec();
+        Debug.stopAllocCounting();
+        long codecAllocated = Debug.getThreadAllocSize() / ISBNS;
+
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        parseWithPrefix();
+        Debug.stopAllocCounting();
+        long prefixAllocated = Debug.getThreadAllocSize() / ISBNS;
+
+        Log.i(LOG_TAG, String.format("codec %d ns, %d bytes allocated, prefix and parseLong %d ns, %d bytes " +
+                "allocated per isbn (checksums %d, %d)", codecNanos, codecAllocated, prefixNanos, prefixAllocated,
+                codecSum, prefixSum));
+        assertEquals(0, codecAllocated);
+    }
+
+    private long parseWithCodec() {
+        long sum = 0;
+        for (String isbn : mIsbns) {
+            sum += IsbnCodec.parse(isbn);
+        }
+        return sum;
+    }
+
+    private long parseWithPrefix() {
+        long sum = 0;
+        for (String isbn : mIsbns) {
+            String ean = isbn;
+            if (ean.length() == 10 && !ean.startsWith(EAN_PREFIX)) {
+                ean = EAN_PREFIX + ean;
+            }
+            try {
+                sum += Long.parseLong(ean);
+            } catch (NumberFormatException e) {
+                sum--;
+            }
+        }
+        return sum;
+    }
+}
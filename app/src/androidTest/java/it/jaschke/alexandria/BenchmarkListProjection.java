@@ -0,0 +1,123 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentValues;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.DbHelper;
+
+/**
+ * Reads the saved books at 10k books by title, as the book list does, once with all columns as
+ *  the list used to query them and once with the list projection, that the list index covers.
+ *  Measures the query time, the bytes of the values put in the cursor windows and the number of
+ *  times the window had to be filled. Runs on a database of its own.
+ */
+public class BenchmarkListProjection extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkListProjection.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE = "benchmark_list.db";
+    private static final int BOOKS = 10000;
+    private static final int ROUNDS = 3;
+    // descriptions of the books services are a few kilobytes
+    private static final int DESC_REPEAT = 12;
+    private static final String SELECTION = AlexandriaContract.BookEntry.SAVED + " = ?";
+    private static final String[] SELECTION_ARGS = { "1" };
+    private static final String ORDER = AlexandriaContract.BookEntry.TITLE + ", " + AlexandriaContract.BookEntry._ID;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        mDb = new DbHelper(mContext, BENCHMARK_DATABASE).getWritableDatabase();
+        StringBuilder desc = new StringBuilder();
+        for (int i = 0; i < DESC_REPEAT; i++) {
+            desc.append(TestDb.desc).append(' ');
+        }
+        mDb.beginTransaction();
+        try {
+            ContentValues book = TestDb.getBookValues();
+            book.put(AlexandriaContract.BookEntry.SAVED, 1);
+            book.put(AlexandriaContract.BookEntry.DESC, desc.toString());
+            for (int i = 0; i < BOOKS; i++) {
+                book.put(AlexandriaContract.BookEntry._ID, TestDb.ean + i);
+                book.put(AlexandriaContract.BookEntry.TITLE, TestDb.title + " " + (i * 7919 % BOOKS));
+                mDb.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, book);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        super.tearDown();
+    }
+
+    public void testBenchmarkProjection() throws Exception {
+        // warm up the page cache with both queries
+        readList(null, new long[2]);
+        readList(AlexandriaContract.BookEntry.LIST_PROJECTION, new long[2]);
+
+        long[] all = new long[2];
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            readList(null, all);
+        }
+        long allMillis = (System.nanoTime() - start) / (ROUNDS * 1000000L);
+
+        long[] list = new long[2];
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            readList(AlexandriaContract.BookEntry.LIST_PROJECTION, list);
+        }
+        long listMillis = (System.nanoTime() - start) / (ROUNDS * 1000000L);
+
+        assertTrue(list[0] < all[0]);
+        Log.i(LOG_TAG, String.format("%d books: all columns %d ms, %d KiB in %d window fills; list projection " +
+                "%d ms, %d KiB in %d window fills; saved %d ms and %d KiB", BOOKS, allMillis,
+                all[0] / ROUNDS / 1024, all[1] / ROUNDS, listMillis, list[0] / ROUNDS / 1024, list[1] / ROUNDS,
+                allMillis - listMillis, (all[0] - list[0]) / ROUNDS / 1024));
+    }
+
+    /**
+     * Query the saved books and read every row, as scrolling through the list does
+     * @param projection String[] null for all columns
+     * @param totals long[] adds the bytes of the values read and the number of window fills
+     * @throws UnsupportedEncodingException
+     */
+    private void readList(String[] projection, long[] totals) throws UnsupportedEncodingException {
+        Cursor cursor = mDb.query(AlexandriaContract.BookEntry.TABLE_NAME, projection, SELECTION, SELECTION_ARGS,
+                null, null, ORDER);
+        int columns = cursor.getColumnCount();
+        int windowStart = -1;
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            int start = ((AbstractWindowedCursor) cursor).getWindow().getStartPosition();
+            if (start != windowStart) {
+                windowStart = start;
+                totals[1]++;
+            }
+            for (int i = 0; i < columns; i++) {
+                if (cursor.getType(i) == Cursor.FIELD_TYPE_STRING) {
+                    totals[0] += cursor.getString(i).getBytes("UTF-8").length + 1;
+                } else {
+                    totals[0] += 8;
+                }
+            }
+            rows++;
+        }
+        cursor.close();
+        assertEquals(BOOKS, rows);
+    }
+}
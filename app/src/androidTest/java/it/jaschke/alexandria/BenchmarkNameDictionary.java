@@ -0,0 +1,206 @@
+package it.jaschke.alexandria;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Compares the storage of the author and category names at 10k books: a name per book, as the
+ *  authors and categories tables of version 8 stored them, and a dictionary with each name once and
+ *  link tables, with the views the provider reads, as version 9 stores them. Measures the size of
+ *  the names in the database and the time of the author and category filtered queries. The books
+ *  have few categories and many authors, as a library has.
+ */
+public class BenchmarkNameDictionary extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkNameDictionary.class.getSimpleName();
+
+    private static final String NAMES_DATABASE = "benchmark_names.db";
+    private static final String DICTIONARY_DATABASE = "benchmark_dictionary.db";
+    private static final int BOOKS = 10000;
+    private static final int AUTHORS = 3000;
+    private static final int CATEGORIES = 30;
+    private static final int ROUNDS = 20;
+
+    // the author and category tables of version 8
+    private static final String[] NAMES_SCHEMA = {
+            "CREATE TABLE authors (_id INTEGER,author TEXT)",
+            "CREATE TABLE categories (_id INTEGER,category TEXT)",
+            "CREATE UNIQUE INDEX authors_id_author ON authors (_id, author)",
+            "CREATE UNIQUE INDEX categories_id_category ON categories (_id, category)"
+    };
+
+    // the dictionaries, link tables and views of version 9
+    private static final String[] DICTIONARY_SCHEMA = {
+            "CREATE TABLE author (_id INTEGER PRIMARY KEY,name TEXT NOT NULL UNIQUE)",
+            "CREATE TABLE book_author (book_id INTEGER NOT NULL,author_id INTEGER NOT NULL, " +
+                    "UNIQUE (book_id, author_id))",
+            "CREATE INDEX book_author_author ON book_author (author_id, book_id)",
+            "CREATE VIEW authors AS SELECT book_author.book_id AS _id, author.name AS author " +
+                    "FROM book_author JOIN author ON author._id = book_author.author_id",
+            "CREATE TRIGGER authors_insert INSTEAD OF INSERT ON authors BEGIN " +
+                    "INSERT OR IGNORE INTO author (name) VALUES (new.author); " +
+                    "INSERT OR IGNORE INTO book_author (book_id, author_id) SELECT new._id, _id FROM author " +
+                    "WHERE name = new.author; END",
+            "CREATE TABLE category (_id INTEGER PRIMARY KEY,name TEXT NOT NULL UNIQUE)",
+            "CREATE TABLE book_category (book_id INTEGER NOT NULL,category_id INTEGER NOT NULL, " +
+                    "UNIQUE (book_id, category_id))",
+            "CREATE INDEX book_category_category ON book_category (category_id, book_id)",
+            "CREATE VIEW categories AS SELECT book_category.book_id AS _id, category.name AS category " +
+                    "FROM book_category JOIN category ON category._id = book_category.category_id",
+            "CREATE TRIGGER categories_insert INSTEAD OF INSERT ON categories BEGIN " +
+                    "INSERT OR IGNORE INTO category (name) VALUES (new.category); " +
+                    "INSERT OR IGNORE INTO book_category (book_id, category_id) SELECT new._id, _id FROM category " +
+                    "WHERE name = new.category; END"
+    };
+
+    private static final String BOOKS_SCHEMA = "CREATE TABLE books (_id INTEGER PRIMARY KEY,title TEXT NOT NULL)";
+
+    private static final String BY_AUTHOR = "SELECT COUNT(*) FROM books WHERE _id IN " +
+            "(SELECT _id FROM authors WHERE author = ?)";
+    private static final String BY_CATEGORY = "SELECT COUNT(*) FROM books WHERE _id IN " +
+            "(SELECT _id FROM categories WHERE category = ?)";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(NAMES_DATABASE);
+        mContext.deleteDatabase(DICTIONARY_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(NAMES_DATABASE);
+        mContext.deleteDatabase(DICTIONARY_DATABASE);
+        super.tearDown();
+    }
+
+    public void testBenchmarkNames() {
+        SQLiteDatabase names = mContext.openOrCreateDatabase(NAMES_DATABASE, 0, null);
+        long namesBytes = fill(names, NAMES_SCHEMA);
+        SQLiteDatabase dictionary = mContext.openOrCreateDatabase(DICTIONARY_DATABASE, 0, null);
+        long dictionaryBytes = fill(dictionary, DICTIONARY_SCHEMA);
+
+        // both layouts answer the same
+        String author = authorName(0);
+        String category = categoryName(0);
+        assertEquals(count(names, BY_AUTHOR, author), count(dictionary, BY_AUTHOR, author));
+        assertEquals(count(names, BY_CATEGORY, category), count(dictionary, BY_CATEGORY, category));
+
+        long namesAuthorMicros = time(names, BY_AUTHOR, true);
+        long dictionaryAuthorMicros = time(dictionary, BY_AUTHOR, true);
+        long namesCategoryMicros = time(names, BY_CATEGORY, false);
+        long dictionaryCategoryMicros = time(dictionary, BY_CATEGORY, false);
+        names.close();
+        dictionary.close();
+
+        Log.i(LOG_TAG, String.format("%d books: names %d KiB, by author %d us, by category %d us; " +
+                "dictionary %d KiB, by author %d us, by category %d us", BOOKS, namesBytes / 1024,
+                namesAuthorMicros, namesCategoryMicros, dictionaryBytes / 1024, dictionaryAuthorMicros,
+                dictionaryCategoryMicros));
+        assertTrue(dictionaryBytes < namesBytes);
+    }
+
+    /**
+     * Store the books with one or two authors and a category each
+     * @param db SQLiteDatabase
+     * @param schema String[] statements creating the name storage
+     * @return long bytes the names take in the database
+     */
+    private static long fill(SQLiteDatabase db, String[] schema) {
+        db.execSQL(BOOKS_SCHEMA);
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            SQLiteStatement book = db.compileStatement("INSERT INTO books (_id, title) VALUES (?, ?)");
+            for (int i = 0; i < BOOKS; i++) {
+                book.bindLong(1, TestDb.ean + i);
+                book.bindString(2, TestDb.title + " " + i);
+                book.executeInsert();
+            }
+            book.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long withoutNames = size(db);
+
+        for (String sql : schema) {
+            db.execSQL(sql);
+        }
+        db.beginTransaction();
+        try {
+            SQLiteStatement author = db.compileStatement("INSERT INTO authors (_id, author) VALUES (?, ?)");
+            SQLiteStatement category = db.compileStatement("INSERT INTO categories (_id, category) VALUES (?, ?)");
+            for (int i = 0; i < BOOKS; i++) {
+                int authors = 1 + random.nextInt(2);
+                for (int j = 0; j < authors; j++) {
+                    author.bindLong(1, TestDb.ean + i);
+                    author.bindString(2, authorName(random.nextInt(AUTHORS)));
+                    author.execute();
+                }
+                category.bindLong(1, TestDb.ean + i);
+                category.bindString(2, categoryName(random.nextInt(CATEGORIES)));
+                category.execute();
+            }
+            author.close();
+            category.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return size(db) - withoutNames;
+    }
+
+    private static String authorName(int i) {
+        return TestDb.author + " " + i;
+    }
+
+    private static String categoryName(int i) {
+        return TestDb.category + " & Technology / General " + i;
+    }
+
+    /**
+     * Get the size of the database without free pages
+     * @param db SQLiteDatabase
+     * @return long bytes
+     */
+    private static long size(SQLiteDatabase db) {
+        db.execSQL("VACUUM");
+        return readLong(db, "PRAGMA page_count") * readLong(db, "PRAGMA page_size");
+    }
+
+    private static long readLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        cursor.moveToFirst();
+        long value = cursor.getLong(0);
+        cursor.close();
+        return value;
+    }
+
+    private static long count(SQLiteDatabase db, String sql, String name) {
+        Cursor cursor = db.rawQuery(sql, new String[] { name });
+        cursor.moveToFirst();
+        long count = cursor.getLong(0);
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Time a filtered query over different names
+     * @param db SQLiteDatabase
+     * @param sql String
+     * @param byAuthor boolean filter by author names, else by category names
+     * @return long microseconds per query
+     */
+    private static long time(SQLiteDatabase db, String sql, boolean byAuthor) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            count(db, sql, byAuthor ? authorName(i) : categoryName(i % CATEGORIES));
+        }
+        return (System.nanoTime() - start) / (ROUNDS * 1000L);
+    }
+}
@@ -0,0 +1,123 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.StorageProfile;
+
+/**
+ * Counts the change notifications the book list loader gets, each one a requery, while 500 books
+ *  are imported the way the service drains its queue: every book with its author and category in
+ *  a batch of its own, then marked as saved. The import runs once with immediate notifications and
+ *  once with the bulk import profile, that debounces them.
+ */
+public class BenchmarkNotifications extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkNotifications.class.getSimpleName();
+
+    private static final int BOOKS = 500;
+    // time for the notifications to reach the observer
+    private static final long SETTLE_MILLIS = 1000;
+
+    private final AtomicInteger mListChanges = new AtomicInteger();
+
+    private final ContentObserver mListObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mListChanges.incrementAndGet();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        // registered the way the cursor of the book list loader registers
+        mContext.getContentResolver().registerContentObserver(AlexandriaContract.BookEntry.CONTENT_URI, true,
+                mListObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mListObserver);
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testBenchmarkImportNotifications() throws Exception {
+        int immediate = runImport(false);
+        deleteAll();
+        int debounced = runImport(true);
+        Log.i(LOG_TAG, String.format("book list requeries during the import of %d books: immediate %d, " +
+                "debounced %d", BOOKS, immediate, debounced));
+        assertTrue(debounced < immediate);
+    }
+
+    /**
+     * Import the books and count the notifications of the book list
+     * @param bulkImport boolean use the bulk import profile
+     * @return int
+     * @throws Exception
+     */
+    private int runImport(boolean bulkImport) throws Exception {
+        Thread.sleep(SETTLE_MILLIS);
+        mListChanges.set(0);
+        if (bulkImport) {
+            setStorageProfile(StorageProfile.BULK_IMPORT);
+        }
+        try {
+            for (int i = 0; i < BOOKS; i++) {
+                importBook(TestDb.ean + i);
+            }
+        } finally {
+            if (bulkImport) {
+                setStorageProfile(StorageProfile.INTERACTIVE);
+            }
+        }
+        Thread.sleep(SETTLE_MILLIS);
+        return mListChanges.get();
+    }
+
+    private void importBook(long ean) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        ContentValues book = TestDb.getBookValues();
+        book.put(AlexandriaContract.BookEntry._ID, ean);
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.BookEntry.CONTENT_URI)
+                .withValues(book)
+                .build());
+        ContentValues author = TestDb.getAuthorValues();
+        author.put(AlexandriaContract.AuthorEntry._ID, ean);
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.AuthorEntry.CONTENT_URI)
+                .withValues(author)
+                .build());
+        ContentValues category = TestDb.getCategoryValues();
+        category.put(AlexandriaContract.CategoryEntry._ID, ean);
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.CategoryEntry.CONTENT_URI)
+                .withValues(category)
+                .build());
+        mContext.getContentResolver().applyBatch(AlexandriaContract.CONTENT_AUTHORITY, operations);
+
+        ContentValues saved = new ContentValues();
+        saved.put(AlexandriaContract.BookEntry.SAVED, 1);
+        Uri bookUri = AlexandriaContract.BookEntry.buildBookUri(ean);
+        mContext.getContentResolver().update(bookUri, saved, null, null);
+    }
+
+    private void setStorageProfile(StorageProfile profile) {
+        mContext.getContentResolver().call(AlexandriaContract.BASE_CONTENT_URI,
+                AlexandriaContract.METHOD_STORAGE_PROFILE, profile.getName(), null);
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(AlexandriaContract.BookEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(AlexandriaContract.AuthorEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(AlexandriaContract.CategoryEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,115 @@
+package it.jaschke.alexandria;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.Book;
+
+/**
+ * Compares the two ways the add book preview gets its book after a fetch: the full book query
+ *  that the cursor loader used to run, and the book handed
+ *  over by the service. The handoff through the local broadcast passes the object itself, the
+ *  benchmark parcels it as well, the way it is kept in the saved instance state.
+ */
+public class BenchmarkPreviewHandoff extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkPreviewHandoff.class.getSimpleName();
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    private Book mBook;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(AlexandriaContract.BookEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(AlexandriaContract.AuthorEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(AlexandriaContract.CategoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, TestDb.getBookValues());
+        mContext.getContentResolver().insert(AlexandriaContract.AuthorEntry.CONTENT_URI, TestDb.getAuthorValues());
+        mContext.getContentResolver().insert(AlexandriaContract.CategoryEntry.CONTENT_URI, TestDb.getCategoryValues());
+        mBook = new Book(String.valueOf(TestDb.ean), TestDb.title, TestDb.subtitle, TestDb.desc, TestDb.imgUrl,
+                Arrays.asList(TestDb.author), Arrays.asList(TestDb.category));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(AlexandriaContract.BookEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(AlexandriaContract.AuthorEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(AlexandriaContract.CategoryEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testParcelRoundTrip() {
+        Book book = parcel(mBook);
+        assertEquals(mBook.getEan(), book.getEan());
+        assertEquals(mBook.getTitle(), book.getTitle());
+        assertEquals(mBook.getSubtitle(), book.getSubtitle());
+        assertEquals(mBook.getDescription(), book.getDescription());
+        assertEquals(mBook.getImageUrl(), book.getImageUrl());
+        assertEquals(mBook.getAuthors(), book.getAuthors());
+        assertEquals(mBook.getCategories(), book.getCategories());
+    }
+
+    public void testBenchmarkHandoff() {
+        for (int i = 0; i < WARMUP; i++) {
+            queryFullBook();
+            parcel(mBook);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            queryFullBook();
+        }
+        long queryNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parcel(mBook);
+        }
+        long parcelNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(LOG_TAG, String.format("full book query %d us, parcelled book %d us", queryNanos / 1000, parcelNanos / 1000));
+    }
+
+    /**
+     * Read the preview columns the way the cursor loader did
+     */
+    private void queryFullBook() {
+        Cursor cursor = mContext.getContentResolver().query(
+                AlexandriaContract.BookEntry.buildFullBookUri(TestDb.ean), null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+        cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.SUBTITLE));
+        cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.DESC));
+        cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.IMAGE_URL));
+        cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.AUTHORS_DISPLAY));
+        cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY));
+        cursor.close();
+    }
+
+    /**
+     * Write the book to a parcel in a bundle and read it back
+     * @param book Book
+     * @return Book
+     */
+    private static Book parcel(Book book) {
+        Bundle bundle = new Bundle();
+        bundle.putParcelable("book", book);
+        Parcel parcel = Parcel.obtain();
+        try {
+            bundle.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            Bundle read = parcel.readBundle(Book.class.getClassLoader());
+            return read.getParcelable("book");
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
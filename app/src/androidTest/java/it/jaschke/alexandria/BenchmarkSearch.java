@@ -0,0 +1,152 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.BookProvider;
+import it.jaschke.alexandria.data.DbHelper;
+
+/**
+ * Compares the search of the book list through the full text index with the former LIKE filter on
+ *  title and subtitle, at 1k, 10k and 100k saved books. Runs on its own database so the books of
+ *  the app are left alone.
+ */
+public class BenchmarkSearch extends AndroidTestCase {
+    public static final String LOG_TAG = BenchmarkSearch.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE = "benchmark_search.db";
+    private static final int[] SIZES = { 1000, 10000, 100000 };
+    private static final int ITERATIONS = 20;
+
+    private static final String[] WORDS = { "android", "java", "kotlin", "database", "network", "design",
+            "patterns", "modern", "approach", "artificial", "intelligence", "systems", "programming",
+            "compilers", "algorithms", "structures", "learning", "practice", "theory", "introduction" };
+    private static final String[] NAMES = { "Russell", "Norvig", "Knuth", "Fowler", "Bloch", "Gamma",
+            "Helm", "Johnson", "Vlissides", "Tanenbaum" };
+
+    // a prefix as typed into the search box
+    private static final String QUERY = "algor";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        mDb = new DbHelper(mContext, BENCHMARK_DATABASE).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE);
+        super.tearDown();
+    }
+
+    public void testBenchmarkSearch() {
+        Random random = new Random(42);
+        int inserted = 0;
+        for (int size : SIZES) {
+            insertBooks(random, inserted, size);
+            inserted = size;
+
+            int likeCount = searchLike();
+            int matchCount = searchIndex();
+            // the index also matches the other columns, never less than the title and subtitle
+            assertTrue(matchCount >= likeCount);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                searchLike();
+            }
+            long likeMicros = (System.nanoTime() - start) / ITERATIONS / 1000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                searchIndex();
+            }
+            long matchMicros = (System.nanoTime() - start) / ITERATIONS / 1000;
+
+            Log.i(LOG_TAG, String.format("%d books: like %d us (%d rows), full text %d us (%d rows)",
+                    size, likeMicros, likeCount, matchMicros, matchCount));
+        }
+    }
+
+    /**
+     * Insert generated books with an author each, up to the given number of books
+     * @param random Random
+     * @param from int number of books already inserted
+     * @param to int
+     */
+    private void insertBooks(Random random, int from, int to) {
+        mDb.beginTransaction();
+        try {
+            ContentValues book = new ContentValues();
+            ContentValues author = new ContentValues();
+            for (int i = from; i < to; i++) {
+                long ean = TestDb.ean + i;
+                book.put(AlexandriaContract.BookEntry._ID, ean);
+                book.put(AlexandriaContract.BookEntry.SAVED, 1);
+                book.put(AlexandriaContract.BookEntry.TITLE, words(random, 3));
+                book.put(AlexandriaContract.BookEntry.SUBTITLE, words(random, 4));
+                book.put(AlexandriaContract.BookEntry.DESC, words(random, 30));
+                mDb.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, book);
+                author.put(AlexandriaContract.AuthorEntry._ID, ean);
+                author.put(AlexandriaContract.AuthorEntry.AUTHOR, NAMES[random.nextInt(NAMES.length)]);
+                mDb.insert(AlexandriaContract.AuthorEntry.TABLE_NAME, null, author);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Run the search the book list used to run
+     * @return int number of rows
+     */
+    private int searchLike() {
+        String like = "%" + QUERY + "%";
+        Cursor cursor = mDb.query(AlexandriaContract.BookEntry.TABLE_NAME, null,
+                AlexandriaContract.BookEntry.SAVED + " = ? AND (" + AlexandriaContract.BookEntry.TITLE +
+                        " LIKE ? OR " + AlexandriaContract.BookEntry.SUBTITLE + " LIKE ? )",
+                new String[] { "1", like, like }, null, null, null);
+        return readAll(cursor);
+    }
+
+    /**
+     * Run the search of the search uri
+     * @return int number of rows
+     */
+    private int searchIndex() {
+        Cursor cursor = BookProvider.search(mDb, QUERY, null, AlexandriaContract.BookEntry.SAVED + " = ?",
+                new String[] { "1" }, null);
+        return readAll(cursor);
+    }
+
+    private static int readAll(Cursor cursor) {
+        int count = 0;
+        while (cursor.moveToNext()) {
+            count++;
+        }
+        cursor.close();
+        return count;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+}
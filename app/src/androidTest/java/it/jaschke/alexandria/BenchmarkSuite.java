@@ -0,0 +1,20 @@
+package it.jaschke.alexandria;
+
+import android.test.suitebuilder.TestSuiteBuilder;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Runs the benchmarks, which are left out of the FullTestSuite
+ */
+public class BenchmarkSuite extends TestSuite {
+    public static Test suite() {
+        return FullTestSuite.filter(new TestSuiteBuilder(BenchmarkSuite.class)
+                .includeAllPackagesUnderHere().build(), true);
+    }
+
+    public BenchmarkSuite() {
+        super();
+    }
+}
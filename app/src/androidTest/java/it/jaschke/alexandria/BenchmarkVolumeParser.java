@@ -0,0 +1,200 @@
+package it.jaschke.alexandria;
+
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import it.jaschke.alexandria.data.Book;
+import it.jaschke.alexandria.services.VolumeParser;
+
+/**
+ * Compares the streaming volume parser with the previous json object (dom) parser on recorded
+ *  google books responses. Both paths start from the raw response bytes, the dom path includes
+ *  reading the body into a string the way the service used to do.
+ */
+public class BenchmarkVolumeParser extends InstrumentationTestCase {
+    public static final String LOG_TAG = BenchmarkVolumeParser.class.getSimpleName();
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    private static final String[] RESPONSES = {
+            "volumes/isbn_9780137903955.json",
+            "volumes/isbn_9780137903955_ten_items.json"
+    };
+
+    public void testParsersReturnTheSameBook() throws Exception {
+        for (String response : RESPONSES) {
+            byte[] body = readAsset(response);
+            Book streamed = VolumeParser.parse(new ByteArrayInputStream(body), "9780137903955");
+            Book dom = VolumeParser.parseDom(readBody(new ByteArrayInputStream(body)), "9780137903955");
+            assertEquals(dom.getTitle(), streamed.getTitle());
+            assertEquals(dom.getSubtitle(), streamed.getSubtitle());
+            assertEquals(dom.getDescription(), streamed.getDescription());
+            assertEquals(dom.getImageUrl(), streamed.getImageUrl());
+            assertEquals(dom.getAuthors(), streamed.getAuthors());
+            assertEquals(dom.getCategories(), streamed.getCategories());
+        }
+        assertNull(VolumeParser.parse(new ByteArrayInputStream(readAsset("volumes/isbn_not_found.json")), "9780000000002"));
+    }
+
+    public void testUnusableVolumeIsNotFound() throws Exception {
+        // a volume without a title, or a malformed response, is not retried as a failed lookup
+        assertNull(VolumeParser.parse(new ByteArrayInputStream(
+                "{\"items\":[{\"volumeInfo\":{\"subtitle\":\"A Modern Approach\"}}]}".getBytes("UTF-8")),
+                "9780137903955"));
+        assertNull(VolumeParser.parse(new ByteArrayInputStream("{\"items\":[{}]}".getBytes("UTF-8")),
+                "9780137903955"));
+        assertNull(VolumeParser.parse(new ByteArrayInputStream("{\"items\":[\"title\"]}".getBytes("UTF-8")),
+                "9780137903955"));
+    }
+
+    public void testPartialResponse() throws Exception {
+        assertEquals("items(volumeInfo(title,subtitle,description,imageLinks/thumbnail,authors,categories))",
+                VolumeParser.getFields());
+
+        // the recorded partial response holds the same book as the full response
+        byte[] full = readAsset("volumes/isbn_9780137903955.json");
+        byte[] partial = readAsset("volumes/isbn_9780137903955_fields.json");
+        Book fullBook = VolumeParser.parse(new ByteArrayInputStream(full), "9780137903955");
+        Book partialBook = VolumeParser.parse(new ByteArrayInputStream(partial), "9780137903955");
+        assertEquals(fullBook.getTitle(), partialBook.getTitle());
+        assertEquals(fullBook.getSubtitle(), partialBook.getSubtitle());
+        assertEquals(fullBook.getDescription(), partialBook.getDescription());
+        assertEquals(fullBook.getImageUrl(), partialBook.getImageUrl());
+        assertEquals(fullBook.getAuthors(), partialBook.getAuthors());
+        assertEquals(fullBook.getCategories(), partialBook.getCategories());
+
+        // payload on the wire, before maxResults=1 the api returned up to ten items
+        byte[] tenItems = readAsset("volumes/isbn_9780137903955_ten_items.json");
+        Log.i(LOG_TAG, String.format("payload: ten items %d bytes (%d gzip), one item %d bytes (%d gzip), partial %d bytes (%d gzip)",
+                tenItems.length, gzip(tenItems).length,
+                full.length, gzip(full).length,
+                partial.length, gzip(partial).length));
+        assertTrue(gzip(partial).length < gzip(full).length);
+    }
+
+    public void testParseBatch() throws Exception {
+        String json = "{\"items\": [" +
+                "{\"volumeInfo\": {\"title\": \"Unrelated\", \"industryIdentifiers\": [" +
+                "{\"type\": \"ISBN_13\", \"identifier\": \"9780000000002\"}]}}," +
+                "{\"volumeInfo\": {\"title\": \"Artificial Intelligence\", \"authors\": [\"Peter Norvig\"], " +
+                "\"industryIdentifiers\": [{\"type\": \"ISBN_10\", \"identifier\": \"0137903952\"}]}}," +
+                "{\"volumeInfo\": {\"title\": \"Second edition\", \"industryIdentifiers\": [" +
+                "{\"type\": \"ISBN_13\", \"identifier\": \"9780137903955\"}]}}," +
+                "{\"volumeInfo\": {\"title\": \"Clean Code\", \"industryIdentifiers\": [" +
+                "{\"type\": \"OTHER\", \"identifier\": \"UOM:39015\"}," +
+                "{\"type\": \"ISBN_13\", \"identifier\": \"9780132350884\"}]}}" +
+                "]}";
+        Map<String, Book> books = VolumeParser.parseBatch(new ByteArrayInputStream(json.getBytes("UTF-8")),
+                new HashSet<String>(Arrays.asList("9780137903955", "9780132350884", "9781111111111")));
+        assertEquals(2, books.size());
+        // matched by its isbn-10, the first matching volume wins
+        assertEquals("Artificial Intelligence", books.get("9780137903955").getTitle());
+        assertEquals("9780137903955", books.get("9780137903955").getEan());
+        assertEquals(Arrays.asList("Peter Norvig"), books.get("9780137903955").getAuthors());
+        assertEquals("Clean Code", books.get("9780132350884").getTitle());
+        assertNull(books.get("9781111111111"));
+    }
+
+    public void testBenchmarkParsers() throws Exception {
+        for (String response : RESPONSES) {
+            byte[] body = readAsset(response);
+            Result dom = run(body, false);
+            Result streamed = run(body, true);
+            Log.i(LOG_TAG, String.format("%s (%d bytes): dom %d us, %d bytes allocated | streaming %d us, %d bytes allocated",
+                    response, body.length,
+                    dom.micros, dom.allocatedBytes,
+                    streamed.micros, streamed.allocatedBytes));
+            assertTrue(streamed.allocatedBytes < dom.allocatedBytes);
+        }
+    }
+
+    /**
+     * Average time and allocated bytes per parse
+     */
+    private static class Result {
+        long micros;
+        long allocatedBytes;
+    }
+
+    private Result run(byte[] body, boolean streaming) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            parse(body, streaming);
+        }
+
+        Result result = new Result();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse(body, streaming);
+        }
+        result.micros = (System.nanoTime() - start) / ITERATIONS / 1000;
+
+        // allocation counting slows down execution, so measure it in a separate pass
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse(body, streaming);
+        }
+        Debug.stopAllocCounting();
+        result.allocatedBytes = Debug.getThreadAllocSize() / ITERATIONS;
+        return result;
+    }
+
+    private static Book parse(byte[] body, boolean streaming) throws Exception {
+        InputStream in = new ByteArrayInputStream(body);
+        if (streaming) {
+            return VolumeParser.parse(in, "9780137903955");
+        } else {
+            return VolumeParser.parseDom(readBody(in), "9780137903955");
+        }
+    }
+
+    /**
+     * Read the body line by line like the service did before the streaming parser
+     */
+    private static String readBody(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line);
+            buffer.append("\n");
+        }
+        return buffer.toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private byte[] readAsset(String name) throws IOException {
+        InputStream in = getInstrumentation().getContext().getAssets().open(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package it.jaschke.alexandria;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local http server standing in for the books api. It answers every request with the
+ *  next scripted response code, or drops or stalls the connection to simulate a network error. When the
+ *  script is used up, requests get a 200 with an empty volumes response.
+ */
+public class FaultyHttpServer {
+
+    // scripted code that closes the connection without an answer
+    public static final int DROP = -1;
+    // scripted code that never answers, until the client closes the connection
+    public static final int STALL = -2;
+
+    private static final String BODY = "{\"kind\": \"books#volumes\", \"totalItems\": 0}";
+
+    private final ServerSocket mServerSocket;
+    private final LinkedList<Integer> mScript = new LinkedList<Integer>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Thread mThread;
+
+    /**
+     * Start the server on a free local port
+     * @throws IOException
+     */
+    public FaultyHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "FaultyHttpServer");
+        mThread.start();
+    }
+
+    /**
+     * Add responses to the script
+     * @param codes int... http status codes or DROP
+     */
+    public synchronized void enqueue(int... codes) {
+        for (int code : codes) {
+            mScript.add(code);
+        }
+    }
+
+    /**
+     * Get the url of the server
+     * @return URL
+     * @throws IOException
+     */
+    public URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + "/books/v1/volumes");
+    }
+
+    /**
+     * Get the number of requests received
+     * @return int
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Stop the server
+     * @throws IOException
+     */
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private synchronized int nextCode() {
+        return mScript.isEmpty() ? 200 : mScript.removeFirst();
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket = null;
+            try {
+                socket = mServerSocket.accept();
+                // read the request up to the empty line after the headers
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null && line.length() > 0) {
+                    // skip
+                }
+                mRequestCount.incrementAndGet();
+                int code = nextCode();
+                if (code == STALL) {
+                    // wait for the client to give up
+                    while (socket.getInputStream().read() != -1) {
+                        // skip
+                    }
+                } else if (code != DROP) {
+                    byte[] body = BODY.getBytes("UTF-8");
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 " + code + " Scripted\r\n" +
+                            "Content-Type: application/json\r\n" +
+                            "Content-Length: " + body.length + "\r\n" +
+                            "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                    out.write(body);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // closed
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package it.jaschke.alexandria;
 
 import android.test.suitebuilder.TestSuiteBuilder;
 
+import java.util.Enumeration;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -9,9 +11,35 @@ import junit.framework.TestSuite;
  * Created by saj on 23/12/14.
  */
 public class FullTestSuite extends TestSuite {
+    // prefix of the test classes that measure instead of verify, they are left out of this suite
+    static final String BENCHMARK_PREFIX = "Benchmark";
+
     public static Test suite() {
-        return new TestSuiteBuilder(FullTestSuite.class)
-                .includeAllPackagesUnderHere().build();
+        return filter(new TestSuiteBuilder(FullTestSuite.class)
+                .includeAllPackagesUnderHere().build(), false);
+    }
+
+    /**
+     * Keep either the benchmarks or the other tests of a suite
+     * @param suite TestSuite
+     * @param benchmarks boolean true to keep only the benchmarks
+     * @return TestSuite
+     */
+    static TestSuite filter(TestSuite suite, boolean benchmarks) {
+        TestSuite filtered = new TestSuite(suite.getName());
+        Enumeration<?> tests = suite.tests();
+        while (tests.hasMoreElements()) {
+            Test test = (Test) tests.nextElement();
+            if (test instanceof TestSuite) {
+                TestSuite child = filter((TestSuite) test, benchmarks);
+                if (child.testCount() > 0) {
+                    filtered.addTest(child);
+                }
+            } else if (test.getClass().getSimpleName().startsWith(BENCHMARK_PREFIX) == benchmarks) {
+                filtered.addTest(test);
+            }
+        }
+        return filtered;
     }
 
     public FullTestSuite() {
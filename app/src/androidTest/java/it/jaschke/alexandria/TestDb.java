@@ -25,6 +25,10 @@ public class TestDb extends AndroidTestCase {
     public final static String author = "Stuart Jonathan Russell";
     public final static String category = "Computers";
 
+    // values of the temp_store pragma
+    private static final int TEMP_STORE_DEFAULT = 0;
+    private static final int TEMP_STORE_MEMORY = 2;
+
     public void testCreateDb() throws Throwable {
         mContext.deleteDatabase(DbHelper.DATABASE_NAME);
         SQLiteDatabase db = new DbHelper(
@@ -111,6 +115,31 @@ public class TestDb extends AndroidTestCase {
 
     }
 
+    public void testStorageProfileAppliesToWriteConnection() {
+        DbHelper dbHelper = new DbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        // a transaction holds the primary connection, which gets the settings of the profile
+        db.beginTransaction();
+        try {
+            assertEquals(TEMP_STORE_MEMORY, readPragma(db, "temp_store"));
+        } finally {
+            db.endTransaction();
+        }
+        // a read query runs on a pooled connection with write-ahead logging, which keeps the default
+        assertEquals(TEMP_STORE_DEFAULT, readPragma(db, "temp_store"));
+
+        dbHelper.close();
+    }
+
+    private static int readPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        assertTrue(cursor.moveToFirst());
+        int value = cursor.getInt(0);
+        cursor.close();
+        return value;
+    }
+
     static void validateCursor(Cursor valueCursor, ContentValues expectedValues) {
 
         assertTrue(valueCursor.moveToFirst());
@@ -163,8 +192,8 @@ public class TestDb extends AndroidTestCase {
         values.put(AlexandriaContract.BookEntry.IMAGE_URL, imgUrl);
         values.put(AlexandriaContract.BookEntry.SUBTITLE, subtitle);
         values.put(AlexandriaContract.BookEntry.DESC, desc);
-        values.put(AlexandriaContract.AuthorEntry.AUTHOR, author);
-        values.put(AlexandriaContract.CategoryEntry.CATEGORY, category);
+        values.put(AlexandriaContract.BookEntry.AUTHORS_DISPLAY, author);
+        values.put(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY, category);
         return values;
     }
 
@@ -173,8 +202,8 @@ public class TestDb extends AndroidTestCase {
         final ContentValues values= new ContentValues();
         values.put(AlexandriaContract.BookEntry.TITLE, title);
         values.put(AlexandriaContract.BookEntry.IMAGE_URL, imgUrl);
-        values.put(AlexandriaContract.AuthorEntry.AUTHOR, author);
-        values.put(AlexandriaContract.CategoryEntry.CATEGORY, category);
+        values.put(AlexandriaContract.BookEntry.AUTHORS_DISPLAY, author);
+        values.put(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY, category);
         return values;
     }
 }
\ No newline at end of file
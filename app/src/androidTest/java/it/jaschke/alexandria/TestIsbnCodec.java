@@ -0,0 +1,111 @@
+package it.jaschke.alexandria;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/**
+ * Tests the isbn codec with known isbns and with properties that must hold for randomly
+ *  generated ones: conversions round trip, and every single digit error and every transposition
+ *  of adjacent isbn-10 digits is detected
+ */
+public class TestIsbnCodec extends AndroidTestCase {
+
+    private static final int SAMPLES = 2000;
+
+    private final Random mRandom = new Random(42);
+
+    public void testKnownIsbns() {
+        assertEquals(9780137903955L, IsbnCodec.parse("9780137903955"));
+        assertEquals(9780137903955L, IsbnCodec.parse("0137903952"));
+        assertEquals(9780804429573L, IsbnCodec.parse("080442957X"));
+        assertEquals(9780804429573L, IsbnCodec.parse("080442957x"));
+        assertEquals(9791032305690L, IsbnCodec.parse("9791032305690"));
+        assertEquals("0137903952", IsbnCodec.toIsbn10(9780137903955L));
+        assertEquals("080442957X", IsbnCodec.toIsbn10(9780804429573L));
+        // 979 eans have no isbn-10
+        assertNull(IsbnCodec.toIsbn10(9791032305690L));
+    }
+
+    public void testInvalidInput() {
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse(null));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse(""));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("978013790395"));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("97801379039555"));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("9780137903954"));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("0137903953"));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("97801379O3955"));
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("X137903952"));
+        // a valid ean, but not a book
+        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse("4006381333931"));
+    }
+
+    public void testRoundTrip() {
+        for (int i = 0; i < SAMPLES; i++) {
+            String isbn10 = randomIsbn10();
+            long ean = IsbnCodec.parse(isbn10);
+            assertTrue(isbn10, IsbnCodec.isValidEan(ean));
+            assertEquals(isbn10, IsbnCodec.toIsbn10(ean));
+            assertEquals(ean, IsbnCodec.parse(String.valueOf(ean)));
+        }
+    }
+
+    public void testSingleDigitErrorsDetected() {
+        for (int i = 0; i < SAMPLES; i++) {
+            String isbn10 = randomIsbn10();
+            String ean = String.valueOf(IsbnCodec.parse(isbn10));
+            for (int position = 0; position < 9; position++) {
+                for (char digit = '0'; digit <= '9'; digit++) {
+                    if (digit != isbn10.charAt(position)) {
+                        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse(replace(isbn10, position, digit)));
+                    }
+                }
+            }
+            // the prefix digits are covered by the bookland check
+            for (int position = 3; position < 13; position++) {
+                for (char digit = '0'; digit <= '9'; digit++) {
+                    if (digit != ean.charAt(position)) {
+                        assertEquals(IsbnCodec.INVALID, IsbnCodec.parse(replace(ean, position, digit)));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testTranspositionsDetected() {
+        for (int i = 0; i < SAMPLES; i++) {
+            String isbn10 = randomIsbn10();
+            for (int position = 0; position < 9; position++) {
+                char first = isbn10.charAt(position);
+                char second = isbn10.charAt(position + 1);
+                if (first != second) {
+                    String swapped = replace(replace(isbn10, position, second), position + 1, first);
+                    assertEquals(swapped, IsbnCodec.INVALID, IsbnCodec.parse(swapped));
+                }
+            }
+        }
+    }
+
+    /**
+     * Generate a random isbn-10 with a correct check digit
+     * @return String
+     */
+    private String randomIsbn10() {
+        char[] chars = new char[10];
+        int sum = 0;
+        for (int i = 0; i < 9; i++) {
+            int digit = mRandom.nextInt(10);
+            chars[i] = (char) ('0' + digit);
+            sum += digit * (10 - i);
+        }
+        int check = (11 - sum % 11) % 11;
+        chars[9] = check == 10 ? 'X' : (char) ('0' + check);
+        return new String(chars);
+    }
+
+    private static String replace(String value, int position, char c) {
+        char[] chars = value.toCharArray();
+        chars[position] = c;
+        return new String(chars);
+    }
+}
@@ -0,0 +1,225 @@
+package it.jaschke.alexandria;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.DbHelper;
+
+/**
+ * Tests the stepwise migration of a version 1 database to the current version, and that the
+ *  book queries use the indexes
+ */
+public class TestMigration extends AndroidTestCase {
+    public static final String LOG_TAG = TestMigration.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "migration_test.db";
+
+    // the schema of version 1, as it was shipped
+    private static final String[] VERSION_1 = {
+            "CREATE TABLE books (_id INTEGER PRIMARY KEY,saved INTEGER,title TEXT NOT NULL,subtitle TEXT ," +
+                    "description TEXT ,imgurl TEXT, UNIQUE (_id) ON CONFLICT IGNORE)",
+            "CREATE TABLE authors (_id INTEGER,author TEXT, FOREIGN KEY (_id) REFERENCES books (_id))",
+            "CREATE TABLE categories (_id INTEGER,category TEXT, FOREIGN KEY (_id) REFERENCES books (_id))"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    public void testMigrateFromVersion1() {
+        // a version 1 database with an author and a category written twice, and a book fetched
+        //  for the preview and not saved, with an author of its own
+        SQLiteDatabase v1 = mContext.openOrCreateDatabase(TEST_DATABASE, 0, null);
+        for (String sql : VERSION_1) {
+            v1.execSQL(sql);
+        }
+        v1.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, TestDb.getBookValues());
+        for (int i = 0; i < 2; i++) {
+            v1.insert(AlexandriaContract.AuthorEntry.TABLE_NAME, null, TestDb.getAuthorValues());
+            v1.insert(AlexandriaContract.CategoryEntry.TABLE_NAME, null, TestDb.getCategoryValues());
+        }
+        ContentValues unsaved = TestDb.getBookValues();
+        unsaved.put(AlexandriaContract.BookEntry._ID, TestDb.ean + 1);
+        unsaved.put(AlexandriaContract.BookEntry.SAVED, 0);
+        v1.insert(AlexandriaContract.BookEntry.TABLE_NAME, null, unsaved);
+        ContentValues unsavedAuthor = TestDb.getAuthorValues();
+        unsavedAuthor.put(AlexandriaContract.AuthorEntry._ID, TestDb.ean + 1);
+        unsavedAuthor.put(AlexandriaContract.AuthorEntry.AUTHOR, "Norvig, Peter");
+        v1.insert(AlexandriaContract.AuthorEntry.TABLE_NAME, null, unsavedAuthor);
+        v1.setVersion(1);
+        v1.close();
+
+        SQLiteDatabase db = new DbHelper(mContext, TEST_DATABASE).getWritableDatabase();
+        assertEquals(DbHelper.DATABASE_VERSION, db.getVersion());
+        // the saved book is preserved as it was written
+        Cursor stored = db.query(AlexandriaContract.BookEntry.TABLE_NAME, new String[] {
+                AlexandriaContract.BookEntry._ID, AlexandriaContract.BookEntry.TITLE,
+                AlexandriaContract.BookEntry.SUBTITLE, AlexandriaContract.BookEntry.DESC,
+                AlexandriaContract.BookEntry.IMAGE_URL }, null, null, null, null, null);
+        assertEquals(1, stored.getCount());
+        assertTrue(stored.moveToFirst());
+        assertEquals(TestDb.ean, stored.getLong(0));
+        assertEquals(TestDb.title, stored.getString(1));
+        assertEquals(TestDb.subtitle, stored.getString(2));
+        assertEquals(TestDb.desc, stored.getString(3));
+        assertEquals(TestDb.imgUrl, stored.getString(4));
+        stored.close();
+        // the duplicate author and category are removed, the unsaved book is gone with its author
+        //  and the names moved to the dictionaries
+        assertEquals(1, count(db, AlexandriaContract.AuthorEntry.TABLE_NAME));
+        assertEquals(1, count(db, AlexandriaContract.CategoryEntry.TABLE_NAME));
+        assertEquals(1, count(db, AlexandriaContract.AuthorEntry.LINK_TABLE));
+        assertEquals(1, count(db, AlexandriaContract.CategoryEntry.LINK_TABLE));
+        assertEquals(1, count(db, AlexandriaContract.AuthorEntry.DICTIONARY_TABLE));
+        assertEquals(1, count(db, AlexandriaContract.CategoryEntry.DICTIONARY_TABLE));
+        assertEquals(TestDb.author, readString(db, "SELECT " + AlexandriaContract.AuthorEntry.AUTHOR + " FROM " +
+                AlexandriaContract.AuthorEntry.TABLE_NAME + " WHERE _id = " + TestDb.ean));
+        assertEquals(TestDb.category, readString(db, "SELECT " + AlexandriaContract.CategoryEntry.CATEGORY + " FROM " +
+                AlexandriaContract.CategoryEntry.TABLE_NAME + " WHERE _id = " + TestDb.ean));
+        // the unique indexes keep the duplicates out
+        assertTrue(hasUniqueIndex(db, AlexandriaContract.AuthorEntry.LINK_TABLE,
+                AlexandriaContract.AuthorEntry.BOOK_ID, AlexandriaContract.AuthorEntry.NAME_ID));
+        assertTrue(hasUniqueIndex(db, AlexandriaContract.CategoryEntry.LINK_TABLE,
+                AlexandriaContract.CategoryEntry.BOOK_ID, AlexandriaContract.CategoryEntry.NAME_ID));
+        assertTrue(hasUniqueIndex(db, AlexandriaContract.AuthorEntry.DICTIONARY_TABLE,
+                AlexandriaContract.AuthorEntry.NAME));
+        assertTrue(hasUniqueIndex(db, AlexandriaContract.CategoryEntry.DICTIONARY_TABLE,
+                AlexandriaContract.CategoryEntry.NAME));
+        db.insert(AlexandriaContract.AuthorEntry.TABLE_NAME, null, TestDb.getAuthorValues());
+        db.insert(AlexandriaContract.CategoryEntry.TABLE_NAME, null, TestDb.getCategoryValues());
+        assertEquals(1, count(db, AlexandriaContract.AuthorEntry.LINK_TABLE));
+        assertEquals(1, count(db, AlexandriaContract.CategoryEntry.LINK_TABLE));
+        // the display columns are filled for the books already stored
+        Cursor book = db.query(AlexandriaContract.BookEntry.TABLE_NAME, new String[] {
+                AlexandriaContract.BookEntry.AUTHORS_DISPLAY, AlexandriaContract.BookEntry.CATEGORIES_DISPLAY },
+                null, null, null, null, null);
+        assertTrue(book.moveToFirst());
+        assertEquals(TestDb.author, book.getString(0));
+        assertEquals(TestDb.category, book.getString(1));
+        book.close();
+        // the tables of the later versions exist
+        assertEquals(0, count(db, AlexandriaContract.NotFoundEntry.TABLE_NAME));
+        assertEquals(0, count(db, AlexandriaContract.PendingEntry.TABLE_NAME));
+        assertEquals(0, count(db, AlexandriaContract.PreviewEntry.TABLE_NAME));
+        // the saved book can be found by the full text search
+        assertEquals(1, count(db, AlexandriaContract.SearchEntry.TABLE_NAME));
+        assertQueriesUseIndexes(db);
+        db.close();
+    }
+
+    public void testCreatedDatabaseUsesIndexes() {
+        SQLiteDatabase db = new DbHelper(mContext, TEST_DATABASE).getWritableDatabase();
+        assertQueriesUseIndexes(db);
+        db.close();
+    }
+
+    /**
+     * Check the query plans of the author and category views, the saved books filter, the pages
+     *  of the book list and the eviction from the preview cache
+     * @param db SQLiteDatabase
+     */
+    private void assertQueriesUseIndexes(SQLiteDatabase db) {
+        // the names of a book, and the books of a name, are searched in the indexes without a scan
+        String plan = explain(db, "SELECT author FROM authors WHERE _id = " + TestDb.ean);
+        assertFalse(plan, plan.contains("SCAN"));
+        plan = explain(db, "SELECT _id FROM books WHERE _id IN (SELECT _id FROM authors WHERE author = 'A')");
+        assertTrue(plan, plan.contains(DbHelper.AUTHOR_BOOK_INDEX));
+        assertFalse(plan, plan.contains("SCAN"));
+        plan = explain(db, "SELECT _id FROM books WHERE _id IN (SELECT _id FROM categories WHERE category = 'A')");
+        assertTrue(plan, plan.contains(DbHelper.CATEGORY_BOOK_INDEX));
+        assertFalse(plan, plan.contains("SCAN"));
+
+        plan = explain(db, "SELECT _id FROM books WHERE saved = 0");
+        assertTrue(plan, plan.contains(DbHelper.SAVED_INDEX));
+
+        // a page of the book list is a range of the list index, without sorting or reading the books table
+        plan = explain(db, "SELECT _id, title, subtitle, imgurl FROM books WHERE saved = 1 AND title >= 'A' " +
+                "AND (title > 'A' OR _id > 1) ORDER BY title, _id LIMIT 50");
+        assertTrue(plan, plan.contains("COVERING INDEX " + DbHelper.LIST_INDEX));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        // the eviction from the preview cache reads the previews by last use from the index
+        plan = explain(db, "SELECT _id FROM preview_cache ORDER BY used DESC LIMIT -1 OFFSET 50");
+        assertTrue(plan, plan.contains(DbHelper.PREVIEW_USED_INDEX));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    /**
+     * Get the query plan of a statement, one line per step
+     * @param db SQLiteDatabase
+     * @param sql String
+     * @return String
+     */
+    private static String explain(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        int detail = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detail)).append('\n');
+        }
+        cursor.close();
+        Log.d(LOG_TAG, plan.toString());
+        return plan.toString();
+    }
+
+    /**
+     * Check if a table has a unique index on exactly the given columns, in order
+     * @param db SQLiteDatabase
+     * @param table String
+     * @param columns String...
+     * @return boolean
+     */
+    private static boolean hasUniqueIndex(SQLiteDatabase db, String table, String... columns) {
+        List<String> unique = new ArrayList<String>();
+        Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+        while (indexes.moveToNext()) {
+            if (indexes.getInt(indexes.getColumnIndex("unique")) == 1) {
+                unique.add(indexes.getString(indexes.getColumnIndex("name")));
+            }
+        }
+        indexes.close();
+        for (String index : unique) {
+            List<String> indexed = new ArrayList<String>();
+            Cursor info = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+            while (info.moveToNext()) {
+                indexed.add(info.getString(info.getColumnIndex("name")));
+            }
+            info.close();
+            if (indexed.equals(Arrays.asList(columns))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String readString(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        String value = cursor.moveToFirst() ? cursor.getString(0) : null;
+        cursor.close();
+        return value;
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+}
@@ -1,14 +1,22 @@
 package it.jaschke.alexandria;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.BookProvider;
 import it.jaschke.alexandria.data.DbHelper;
 
 /**
@@ -39,6 +47,18 @@ public class TestProvider extends AndroidTestCase {
                 null
         );
 
+        mContext.getContentResolver().delete(
+                AlexandriaContract.PendingEntry.CONTENT_URI,
+                null,
+                null
+        );
+
+        mContext.getContentResolver().delete(
+                AlexandriaContract.PreviewEntry.CONTENT_URI,
+                null,
+                null
+        );
+
         Cursor cursor = mContext.getContentResolver().query(
                 AlexandriaContract.BookEntry.CONTENT_URI,
                 null,
@@ -88,12 +108,33 @@ public class TestProvider extends AndroidTestCase {
         type = mContext.getContentResolver().getType(AlexandriaContract.BookEntry.buildFullBookUri(id));
         assertEquals(AlexandriaContract.BookEntry.CONTENT_ITEM_TYPE, type);
 
+        type = mContext.getContentResolver().getType(AlexandriaContract.BookEntry.LIST_CONTENT_URI);
+        assertEquals(AlexandriaContract.BookEntry.CONTENT_TYPE, type);
+
         type = mContext.getContentResolver().getType(AlexandriaContract.AuthorEntry.buildAuthorUri(id));
         assertEquals(AlexandriaContract.AuthorEntry.CONTENT_ITEM_TYPE, type);
 
         type = mContext.getContentResolver().getType(AlexandriaContract.CategoryEntry.buildCategoryUri(id));
         assertEquals(AlexandriaContract.CategoryEntry.CONTENT_ITEM_TYPE, type);
 
+        type = mContext.getContentResolver().getType(AlexandriaContract.NotFoundEntry.CONTENT_URI);
+        assertEquals(AlexandriaContract.NotFoundEntry.CONTENT_TYPE, type);
+
+        type = mContext.getContentResolver().getType(AlexandriaContract.NotFoundEntry.buildNotFoundUri(id));
+        assertEquals(AlexandriaContract.NotFoundEntry.CONTENT_ITEM_TYPE, type);
+
+        type = mContext.getContentResolver().getType(AlexandriaContract.PendingEntry.CONTENT_URI);
+        assertEquals(AlexandriaContract.PendingEntry.CONTENT_TYPE, type);
+
+        type = mContext.getContentResolver().getType(AlexandriaContract.PendingEntry.buildPendingUri(id));
+        assertEquals(AlexandriaContract.PendingEntry.CONTENT_ITEM_TYPE, type);
+
+        type = mContext.getContentResolver().getType(AlexandriaContract.PreviewEntry.CONTENT_URI);
+        assertEquals(AlexandriaContract.PreviewEntry.CONTENT_TYPE, type);
+
+        type = mContext.getContentResolver().getType(AlexandriaContract.PreviewEntry.buildPreviewUri(id));
+        assertEquals(AlexandriaContract.PreviewEntry.CONTENT_ITEM_TYPE, type);
+
     }
 
     public void testInsertRead(){
@@ -106,6 +147,356 @@ public class TestProvider extends AndroidTestCase {
         readFullList();
     }
 
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = getBookOperations();
+        mContext.getContentResolver().applyBatch(AlexandriaContract.CONTENT_AUTHORITY, operations);
+
+        readFullBook();
+        readFullList();
+    }
+
+    public void testApplyBatchIsAtomic() throws Exception {
+        ArrayList<ContentProviderOperation> operations = getBookOperations();
+        // a book without the required title fails the last operation of the batch
+        ContentValues invalidBook = new ContentValues();
+        invalidBook.put(AlexandriaContract.BookEntry._ID, 9780262033848L);
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.BookEntry.CONTENT_URI)
+                .withValues(invalidBook)
+                .build());
+
+        try {
+            mContext.getContentResolver().applyBatch(AlexandriaContract.CONTENT_AUTHORITY, operations);
+            fail("Batch with an invalid book should fail");
+        } catch (Exception e) {
+            // expected
+        }
+
+        // neither the book nor its authors and categories may have been written
+        assertRowCount(AlexandriaContract.BookEntry.CONTENT_URI, 0);
+        assertRowCount(AlexandriaContract.AuthorEntry.CONTENT_URI, 0);
+        assertRowCount(AlexandriaContract.CategoryEntry.CONTENT_URI, 0);
+    }
+
+    public void testBulkInsert() {
+        ContentValues[] authors = new ContentValues[3];
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = TestDb.getAuthorValues();
+            authors[i].put(AlexandriaContract.AuthorEntry.AUTHOR, TestDb.author + " " + i);
+        }
+        int inserted = mContext.getContentResolver().bulkInsert(AlexandriaContract.AuthorEntry.CONTENT_URI, authors);
+        assertEquals(authors.length, inserted);
+        assertRowCount(AlexandriaContract.AuthorEntry.CONTENT_URI, authors.length);
+    }
+
+    public void testPendingQueue() {
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.PendingEntry._ID, TestDb.ean);
+        values.put(AlexandriaContract.PendingEntry.QUEUED, 1000L);
+        mContext.getContentResolver().insert(AlexandriaContract.PendingEntry.CONTENT_URI, values);
+
+        // scanning the same ean again keeps a single entry with the first queue time
+        values.put(AlexandriaContract.PendingEntry.QUEUED, 2000L);
+        Uri pendingUri = mContext.getContentResolver().insert(AlexandriaContract.PendingEntry.CONTENT_URI, values);
+        assertEquals(TestDb.ean, ContentUris.parseId(pendingUri));
+
+        Cursor cursor = mContext.getContentResolver().query(AlexandriaContract.PendingEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(1000L, cursor.getLong(cursor.getColumnIndex(AlexandriaContract.PendingEntry.QUEUED)));
+        cursor.close();
+
+        int deleted = mContext.getContentResolver().delete(pendingUri, null, null);
+        assertEquals(1, deleted);
+        assertRowCount(AlexandriaContract.PendingEntry.CONTENT_URI, 0);
+    }
+
+    public void testSearch() {
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, TestDb.getBookValues());
+        mContext.getContentResolver().insert(AlexandriaContract.AuthorEntry.CONTENT_URI, TestDb.getAuthorValues());
+
+        // words match by prefix, in any order and case
+        assertSearchCount("artif", 1);
+        assertSearchCount("Modern intell", 1);
+        assertSearchCount("russ", 1);
+        assertSearchCount("russell robotics", 1);
+        assertSearchCount("russell cooking", 0);
+        // operators are taken as words
+        assertSearchCount("russ OR cooking", 0);
+
+        // the index follows the authors
+        mContext.getContentResolver().delete(AlexandriaContract.AuthorEntry.CONTENT_URI,
+                AlexandriaContract.AuthorEntry._ID + " = ?", new String[]{Long.toString(TestDb.ean)});
+        assertSearchCount("russ", 0);
+        assertSearchCount("artif", 1);
+
+        assertEquals("artif* modern*", BookProvider.buildMatchQuery(" Artif, modern"));
+        assertNull(BookProvider.buildMatchQuery("*\"-"));
+    }
+
+    public void testPages() {
+        // ten books, two of each title, inserted in reverse order
+        ContentValues[] books = new ContentValues[10];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = TestDb.getBookValues();
+            books[i].put(AlexandriaContract.BookEntry._ID, TestDb.ean + books.length - i);
+            books[i].put(AlexandriaContract.BookEntry.TITLE, TestDb.title + " " + (books.length - i) / 2);
+            books[i].put(AlexandriaContract.BookEntry.SAVED, 1);
+        }
+        mContext.getContentResolver().bulkInsert(AlexandriaContract.BookEntry.CONTENT_URI, books);
+
+        // pages of three books follow each other without gaps or repeats, ordered by title and ean
+        List<Long> eans = new ArrayList<Long>();
+        String afterTitle = null;
+        long afterId = 0;
+        int pages = 0;
+        while (true) {
+            Cursor page = mContext.getContentResolver().query(
+                    AlexandriaContract.BookEntry.buildPageUri(3, afterTitle, afterId), null,
+                    AlexandriaContract.BookEntry.SAVED + " = ?", new String[]{"1"}, null);
+            if (!page.moveToLast()) {
+                page.close();
+                break;
+            }
+            pages++;
+            afterTitle = page.getString(page.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+            afterId = page.getLong(page.getColumnIndex(AlexandriaContract.BookEntry._ID));
+            page.moveToPosition(-1);
+            while (page.moveToNext()) {
+                eans.add(page.getLong(page.getColumnIndex(AlexandriaContract.BookEntry._ID)));
+            }
+            page.close();
+        }
+        assertEquals(4, pages);
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < books.length; i++) {
+            // the title grows with the ean, so title and ean order is ean order
+            expected.add(TestDb.ean + i + 1);
+        }
+        assertEquals(expected, eans);
+    }
+
+    public void testListProjection() {
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, TestDb.getBookValues());
+
+        // the book list has the list columns only, whatever projection is asked for
+        Cursor list = mContext.getContentResolver().query(AlexandriaContract.BookEntry.LIST_CONTENT_URI,
+                null, null, null, null);
+        assertEquals(Arrays.asList(AlexandriaContract.BookEntry.LIST_PROJECTION),
+                Arrays.asList(list.getColumnNames()));
+        assertTrue(list.moveToFirst());
+        assertEquals(TestDb.ean, list.getLong(list.getColumnIndex(AlexandriaContract.BookEntry._ID)));
+        assertEquals(TestDb.title, list.getString(list.getColumnIndex(AlexandriaContract.BookEntry.TITLE)));
+        assertEquals(TestDb.subtitle, list.getString(list.getColumnIndex(AlexandriaContract.BookEntry.SUBTITLE)));
+        assertEquals(TestDb.imgUrl, list.getString(list.getColumnIndex(AlexandriaContract.BookEntry.IMAGE_URL)));
+        list.close();
+
+        list = mContext.getContentResolver().query(AlexandriaContract.BookEntry.buildPageUri(10, null, 0),
+                null, null, null, null);
+        assertEquals(-1, list.getColumnIndex(AlexandriaContract.BookEntry.DESC));
+        assertEquals(1, list.getCount());
+        list.close();
+    }
+
+    public void testSingleRowLookups() {
+        assertEquals(-1, callLong(AlexandriaContract.METHOD_BOOK_SAVED, TestDb.ean));
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, TestDb.getBookValues());
+        assertEquals(0, callLong(AlexandriaContract.METHOD_BOOK_SAVED, TestDb.ean));
+
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.BookEntry.SAVED, 1);
+        Uri bookUri = AlexandriaContract.BookEntry.buildBookUri(TestDb.ean);
+        assertEquals(1, mContext.getContentResolver().update(bookUri, values, null, null));
+        assertEquals(1, callLong(AlexandriaContract.METHOD_BOOK_SAVED, TestDb.ean));
+        // another ean is not touched
+        assertEquals(0, mContext.getContentResolver().update(
+                AlexandriaContract.BookEntry.buildBookUri(TestDb.ean + 1), values, null, null));
+
+        ContentValues notFound = new ContentValues();
+        notFound.put(AlexandriaContract.NotFoundEntry._ID, TestDb.ean + 1);
+        notFound.put(AlexandriaContract.NotFoundEntry.CHECKED, 1000L);
+        Uri notFoundUri = mContext.getContentResolver().insert(AlexandriaContract.NotFoundEntry.CONTENT_URI, notFound);
+        assertEquals(1000L, callLong(AlexandriaContract.METHOD_NOT_FOUND_CHECKED, TestDb.ean + 1));
+        assertEquals(-1, callLong(AlexandriaContract.METHOD_NOT_FOUND_CHECKED, TestDb.ean));
+        assertEquals(1, mContext.getContentResolver().delete(notFoundUri, null, null));
+        assertEquals(-1, callLong(AlexandriaContract.METHOD_NOT_FOUND_CHECKED, TestDb.ean + 1));
+
+        assertEquals(1, mContext.getContentResolver().delete(bookUri, null, null));
+        assertEquals(-1, callLong(AlexandriaContract.METHOD_BOOK_SAVED, TestDb.ean));
+    }
+
+    private long callLong(String method, long ean) {
+        Bundle result = mContext.getContentResolver().call(AlexandriaContract.BASE_CONTENT_URI, method,
+                Long.toString(ean), null);
+        return result.getLong(AlexandriaContract.EXTRA_RESULT);
+    }
+
+    public void testDisplayColumns() {
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, TestDb.getBookValues());
+        ContentValues[] authors = new ContentValues[2];
+        authors[0] = TestDb.getAuthorValues();
+        authors[1] = TestDb.getAuthorValues();
+        // a comma in a name must not split it
+        authors[1].put(AlexandriaContract.AuthorEntry.AUTHOR, "Norvig, Peter");
+        mContext.getContentResolver().bulkInsert(AlexandriaContract.AuthorEntry.CONTENT_URI, authors);
+
+        assertEquals(Arrays.asList(TestDb.author, "Norvig, Peter"), readDisplay(AlexandriaContract.BookEntry.AUTHORS_DISPLAY));
+        assertTrue(readDisplay(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY).isEmpty());
+
+        mContext.getContentResolver().insert(AlexandriaContract.CategoryEntry.CONTENT_URI, TestDb.getCategoryValues());
+        mContext.getContentResolver().delete(AlexandriaContract.AuthorEntry.CONTENT_URI,
+                AlexandriaContract.AuthorEntry.AUTHOR + " = ?", new String[]{TestDb.author});
+        assertEquals(Arrays.asList("Norvig, Peter"), readDisplay(AlexandriaContract.BookEntry.AUTHORS_DISPLAY));
+        assertEquals(Arrays.asList(TestDb.category), readDisplay(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY));
+    }
+
+    public void testNameInterning() {
+        // two books with the same author and category
+        ContentValues[] authors = new ContentValues[2];
+        ContentValues[] categories = new ContentValues[2];
+        for (int i = 0; i < 2; i++) {
+            ContentValues book = TestDb.getBookValues();
+            book.put(AlexandriaContract.BookEntry._ID, TestDb.ean + i);
+            mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, book);
+            authors[i] = TestDb.getAuthorValues();
+            authors[i].put(AlexandriaContract.AuthorEntry._ID, TestDb.ean + i);
+            categories[i] = TestDb.getCategoryValues();
+            categories[i].put(AlexandriaContract.CategoryEntry._ID, TestDb.ean + i);
+        }
+        mContext.getContentResolver().bulkInsert(AlexandriaContract.AuthorEntry.CONTENT_URI, authors);
+        mContext.getContentResolver().bulkInsert(AlexandriaContract.CategoryEntry.CONTENT_URI, categories);
+
+        // a row per book, a name for both
+        assertRowCount(AlexandriaContract.AuthorEntry.CONTENT_URI, 2);
+        assertRowCount(AlexandriaContract.CategoryEntry.CONTENT_URI, 2);
+        DbHelper dbHelper = new DbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, AlexandriaContract.AuthorEntry.DICTIONARY_TABLE,
+                AlexandriaContract.AuthorEntry.NAME + " = ?", new String[]{TestDb.author}));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, AlexandriaContract.CategoryEntry.DICTIONARY_TABLE,
+                AlexandriaContract.CategoryEntry.NAME + " = ?", new String[]{TestDb.category}));
+        dbHelper.close();
+
+        // deleting the author of one book leaves the other one
+        int deleted = mContext.getContentResolver().delete(AlexandriaContract.AuthorEntry.CONTENT_URI,
+                AlexandriaContract.AuthorEntry._ID + " = ?", new String[]{Long.toString(TestDb.ean)});
+        assertEquals(1, deleted);
+        Cursor cursor = mContext.getContentResolver().query(AlexandriaContract.AuthorEntry.CONTENT_URI, null,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TestDb.ean + 1, cursor.getLong(cursor.getColumnIndex(AlexandriaContract.AuthorEntry._ID)));
+        assertEquals(TestDb.author, cursor.getString(cursor.getColumnIndex(AlexandriaContract.AuthorEntry.AUTHOR)));
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    public void testPreviewCache() {
+        // one preview more than the cache holds, used in ean order, the first one is shown again
+        int previews = BookProvider.PREVIEW_CAPACITY + 1;
+        for (int i = 0; i < previews; i++) {
+            mContext.getContentResolver().insert(AlexandriaContract.PreviewEntry.CONTENT_URI,
+                    getPreviewValues(TestDb.ean + i, 1000L + i));
+            if (i == 1) {
+                ContentValues used = new ContentValues();
+                used.put(AlexandriaContract.PreviewEntry.USED, 5000L);
+                assertEquals(1, mContext.getContentResolver().update(
+                        AlexandriaContract.PreviewEntry.buildPreviewUri(TestDb.ean), used, null, null));
+            }
+        }
+
+        // the least recently used preview was evicted
+        assertRowCount(AlexandriaContract.PreviewEntry.CONTENT_URI, BookProvider.PREVIEW_CAPACITY);
+        assertEquals(1000L, callLong(AlexandriaContract.METHOD_PREVIEW_FETCHED, TestDb.ean));
+        assertEquals(-1, callLong(AlexandriaContract.METHOD_PREVIEW_FETCHED, TestDb.ean + 1));
+        assertEquals(1000L + previews - 1, callLong(AlexandriaContract.METHOD_PREVIEW_FETCHED,
+                TestDb.ean + previews - 1));
+
+        // a preview is not a book of the library
+        assertEquals(-1, callLong(AlexandriaContract.METHOD_BOOK_SAVED, TestDb.ean));
+        Cursor cursor = mContext.getContentResolver().query(AlexandriaContract.PreviewEntry.buildPreviewUri(TestDb.ean),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(Arrays.asList(TestDb.author, "Norvig, Peter"), AlexandriaContract.BookEntry.splitDisplay(
+                cursor.getString(cursor.getColumnIndex(AlexandriaContract.PreviewEntry.AUTHORS_DISPLAY))));
+        cursor.close();
+    }
+
+    public void testDeleteBookRemovesNames() throws Exception {
+        // two books with the same author, one with a category of its own
+        mContext.getContentResolver().applyBatch(AlexandriaContract.CONTENT_AUTHORITY, getBookOperations());
+        ContentValues book = TestDb.getBookValues();
+        book.put(AlexandriaContract.BookEntry._ID, TestDb.ean + 1);
+        mContext.getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI, book);
+        ContentValues author = TestDb.getAuthorValues();
+        author.put(AlexandriaContract.AuthorEntry._ID, TestDb.ean + 1);
+        mContext.getContentResolver().insert(AlexandriaContract.AuthorEntry.CONTENT_URI, author);
+
+        // the links go with the book, a name with the last book that has it
+        assertEquals(1, mContext.getContentResolver().delete(AlexandriaContract.BookEntry.buildBookUri(TestDb.ean),
+                null, null));
+        assertRowCount(AlexandriaContract.AuthorEntry.CONTENT_URI, 1);
+        assertRowCount(AlexandriaContract.CategoryEntry.CONTENT_URI, 0);
+        DbHelper dbHelper = new DbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, AlexandriaContract.AuthorEntry.DICTIONARY_TABLE));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, AlexandriaContract.CategoryEntry.DICTIONARY_TABLE));
+
+        mContext.getContentResolver().delete(AlexandriaContract.BookEntry.buildBookUri(TestDb.ean + 1), null, null);
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, AlexandriaContract.AuthorEntry.DICTIONARY_TABLE));
+        dbHelper.close();
+    }
+
+    private static ContentValues getPreviewValues(long ean, long time) {
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.PreviewEntry._ID, ean);
+        values.put(AlexandriaContract.PreviewEntry.TITLE, TestDb.title);
+        values.put(AlexandriaContract.PreviewEntry.SUBTITLE, TestDb.subtitle);
+        values.put(AlexandriaContract.PreviewEntry.DESC, TestDb.desc);
+        values.put(AlexandriaContract.PreviewEntry.IMAGE_URL, TestDb.imgUrl);
+        values.put(AlexandriaContract.PreviewEntry.AUTHORS_DISPLAY, TestDb.author +
+                AlexandriaContract.BookEntry.DISPLAY_SEPARATOR + "Norvig, Peter");
+        values.put(AlexandriaContract.PreviewEntry.CATEGORIES_DISPLAY, TestDb.category);
+        values.put(AlexandriaContract.PreviewEntry.FETCHED, time);
+        values.put(AlexandriaContract.PreviewEntry.USED, time);
+        return values;
+    }
+
+    private List<String> readDisplay(String column) {
+        Cursor cursor = mContext.getContentResolver().query(AlexandriaContract.BookEntry.buildFullBookUri(TestDb.ean),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        List<String> values = AlexandriaContract.BookEntry.splitDisplay(cursor.getString(cursor.getColumnIndex(column)));
+        cursor.close();
+        return values;
+    }
+
+    private void assertSearchCount(String text, int expected) {
+        Cursor cursor = mContext.getContentResolver().query(AlexandriaContract.SearchEntry.buildSearchUri(text),
+                null, null, null, null);
+        assertEquals(text, expected, cursor.getCount());
+        cursor.close();
+    }
+
+    private ArrayList<ContentProviderOperation> getBookOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.BookEntry.CONTENT_URI)
+                .withValues(TestDb.getBookValues())
+                .build());
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.AuthorEntry.CONTENT_URI)
+                .withValues(TestDb.getAuthorValues())
+                .build());
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.CategoryEntry.CONTENT_URI)
+                .withValues(TestDb.getCategoryValues())
+                .build());
+        return operations;
+    }
+
+    private void assertRowCount(Uri uri, int expected) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertEquals(expected, cursor.getCount());
+        cursor.close();
+    }
+
     public void insertReadBook(){
         ContentValues bookValues = TestDb.getBookValues();
 
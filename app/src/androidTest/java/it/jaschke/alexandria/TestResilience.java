@@ -0,0 +1,184 @@
+package it.jaschke.alexandria;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+import it.jaschke.alexandria.services.BooksHttpClient;
+import it.jaschke.alexandria.services.CircuitBreaker;
+import it.jaschke.alexandria.services.RetryPolicy;
+import it.jaschke.alexandria.services.UnavailableException;
+
+/**
+ * Tests the retries and the circuit breaker of the books http client against a local server that
+ *  injects failures
+ */
+public class TestResilience extends AndroidTestCase {
+
+    private FaultyHttpServer mServer;
+    private RetryPolicy mPolicy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FaultyHttpServer();
+        // short delays, the backoff itself is tested separately
+        mPolicy = new RetryPolicy(3, 10, 50, new Random(42));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testRetriesServerErrors() throws Exception {
+        mServer.enqueue(503, 500, 200);
+        CircuitBreaker breaker = new CircuitBreaker(5, 1000);
+
+        BooksHttpClient.Response response = BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+        assertEquals(200, response.getCode());
+        response.close();
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testRetriesDroppedConnections() throws Exception {
+        mServer.enqueue(FaultyHttpServer.DROP, 200);
+        CircuitBreaker breaker = new CircuitBreaker(5, 1000);
+
+        BooksHttpClient.Response response = BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+        assertEquals(200, response.getCode());
+        response.close();
+    }
+
+    public void testDoesNotRetryClientErrors() throws Exception {
+        mServer.enqueue(404);
+        CircuitBreaker breaker = new CircuitBreaker(5, 1000);
+
+        BooksHttpClient.Response response = BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+        assertEquals(404, response.getCode());
+        response.close();
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        mServer.enqueue(500, 429, 502, 200);
+        CircuitBreaker breaker = new CircuitBreaker(5, 1000);
+
+        try {
+            BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+            fail("Expected the api to be unavailable");
+        } catch (UnavailableException e) {
+            // expected
+        }
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testBreakerFailsFastAndHalfOpens() throws Exception {
+        mServer.enqueue(500, 500, 500);
+        CircuitBreaker breaker = new CircuitBreaker(3, 200);
+
+        try {
+            BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+            fail("Expected the api to be unavailable");
+        } catch (UnavailableException e) {
+            // expected
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // while open, requests don't reach the server
+        try {
+            BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+            fail("Expected the circuit to be open");
+        } catch (UnavailableException e) {
+            // expected
+        }
+        assertEquals(3, mServer.getRequestCount());
+
+        // after the open period a single trial request closes the circuit again
+        Thread.sleep(250);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        BooksHttpClient.Response response = BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker);
+        assertEquals(200, response.getCode());
+        response.close();
+        assertEquals(4, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testCancelBeforeRequest() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+
+        try {
+            BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker, signal);
+            fail("Expected the request to be cancelled");
+        } catch (OperationCanceledException e) {
+            // expected
+        }
+        assertEquals(0, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testCancelAbortsRunningRequest() throws Exception {
+        mServer.enqueue(FaultyHttpServer.STALL);
+        // a cancelled attempt must not count as a failure, a threshold of 1 would open the circuit
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        final CancellationSignal signal = new CancellationSignal();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(200);
+                signal.cancel();
+            }
+        }).start();
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            BooksHttpClient.getInstance().get(mServer.getUrl(), null, mPolicy, breaker, signal);
+            fail("Expected the request to be cancelled");
+        } catch (OperationCanceledException e) {
+            // expected
+        }
+        // aborted long before the read timeout
+        assertTrue(SystemClock.elapsedRealtime() - start < BooksHttpClient.DEFAULT_READ_TIMEOUT / 2);
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testHalfOpenAllowsSingleTrial() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(100);
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        // a failed trial opens the circuit for another period
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testBackoffDelays() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 1000, new Random(7));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(1, null) < 100);
+            assertTrue(policy.getDelay(2, null) < 200);
+            assertTrue(policy.getDelay(3, null) < 400);
+            assertTrue(policy.getDelay(10, null) < 1000);
+        }
+        // retry-after is honored up to the maximum delay
+        assertEquals(1000, policy.getDelay(1, "5"));
+        assertEquals(0, policy.getDelay(1, "0"));
+
+        assertTrue(policy.isRetryable(429));
+        assertTrue(policy.isRetryable(503));
+        assertFalse(policy.isRetryable(404));
+        assertFalse(policy.isRetryable(304));
+    }
+}
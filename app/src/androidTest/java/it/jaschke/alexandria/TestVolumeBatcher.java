@@ -0,0 +1,117 @@
+package it.jaschke.alexandria;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import it.jaschke.alexandria.data.Book;
+import it.jaschke.alexandria.services.CircuitBreaker;
+import it.jaschke.alexandria.services.GoogleBooksSource;
+import it.jaschke.alexandria.services.RetryPolicy;
+import it.jaschke.alexandria.services.VolumeBatcher;
+import it.jaschke.alexandria.services.VolumeResponseCache;
+
+/**
+ * Tests that only the announced lookups of a drain are batched, and that any other lookup does
+ *  not wait for a batch
+ */
+public class TestVolumeBatcher extends AndroidTestCase {
+
+    // long enough that a lookup waiting for the timer fails the test
+    private static final long MAX_WAIT = 5000;
+
+    private final List<List<String>> mBatches = Collections.synchronizedList(new ArrayList<List<String>>());
+    private VolumeBatcher mBatcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // answers every batch without a request, with a book per ean
+        GoogleBooksSource source = new GoogleBooksSource("http://localhost/",
+                new VolumeResponseCache(new File(mContext.getCacheDir(), "test_volumes"), 1024),
+                new RetryPolicy(1, 0, 0, new Random()), new CircuitBreaker(1, 0)) {
+            @Override
+            public Map<String, Book> lookupBatch(List<String> eans) throws IOException {
+                mBatches.add(eans);
+                Map<String, Book> books = new HashMap<String, Book>();
+                for (String ean : eans) {
+                    books.put(ean, new Book(ean, TestDb.title, null, null, null,
+                            Collections.<String>emptyList(), Collections.<String>emptyList()));
+                }
+                return books;
+            }
+        };
+        mBatcher = new VolumeBatcher(source, 10, MAX_WAIT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBatcher.shutdown();
+        super.tearDown();
+    }
+
+    public void testInteractiveLookupDuringDrainBatch() throws Exception {
+        String first = String.valueOf(TestDb.ean);
+        String second = String.valueOf(TestDb.ean + 1);
+        String scanned = String.valueOf(TestDb.ean + 2);
+        final Book[] found = new Book[2];
+
+        // a drain round of two eans, the first one opens a batch and waits for the second
+        mBatcher.begin(2);
+        Thread firstDrain = drain(first, found, 0);
+        firstDrain.start();
+        SystemClock.sleep(200);
+
+        // a scan in the meantime is not announced, it is left to a request of its own right away
+        long start = SystemClock.elapsedRealtime();
+        assertNull(mBatcher.lookup(scanned));
+        assertTrue(SystemClock.elapsedRealtime() - start < MAX_WAIT / 2);
+
+        // the second ean completes the batch, without waiting for the timer
+        Thread secondDrain = drain(second, found, 1);
+        start = SystemClock.elapsedRealtime();
+        secondDrain.start();
+        firstDrain.join(MAX_WAIT);
+        secondDrain.join(MAX_WAIT);
+        assertTrue(SystemClock.elapsedRealtime() - start < MAX_WAIT / 2);
+
+        assertEquals(1, mBatches.size());
+        assertEquals(2, mBatches.get(0).size());
+        assertTrue(mBatches.get(0).contains(first));
+        assertTrue(mBatches.get(0).contains(second));
+        assertFalse(mBatches.get(0).contains(scanned));
+        assertEquals(first, found[0].getEan());
+        assertEquals(second, found[1].getEan());
+    }
+
+    /**
+     * Create the thread of an announced lookup, as the drain runs it
+     * @param ean String
+     * @param found Book[] receives the book
+     * @param index int position of the book in found
+     * @return Thread
+     */
+    private Thread drain(final String ean, final Book[] found, final int index) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mBatcher.enter();
+                try {
+                    found[index] = mBatcher.lookup(ean);
+                } catch (IOException e) {
+                    // found stays empty and fails the test
+                } finally {
+                    mBatcher.end();
+                }
+            }
+        });
+    }
+}
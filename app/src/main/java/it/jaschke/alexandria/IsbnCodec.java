@@ -0,0 +1,130 @@
+package it.jaschke.alexandria;
+
+/**
+ * Conversion and validation of isbn numbers, with the ean (isbn-13) as primitive long.
+ * <p/>
+ * Parsing works on the characters of the input and allocates nothing, so it can run on every
+ * keystroke and before any provider or network call. Invalid input is reported as INVALID.
+ */
+public final class IsbnCodec {
+
+    // returned for input that is not a valid isbn
+    public static final long INVALID = -1;
+
+    // the isbn-10 range maps to the 978 bookland prefix
+    private static final long ISBN_10_PREFIX = 978L * 1000000000L;
+    private static final long MIN_EAN = 9780000000000L;
+    private static final long MAX_EAN = 9799999999999L;
+
+    private IsbnCodec() {
+    }
+
+    /**
+     * Parse an isbn-10 or isbn-13 and validate its check digit
+     * @param input CharSequence 10 or 13 characters, an isbn-10 may end with X
+     * @return long the ean, or INVALID
+     */
+    public static long parse(CharSequence input) {
+        if (input == null) {
+            return INVALID;
+        }
+        int length = input.length();
+        if (length == 13) {
+            long ean = 0;
+            for (int i = 0; i < 13; i++) {
+                int digit = input.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return INVALID;
+                }
+                ean = ean * 10 + digit;
+            }
+            return isValidEan(ean) ? ean : INVALID;
+        } else if (length == 10) {
+            long body = 0;
+            int sum = 0;
+            for (int i = 0; i < 9; i++) {
+                int digit = input.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return INVALID;
+                }
+                body = body * 10 + digit;
+                sum += digit * (10 - i);
+            }
+            char last = input.charAt(9);
+            int check;
+            if (last == 'X' || last == 'x') {
+                check = 10;
+            } else if (last >= '0' && last <= '9') {
+                check = last - '0';
+            } else {
+                return INVALID;
+            }
+            if ((sum + check) % 11 != 0) {
+                return INVALID;
+            }
+            return isbn10BodyToEan(body);
+        }
+        return INVALID;
+    }
+
+    /**
+     * Check if the number is an ean with a bookland prefix (978 or 979) and a correct check digit
+     * @param ean long
+     * @return boolean
+     */
+    public static boolean isValidEan(long ean) {
+        if (ean < MIN_EAN || ean > MAX_EAN) {
+            return false;
+        }
+        return ean % 10 == eanCheckDigit(ean / 10);
+    }
+
+    /**
+     * Convert an ean to the isbn-10 shown to the user, only possible for the 978 prefix
+     * @param ean long valid ean
+     * @return String isbn-10, or null when the ean has no isbn-10
+     */
+    public static String toIsbn10(long ean) {
+        if (!isValidEan(ean) || ean / 10000000000L != 978) {
+            return null;
+        }
+        char[] chars = new char[10];
+        long body = (ean / 10) % 1000000000L;
+        int sum = 0;
+        for (int i = 8; i >= 0; i--) {
+            int digit = (int) (body % 10);
+            chars[i] = (char) ('0' + digit);
+            sum += digit * (10 - i);
+            body /= 10;
+        }
+        int check = (11 - sum % 11) % 11;
+        chars[9] = check == 10 ? 'X' : (char) ('0' + check);
+        return new String(chars);
+    }
+
+    /**
+     * Build the ean of the 9 digits of an isbn-10 without its check digit
+     * @param body long
+     * @return long
+     */
+    private static long isbn10BodyToEan(long body) {
+        long withoutCheck = (ISBN_10_PREFIX + body);
+        return withoutCheck * 10 + eanCheckDigit(withoutCheck);
+    }
+
+    /**
+     * Calculate the ean check digit of the first 12 digits, weighted 1 and 3 from the left
+     * @param digits long the 12 digits before the check digit
+     * @return int
+     */
+    private static int eanCheckDigit(long digits) {
+        int sum = 0;
+        // the rightmost of the 12 digits has weight 3
+        for (int i = 0; i < 12; i++) {
+            int digit = (int) (digits % 10);
+            sum += (i % 2 == 0) ? digit * 3 : digit;
+            digits /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -25,7 +25,7 @@ import it.jaschke.alexandria.fragments.AddBook;
 import it.jaschke.alexandria.fragments.BookDetail;
 import it.jaschke.alexandria.fragments.ListOfBooks;
 import it.jaschke.alexandria.fragments.NavigationDrawerFragment;
-import it.jaschke.alexandria.services.BookService;
+import it.jaschke.alexandria.services.ConnectivityReceiver;
 
 
 public class MainActivity extends AppCompatActivity implements
@@ -113,10 +113,10 @@ public class MainActivity extends AppCompatActivity implements
         LocalBroadcastManager.getInstance(this).registerReceiver(messageReciever, filter);
 
 
-        // send message to bookservice to delete existing not-saved books from previous session
-        Intent bookIntent = new Intent(this, BookService.class);
-        bookIntent.setAction(BookService.DELETE_NOT_SAVED);
-        startService(bookIntent);
+        // fetch the books scanned while offline in a previous session, not again on a rotation
+        if (savedInstanceState == null && Utility.isNetworkAvailable(this)) {
+            ConnectivityReceiver.startDrain(this);
+        }
 
         // prevent the keyboard from appearing already oncreate mainactivity
         Utility.hideKeyboardFromActivity(this);
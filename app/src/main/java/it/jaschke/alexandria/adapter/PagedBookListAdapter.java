@@ -0,0 +1,404 @@
+package it.jaschke.alexandria.adapter;
+
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.bumptech.glide.Glide;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.jaschke.alexandria.R;
+import it.jaschke.alexandria.data.AlexandriaContract;
+
+
+/**
+ * PagedBookListAdapter class for populating the book list items a page at a time. The first page
+ *  comes from the loader of the list. When the list shows a row close to the end of the loaded
+ *  books, the next page is queried in the background, starting after the last loaded book, so
+ *  it is there before the user scrolls to it. A first page without a limit, e.g. the search
+ *  results, has no following pages. After a reload the pages are loaded again up to an anchor
+ *  book, so the list can keep its scroll position without querying all books at once.
+ */
+public class PagedBookListAdapter extends BaseAdapter {
+
+    // number of books in a page queried by the adapter
+    public static final int PAGE_SIZE = 50;
+    // number of rows before the end of the loaded books that starts loading the next page
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /**
+     * Callback interface for the anchor book of a reload
+     */
+    public interface OnAnchorLoadedListener {
+        /**
+         * The pages up to the anchor book are loaded
+         * @param position int position of the anchor, or of the book following it when the anchor
+         *  is gone
+         */
+        void onAnchorLoaded(int position);
+    }
+
+    // keep the activity context
+    final private Context mContext;
+    // empty view for when we have no data and want to inform the user
+    final private View mEmptyView;
+    // query of the following pages
+    final private String[] mProjection;
+    final private String mSelection;
+    final private String[] mSelectionArgs;
+
+    // the loaded pages, the first one belongs to the loader, the others to the adapter
+    private final List<Cursor> mPages = new ArrayList<Cursor>();
+    // list position of the first row of each page
+    private final List<Integer> mOffsets = new ArrayList<Integer>();
+    private int mCount;
+    // true while the last page was full
+    private boolean mHasMore;
+    // the running page query
+    private PageTask mTask;
+    // title and ean of the book the pages are loaded up to, null when not seeking
+    private String mAnchorTitle;
+    private long mAnchorId;
+    private OnAnchorLoadedListener mListener;
+
+    /**
+     * Constructor
+     * @param context Context
+     * @param emptyView View shown when there are no books
+     * @param projection String[] columns of the pages, null for all
+     * @param selection String filter of the pages, may be null
+     * @param selectionArgs String[]
+     */
+    public PagedBookListAdapter(Context context, View emptyView, String[] projection, String selection,
+                                String[] selectionArgs) {
+        mContext = context;
+        mEmptyView = emptyView;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        // hidden until the first page tells
+        mEmptyView.setVisibility(View.GONE);
+    }
+
+    /**
+     * Helper class for references to the view items
+     */
+    public static class ViewHolder {
+        public final ImageView bookCover;
+        public final TextView bookTitle;
+        public final TextView bookSubTitle;
+
+        public ViewHolder(View view) {
+            bookCover = (ImageView) view.findViewById(R.id.fullBookCover);
+            bookTitle = (TextView) view.findViewById(R.id.listBookTitle);
+            bookSubTitle = (TextView) view.findViewById(R.id.listBookSubTitle);
+        }
+    }
+
+    /**
+     * Set the callback for the anchor book of a reload
+     * @param listener OnAnchorLoadedListener
+     */
+    public void setOnAnchorLoadedListener(OnAnchorLoadedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Replace the books by a new first page from the loader. The pages loaded by the adapter are
+     *  closed, the first page is left to the loader.
+     * @param firstPage Cursor may be null
+     * @param limit int limit the first page was queried with, 0 when it has no following pages
+     */
+    public void swapFirstPage(Cursor firstPage, int limit) {
+        swapFirstPage(firstPage, limit, null, 0);
+    }
+
+    /**
+     * Replace the books by a new first page from the loader, and load the following pages from
+     *  their keyset positions until the anchor book is loaded
+     * @param firstPage Cursor may be null
+     * @param limit int limit the first page was queried with, 0 when it has no following pages
+     * @param anchorTitle String title of the anchor book, null to not seek an anchor
+     * @param anchorId long ean of the anchor book
+     */
+    public void swapFirstPage(Cursor firstPage, int limit, String anchorTitle, long anchorId) {
+        clearPages();
+        if (firstPage != null) {
+            addPage(firstPage);
+            mHasMore = limit > 0 && firstPage.getCount() >= limit;
+            // show or hide the empty view, depending on empty cursor
+            mEmptyView.setVisibility(mCount == 0 ? View.VISIBLE : View.GONE);
+            mAnchorTitle = anchorTitle;
+            mAnchorId = anchorId;
+        }
+        notifyDataSetChanged();
+        seekAnchor();
+    }
+
+    /**
+     * Get the title of the book at the position, to use it as anchor
+     * @param position int
+     * @return String
+     */
+    public String getTitle(int position) {
+        Cursor cursor = moveTo(position);
+        return cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+    }
+
+    /**
+     * Close the pages loaded by the adapter and stop loading, e.g. when the list goes away
+     */
+    public void close() {
+        clearPages();
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get the page cursor moved to the book at the position
+     * @param position int
+     * @return Cursor
+     */
+    @Override
+    public Object getItem(int position) {
+        return moveTo(position);
+    }
+
+    /**
+     * Get the ean of the book at the position
+     * @param position int
+     * @return long
+     */
+    @Override
+    public long getItemId(int position) {
+        Cursor cursor = moveTo(position);
+        return cursor.getLong(cursor.getColumnIndex(AlexandriaContract.BookEntry._ID));
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * Populate a book list item, and start loading the next page when the end gets close
+     * @param position int
+     * @param convertView View
+     * @param parent ViewGroup
+     * @return View
+     */
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        if (mHasMore && mTask == null && position >= mCount - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+        View view = convertView;
+        if (view == null) {
+            // get the view layout
+            view = LayoutInflater.from(mContext).inflate(R.layout.book_list_item, parent, false);
+            // set references to the view items in the layout as defined in the viewholder
+            view.setTag(new ViewHolder(view));
+        }
+        bindView(view, moveTo(position));
+        return view;
+    }
+
+    /**
+     * Populate the view items from cursor data
+     * @param view View
+     * @param cursor Cursor
+     */
+    private void bindView(View view, Cursor cursor) {
+        // get references to the view items in the layout as defined in the viewholder
+        ViewHolder viewHolder = (ViewHolder) view.getTag();
+        // set the book cover image
+        String imgUrl = cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.IMAGE_URL));
+        Glide.with(mContext)
+                .load(imgUrl)
+                .error(R.drawable.cover_not_available)
+                .crossFade()
+                .into(viewHolder.bookCover);
+        // set the book title
+        String bookTitle = cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+        viewHolder.bookTitle.setText(bookTitle);
+        // set the book subtitle
+        String bookSubTitle = cursor.getString(cursor.getColumnIndex(AlexandriaContract.BookEntry.SUBTITLE));
+        viewHolder.bookSubTitle.setText(bookSubTitle);
+    }
+
+    /**
+     * Move the page holding the position to it
+     * @param position int
+     * @return Cursor
+     */
+    private Cursor moveTo(int position) {
+        int page = Collections.binarySearch(mOffsets, position);
+        if (page < 0) {
+            // the page starting before the position
+            page = -page - 2;
+        }
+        Cursor cursor = mPages.get(page);
+        cursor.moveToPosition(position - mOffsets.get(page));
+        return cursor;
+    }
+
+    /**
+     * Compare two titles in the order of the BINARY collation of sqlite, which compares the utf-8
+     *  bytes. That is the order of the code points, unlike String.compareTo, which compares utf-16
+     *  chars and puts supplementary characters (e.g. emoji) before some others.
+     * @param lhs String
+     * @param rhs String
+     * @return int negative, zero or positive
+     */
+    static int compareBinary(String lhs, String rhs) {
+        int l = 0;
+        int r = 0;
+        while (l < lhs.length() && r < rhs.length()) {
+            int lc = lhs.codePointAt(l);
+            int rc = rhs.codePointAt(r);
+            if (lc != rc) {
+                return lc < rc ? -1 : 1;
+            }
+            l += Character.charCount(lc);
+            r += Character.charCount(rc);
+        }
+        return (lhs.length() - l) - (rhs.length() - r);
+    }
+
+    private void addPage(Cursor page) {
+        mOffsets.add(mCount);
+        mPages.add(page);
+        mCount += page.getCount();
+    }
+
+    /**
+     * Stop loading and close the pages loaded by the adapter
+     */
+    private void clearPages() {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        for (int i = 1; i < mPages.size(); i++) {
+            mPages.get(i).close();
+        }
+        mPages.clear();
+        mOffsets.clear();
+        mCount = 0;
+        mHasMore = false;
+        mAnchorTitle = null;
+    }
+
+    /**
+     * Look for the anchor in the last loaded page, and load the next page while it is not there
+     */
+    private void seekAnchor() {
+        if (mAnchorTitle == null) {
+            return;
+        }
+        int page = mPages.size() - 1;
+        Cursor cursor = mPages.get(page);
+        int titleIndex = cursor.getColumnIndex(AlexandriaContract.BookEntry.TITLE);
+        int idIndex = cursor.getColumnIndex(AlexandriaContract.BookEntry._ID);
+        int position = -1;
+        // the pages are ordered by title and ean, the first book not before the anchor takes its place
+        for (int i = 0; i < cursor.getCount() && position < 0; i++) {
+            cursor.moveToPosition(i);
+            int compare = compareBinary(cursor.getString(titleIndex), mAnchorTitle);
+            if (compare > 0 || (compare == 0 && cursor.getLong(idIndex) >= mAnchorId)) {
+                position = mOffsets.get(page) + i;
+            }
+        }
+        if (position < 0 && mHasMore) {
+            if (mTask == null) {
+                loadNextPage();
+            }
+            if (mTask != null) {
+                // continued when the page is added
+                return;
+            }
+        }
+        mAnchorTitle = null;
+        if (mListener != null && mCount > 0) {
+            // past the last book when the anchor and the books after it are gone
+            mListener.onAnchorLoaded(position < 0 ? mCount - 1 : position);
+        }
+    }
+
+    /**
+     * Query the page after the last loaded book in the background
+     */
+    private void loadNextPage() {
+        Cursor last = mPages.get(mPages.size() - 1);
+        if (!last.moveToLast()) {
+            mHasMore = false;
+            return;
+        }
+        String title = last.getString(last.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
+        long ean = last.getLong(last.getColumnIndex(AlexandriaContract.BookEntry._ID));
+        mTask = new PageTask(AlexandriaContract.BookEntry.buildPageUri(PAGE_SIZE, title, ean));
+        mTask.execute();
+    }
+
+    /**
+     * Query of a page, the page is added unless the books were replaced in the meantime
+     */
+    private class PageTask extends AsyncTask<Void, Void, Cursor> {
+        private final Uri mUri;
+
+        PageTask(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            Cursor page = mContext.getContentResolver().query(mUri, mProjection, mSelection, mSelectionArgs, null);
+            if (page != null) {
+                // fill the window here instead of on the first bind
+                page.getCount();
+            }
+            return page;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor page) {
+            if (mTask != this) {
+                if (page != null) {
+                    page.close();
+                }
+                return;
+            }
+            mTask = null;
+            if (page == null) {
+                mHasMore = false;
+                seekAnchor();
+                return;
+            }
+            addPage(page);
+            mHasMore = page.getCount() >= PAGE_SIZE;
+            notifyDataSetChanged();
+            seekAnchor();
+        }
+
+        @Override
+        protected void onCancelled(Cursor page) {
+            if (page != null) {
+                page.close();
+            }
+        }
+    }
+}
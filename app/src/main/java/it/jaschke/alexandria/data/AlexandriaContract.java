@@ -7,8 +7,13 @@ package it.jaschke.alexandria.data;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class AlexandriaContract{
 
     public static final String CONTENT_AUTHORITY = "it.jaschke.alexandria";
@@ -21,11 +26,34 @@ public class AlexandriaContract{
 
     public static final String PATH_FULLBOOK = "fullbook";
 
+    public static final String PATH_BOOK_LIST = "booklist";
+
+    public static final String PATH_NOT_FOUND = "notfound";
+
+    public static final String PATH_PENDING = "pending";
+
+    public static final String PATH_PREVIEW = "preview";
+
+    public static final String PATH_SEARCH = "search";
+
+    // provider call switching the storage profile, the argument is the name of the profile
+    public static final String METHOD_STORAGE_PROFILE = "storage_profile";
+
+    // provider calls looking up a single value by ean, the argument is the ean, the value is
+    //  returned as long EXTRA_RESULT, -1 when there is no row
+    public static final String METHOD_BOOK_SAVED = "book_saved";
+    public static final String METHOD_NOT_FOUND_CHECKED = "not_found_checked";
+    public static final String METHOD_PREVIEW_FETCHED = "preview_fetched";
+    public static final String EXTRA_RESULT = "result";
+
     public static final class BookEntry implements BaseColumns {
         public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_BOOKS).build();
 
         public static final Uri FULL_CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_FULLBOOK).build();
 
+        // the books with the columns of the book list only, read from an index without the book rows
+        public static final Uri LIST_CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_BOOK_LIST).build();
+
         public static final String CONTENT_TYPE =
                 "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS;
         public static final String CONTENT_ITEM_TYPE =
@@ -42,6 +70,28 @@ public class AlexandriaContract{
 
         public static final String DESC = "description";
 
+        // the authors and categories of the book, kept up to date by triggers
+        public static final String AUTHORS_DISPLAY = "authors_display";
+
+        public static final String CATEGORIES_DISPLAY = "categories_display";
+
+        // separates the values of the display columns, the unit separator can't be part of a name
+        public static final String DISPLAY_SEPARATOR = "\u001F";
+
+        // columns of the book list, the ones of the list index
+        public static final String[] LIST_PROJECTION = {
+                _ID,
+                TITLE,
+                SUBTITLE,
+                IMAGE_URL
+        };
+
+        // query parameters of a page of the book list, ordered by title and ean: the number of books
+        //  and the title and ean of the last book of the previous page
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_AFTER_TITLE = "after_title";
+        public static final String PARAM_AFTER_ID = "after_id";
+
         public static Uri buildBookUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -50,6 +100,36 @@ public class AlexandriaContract{
             return ContentUris.withAppendedId(FULL_CONTENT_URI, id);
         }
 
+        /**
+         * Build the uri of a page of the book list ordered by title and ean
+         * @param limit int number of books
+         * @param afterTitle String title of the last book of the previous page, null for the first page
+         * @param afterId long ean of the last book of the previous page
+         * @return Uri
+         */
+        public static Uri buildPageUri(int limit, String afterTitle, long afterId) {
+            Uri.Builder builder = LIST_CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+            if (afterTitle != null) {
+                builder.appendQueryParameter(PARAM_AFTER_TITLE, afterTitle)
+                        .appendQueryParameter(PARAM_AFTER_ID, Long.toString(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Split a display column into its values
+         * @param values String values joined by DISPLAY_SEPARATOR, may be null
+         * @return List
+         */
+        public static List<String> splitDisplay(String values) {
+            List<String> list = new ArrayList<String>();
+            if (values != null && values.length() > 0) {
+                Collections.addAll(list, TextUtils.split(values, DISPLAY_SEPARATOR));
+            }
+            return list;
+        }
+
     }
 
     public static final class AuthorEntry implements BaseColumns {
@@ -60,10 +140,23 @@ public class AlexandriaContract{
         public static final String CONTENT_ITEM_TYPE =
                 "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_AUTHORS;
 
+        // view of the authors of the books, written through its insert trigger, that interns the name
         public static final String TABLE_NAME = "authors";
 
         public static final String AUTHOR = "author";
 
+        // the author names, each one stored once
+        public static final String DICTIONARY_TABLE = "author";
+
+        public static final String NAME = "name";
+
+        // the authors of each book, in the order they were stored
+        public static final String LINK_TABLE = "book_author";
+
+        public static final String BOOK_ID = "book_id";
+
+        public static final String NAME_ID = "author_id";
+
         public static Uri buildAuthorUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -77,13 +170,116 @@ public class AlexandriaContract{
         public static final String CONTENT_ITEM_TYPE =
                 "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_CATEGORIES;
 
+        // view of the categories of the books, written through its insert trigger, that interns the name
         public static final String TABLE_NAME = "categories";
 
         public static final String CATEGORY = "category";
 
+        // the category names, each one stored once
+        public static final String DICTIONARY_TABLE = "category";
+
+        public static final String NAME = "name";
+
+        // the categories of each book, in the order they were stored
+        public static final String LINK_TABLE = "book_category";
+
+        public static final String BOOK_ID = "book_id";
+
+        public static final String NAME_ID = "category_id";
+
         public static Uri buildCategoryUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
     }
-}
\ No newline at end of file
+
+    public static final class NotFoundEntry implements BaseColumns {
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_NOT_FOUND).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_NOT_FOUND;
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_NOT_FOUND;
+
+        public static final String TABLE_NAME = "not_found";
+
+        // time of the lookup that did not find the ean, in milliseconds since epoch
+        public static final String CHECKED = "checked";
+
+        public static Uri buildNotFoundUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    public static final class SearchEntry {
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).build();
+
+        // full text index of the books, the docid of a row is the ean
+        public static final String TABLE_NAME = "books_search";
+
+        public static final String DOCID = "docid";
+        public static final String TITLE = "title";
+        public static final String SUBTITLE = "subtitle";
+        public static final String AUTHORS = "authors";
+        public static final String CATEGORIES = "categories";
+        public static final String DESC = "description";
+
+        /**
+         * Build the uri searching the books for the words of the text, the last word may be
+         *  incomplete. The books are returned best match first.
+         * @param text String
+         * @return Uri
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon().appendPath(text).build();
+        }
+    }
+
+    public static final class PendingEntry implements BaseColumns {
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_PENDING).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_PENDING;
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_PENDING;
+
+        public static final String TABLE_NAME = "pending";
+
+        // time the ean was scanned while offline, in milliseconds since epoch
+        public static final String QUEUED = "queued";
+
+        public static Uri buildPendingUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    public static final class PreviewEntry implements BaseColumns {
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH_PREVIEW).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_PREVIEW;
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_PREVIEW;
+
+        // books fetched for the preview and not saved, the least recently used ones are evicted
+        public static final String TABLE_NAME = "preview_cache";
+
+        // the columns of the book, the authors and categories joined by the display separator
+        public static final String TITLE = BookEntry.TITLE;
+        public static final String SUBTITLE = BookEntry.SUBTITLE;
+        public static final String DESC = BookEntry.DESC;
+        public static final String IMAGE_URL = BookEntry.IMAGE_URL;
+        public static final String AUTHORS_DISPLAY = BookEntry.AUTHORS_DISPLAY;
+        public static final String CATEGORIES_DISPLAY = BookEntry.CATEGORIES_DISPLAY;
+
+        // time the book was fetched or revalidated, in milliseconds since epoch
+        public static final String FETCHED = "fetched";
+
+        // time the book was last shown, in milliseconds since epoch
+        public static final String USED = "used";
+
+        public static Uri buildPreviewUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package it.jaschke.alexandria.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Book details as returned by a metadata lookup, before they are written to the database. Parcelable,
+ * so the BookService can hand the book to the preview and the preview can keep it in its state.
+ */
+public class Book implements Parcelable {
+
+    public static final Parcelable.Creator<Book> CREATOR = new Parcelable.Creator<Book>() {
+        @Override
+        public Book createFromParcel(Parcel in) {
+            return new Book(in);
+        }
+
+        @Override
+        public Book[] newArray(int size) {
+            return new Book[size];
+        }
+    };
+
+    private final String ean;
+    private final String title;
+    private final String subtitle;
+    private final String description;
+    private final String imageUrl;
+    private final List<String> authors;
+    private final List<String> categories;
+
+    /**
+     * Constructor
+     * @param ean String
+     * @param title String
+     * @param subtitle String
+     * @param description String
+     * @param imageUrl String
+     * @param authors List
+     * @param categories List
+     */
+    public Book(String ean, String title, String subtitle, String description, String imageUrl,
+                List<String> authors, List<String> categories) {
+        this.ean = ean;
+        this.title = title;
+        this.subtitle = subtitle != null ? subtitle : "";
+        this.description = description != null ? description : "";
+        this.imageUrl = imageUrl != null ? imageUrl : "";
+        this.authors = authors != null ? authors : new ArrayList<String>();
+        this.categories = categories != null ? categories : new ArrayList<String>();
+    }
+
+    /**
+     * Constructor, read a book written by writeToParcel
+     * @param in Parcel
+     */
+    private Book(Parcel in) {
+        this.ean = in.readString();
+        this.title = in.readString();
+        this.subtitle = in.readString();
+        this.description = in.readString();
+        this.imageUrl = in.readString();
+        this.authors = in.createStringArrayList();
+        this.categories = in.createStringArrayList();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(ean);
+        dest.writeString(title);
+        dest.writeString(subtitle);
+        dest.writeString(description);
+        dest.writeString(imageUrl);
+        dest.writeStringList(authors);
+        dest.writeStringList(categories);
+    }
+
+    public String getEan() {
+        return ean;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getSubtitle() {
+        return subtitle;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public List<String> getAuthors() {
+        return authors;
+    }
+
+    public List<String> getCategories() {
+        return categories;
+    }
+}
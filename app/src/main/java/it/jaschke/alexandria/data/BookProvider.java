@@ -1,16 +1,24 @@
 package it.jaschke.alexandria.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class BookProvider extends ContentProvider {
 
     private static final int BOOK_ID = 100;
@@ -25,19 +33,33 @@ public class BookProvider extends ContentProvider {
     private static final int BOOK_FULL = 500;
     private static final int BOOK_FULLDETAIL = 501;
 
+    private static final int BOOK_LIST = 502;
+
+    private static final int NOT_FOUND_ID = 600;
+    private static final int NOT_FOUND = 601;
+
+    private static final int PENDING_ID = 700;
+    private static final int PENDING = 701;
+
+    private static final int SEARCH = 800;
+
+    private static final int PREVIEW_ID = 900;
+    private static final int PREVIEW = 901;
+
     private static final UriMatcher uriMatcher = buildUriMatcher();
 
     private DbHelper dbHelper;
 
-    private static final SQLiteQueryBuilder bookFull;
+    // milliseconds the change notifications are held back during a bulk import
+    private static final long NOTIFY_DELAY = 1000;
 
-    static{
-        bookFull = new SQLiteQueryBuilder();
-        bookFull.setTables(
-                AlexandriaContract.BookEntry.TABLE_NAME + " LEFT OUTER JOIN " +
-                AlexandriaContract.AuthorEntry.TABLE_NAME + " USING (" +AlexandriaContract.BookEntry._ID + ")" +
-                " LEFT OUTER JOIN " +  AlexandriaContract.CategoryEntry.TABLE_NAME + " USING (" +AlexandriaContract.BookEntry._ID + ")");
-    }
+    private ChangeNotifier notifier;
+
+    // number of books kept in the preview cache, the least recently used ones are evicted
+    public static final int PREVIEW_CAPACITY = 50;
+
+    // compiled statements of the single row lookups by ean
+    private BookStatements statements;
 
 
     private static UriMatcher buildUriMatcher() {
@@ -56,12 +78,27 @@ public class BookProvider extends ContentProvider {
         matcher.addURI(authority, AlexandriaContract.PATH_FULLBOOK +"/#", BOOK_FULLDETAIL);
         matcher.addURI(authority, AlexandriaContract.PATH_FULLBOOK, BOOK_FULL);
 
+        matcher.addURI(authority, AlexandriaContract.PATH_BOOK_LIST, BOOK_LIST);
+
+        matcher.addURI(authority, AlexandriaContract.PATH_SEARCH +"/*", SEARCH);
+
+        matcher.addURI(authority, AlexandriaContract.PATH_NOT_FOUND +"/#", NOT_FOUND_ID);
+        matcher.addURI(authority, AlexandriaContract.PATH_NOT_FOUND, NOT_FOUND);
+
+        matcher.addURI(authority, AlexandriaContract.PATH_PENDING +"/#", PENDING_ID);
+        matcher.addURI(authority, AlexandriaContract.PATH_PENDING, PENDING);
+
+        matcher.addURI(authority, AlexandriaContract.PATH_PREVIEW +"/#", PREVIEW_ID);
+        matcher.addURI(authority, AlexandriaContract.PATH_PREVIEW, PREVIEW);
+
         return matcher;
     }
 
     @Override
     public boolean onCreate() {
         dbHelper = new DbHelper(getContext());
+        notifier = new ChangeNotifier(getContext().getContentResolver(), new Handler(Looper.getMainLooper()),
+                NOTIFY_DELAY);
         return true;
 
     }
@@ -69,6 +106,7 @@ public class BookProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         Cursor retCursor;
+        Uri notificationUri = uri;
         switch (uriMatcher.match(uri)) {
             case BOOK:
                 retCursor=dbHelper.getReadableDatabase().query(
@@ -107,8 +145,8 @@ public class BookProvider extends ContentProvider {
                 retCursor=dbHelper.getReadableDatabase().query(
                         AlexandriaContract.BookEntry.TABLE_NAME,
                         projection,
-                        AlexandriaContract.BookEntry._ID + " = '" + ContentUris.parseId(uri) + "'",
-                        selectionArgs,
+                        whereId(AlexandriaContract.BookEntry._ID, selection),
+                        idArgs(uri, selectionArgs),
                         null,
                         null,
                         sortOrder
@@ -118,8 +156,8 @@ public class BookProvider extends ContentProvider {
                 retCursor=dbHelper.getReadableDatabase().query(
                         AlexandriaContract.AuthorEntry.TABLE_NAME,
                         projection,
-                        AlexandriaContract.AuthorEntry._ID + " = '" + ContentUris.parseId(uri) + "'",
-                        selectionArgs,
+                        whereId(AlexandriaContract.AuthorEntry._ID, selection),
+                        idArgs(uri, selectionArgs),
                         null,
                         null,
                         sortOrder
@@ -129,52 +167,128 @@ public class BookProvider extends ContentProvider {
                 retCursor=dbHelper.getReadableDatabase().query(
                         AlexandriaContract.CategoryEntry.TABLE_NAME,
                         projection,
-                        AlexandriaContract.CategoryEntry._ID + " = '" + ContentUris.parseId(uri) + "'",
-                        selectionArgs,
+                        whereId(AlexandriaContract.CategoryEntry._ID, selection),
+                        idArgs(uri, selectionArgs),
                         null,
                         null,
                         sortOrder
                 );
                 break;
             case BOOK_FULLDETAIL:
+                // the authors and categories are kept on the book row, no join needed
                 String[] bfd_projection ={
-                    AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.SAVED,
-                    AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.TITLE,
-                    AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.SUBTITLE,
-                    AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.IMAGE_URL,
-                    AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.DESC,
-                    "group_concat(DISTINCT " + AlexandriaContract.AuthorEntry.TABLE_NAME+ "."+ AlexandriaContract.AuthorEntry.AUTHOR +") as " + AlexandriaContract.AuthorEntry.AUTHOR,
-                    "group_concat(DISTINCT " + AlexandriaContract.CategoryEntry.TABLE_NAME+ "."+ AlexandriaContract.CategoryEntry.CATEGORY +") as " + AlexandriaContract.CategoryEntry.CATEGORY
+                    AlexandriaContract.BookEntry.SAVED,
+                    AlexandriaContract.BookEntry.TITLE,
+                    AlexandriaContract.BookEntry.SUBTITLE,
+                    AlexandriaContract.BookEntry.IMAGE_URL,
+                    AlexandriaContract.BookEntry.DESC,
+                    AlexandriaContract.BookEntry.AUTHORS_DISPLAY,
+                    AlexandriaContract.BookEntry.CATEGORIES_DISPLAY
                 };
-                retCursor = bookFull.query(dbHelper.getReadableDatabase(),
+                retCursor=dbHelper.getReadableDatabase().query(
+                        AlexandriaContract.BookEntry.TABLE_NAME,
                         bfd_projection,
-                        AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry._ID + " = '" + ContentUris.parseId(uri) + "'",
-                        selectionArgs,
-                        AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry._ID,
+                        whereId(AlexandriaContract.BookEntry._ID, selection),
+                        idArgs(uri, selectionArgs),
                         null,
-                        sortOrder);
+                        null,
+                        sortOrder
+                );
                 break;
             case BOOK_FULL:
                 String[] bf_projection ={
-                        AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.SAVED,
-                        AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.TITLE,
-                        AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry.IMAGE_URL,
-                        "group_concat(DISTINCT " + AlexandriaContract.AuthorEntry.TABLE_NAME+ "."+ AlexandriaContract.AuthorEntry.AUTHOR + ") as " + AlexandriaContract.AuthorEntry.AUTHOR,
-                        "group_concat(DISTINCT " + AlexandriaContract.CategoryEntry.TABLE_NAME+ "."+ AlexandriaContract.CategoryEntry.CATEGORY +") as " + AlexandriaContract.CategoryEntry.CATEGORY
+                        AlexandriaContract.BookEntry.SAVED,
+                        AlexandriaContract.BookEntry.TITLE,
+                        AlexandriaContract.BookEntry.IMAGE_URL,
+                        AlexandriaContract.BookEntry.AUTHORS_DISPLAY,
+                        AlexandriaContract.BookEntry.CATEGORIES_DISPLAY
                 };
-                retCursor = bookFull.query(dbHelper.getReadableDatabase(),
+                retCursor=dbHelper.getReadableDatabase().query(
+                        AlexandriaContract.BookEntry.TABLE_NAME,
                         bf_projection,
                         null,
                         selectionArgs,
-                        AlexandriaContract.BookEntry.TABLE_NAME + "." + AlexandriaContract.BookEntry._ID,
                         null,
-                        sortOrder);
+                        null,
+                        sortOrder
+                );
+                break;
+            case BOOK_LIST:
+                // only the list columns, so the rows come from the list index without reading the
+                // books table and its descriptions
+                if (uri.getQueryParameter(AlexandriaContract.BookEntry.PARAM_LIMIT) != null) {
+                    retCursor = queryPage(dbHelper.getReadableDatabase(), uri,
+                            AlexandriaContract.BookEntry.LIST_PROJECTION, selection, selectionArgs);
+                } else {
+                    retCursor = dbHelper.getReadableDatabase().query(
+                            AlexandriaContract.BookEntry.TABLE_NAME,
+                            AlexandriaContract.BookEntry.LIST_PROJECTION,
+                            selection,
+                            selectionArgs,
+                            null,
+                            null,
+                            sortOrder != null ? sortOrder : AlexandriaContract.BookEntry.TITLE + ", " +
+                                    AlexandriaContract.BookEntry._ID
+                    );
+                }
+                // the list changes with the books
+                notificationUri = AlexandriaContract.BookEntry.CONTENT_URI;
+                break;
+            case NOT_FOUND:
+                retCursor=dbHelper.getReadableDatabase().query(
+                        AlexandriaContract.NotFoundEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            case NOT_FOUND_ID:
+                retCursor=dbHelper.getReadableDatabase().query(
+                        AlexandriaContract.NotFoundEntry.TABLE_NAME,
+                        projection,
+                        whereId(AlexandriaContract.NotFoundEntry._ID, selection),
+                        idArgs(uri, selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            case PENDING:
+                retCursor=dbHelper.getReadableDatabase().query(
+                        AlexandriaContract.PendingEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            case PREVIEW_ID:
+                retCursor=dbHelper.getReadableDatabase().query(
+                        AlexandriaContract.PreviewEntry.TABLE_NAME,
+                        projection,
+                        whereId(AlexandriaContract.PreviewEntry._ID, selection),
+                        idArgs(uri, selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            case SEARCH:
+                retCursor = search(dbHelper.getReadableDatabase(), uri.getLastPathSegment(), projection,
+                        selection, selectionArgs, sortOrder);
+                // the results change with the books
+                notificationUri = AlexandriaContract.BookEntry.CONTENT_URI;
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return retCursor;
     }
@@ -196,10 +310,26 @@ public class BookProvider extends ContentProvider {
                 return AlexandriaContract.CategoryEntry.CONTENT_ITEM_TYPE;
             case BOOK:
                 return AlexandriaContract.BookEntry.CONTENT_TYPE;
+            case BOOK_LIST:
+                return AlexandriaContract.BookEntry.CONTENT_TYPE;
             case AUTHOR:
                 return AlexandriaContract.AuthorEntry.CONTENT_TYPE;
             case CATEGORY:
                 return AlexandriaContract.CategoryEntry.CONTENT_TYPE;
+            case NOT_FOUND_ID:
+                return AlexandriaContract.NotFoundEntry.CONTENT_ITEM_TYPE;
+            case NOT_FOUND:
+                return AlexandriaContract.NotFoundEntry.CONTENT_TYPE;
+            case PENDING_ID:
+                return AlexandriaContract.PendingEntry.CONTENT_ITEM_TYPE;
+            case PENDING:
+                return AlexandriaContract.PendingEntry.CONTENT_TYPE;
+            case SEARCH:
+                return AlexandriaContract.BookEntry.CONTENT_TYPE;
+            case PREVIEW_ID:
+                return AlexandriaContract.PreviewEntry.CONTENT_ITEM_TYPE;
+            case PREVIEW:
+                return AlexandriaContract.PreviewEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -218,26 +348,61 @@ public class BookProvider extends ContentProvider {
                 } else {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 }
-                Context context = getContext();
-                if (context != null) {
-                    context.getContentResolver().notifyChange(AlexandriaContract.BookEntry.buildFullBookUri(_id), null);
-                }
+                notifyChange(returnUri);
+                notifyChange(AlexandriaContract.BookEntry.buildFullBookUri(_id));
                 break;
             }
             case AUTHOR:{
-                long _id = db.insert(AlexandriaContract.AuthorEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = AlexandriaContract.AuthorEntry.buildAuthorUri(values.getAsLong("_id"));
+                // the insert trigger of the view stores the name once for all books, an author the
+                // book already has is kept
+                db.insertWithOnConflict(AlexandriaContract.AuthorEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+                returnUri = AlexandriaContract.AuthorEntry.buildAuthorUri(values.getAsLong("_id"));
+                // the triggers updated the display column and the search index of the book
+                notifyChange(AlexandriaContract.BookEntry.buildBookUri(values.getAsLong("_id")));
+                notifyChange(AlexandriaContract.BookEntry.buildFullBookUri(values.getAsLong("_id")));
+                break;
+            }
+            case CATEGORY: {
+                // the insert trigger of the view stores the name once for all books, a category the
+                // book already has is kept
+                db.insertWithOnConflict(AlexandriaContract.CategoryEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+                returnUri = AlexandriaContract.CategoryEntry.buildCategoryUri(values.getAsLong("_id"));
+                // the triggers updated the display column and the search index of the book
+                notifyChange(AlexandriaContract.BookEntry.buildBookUri(values.getAsLong("_id")));
+                notifyChange(AlexandriaContract.BookEntry.buildFullBookUri(values.getAsLong("_id")));
+                break;
+            }
+            case NOT_FOUND: {
+                // a new lookup replaces the previous entry for the same ean
+                long _id = db.insertWithOnConflict(AlexandriaContract.NotFoundEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+                if (_id > 0)
+                    returnUri = AlexandriaContract.NotFoundEntry.buildNotFoundUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
-            case CATEGORY: {
-                long _id = db.insert(AlexandriaContract.CategoryEntry.TABLE_NAME, null, values);
+            case PENDING: {
+                // scanning an ean that is already queued keeps the first entry
+                long _id = db.insertWithOnConflict(AlexandriaContract.PendingEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+                if (_id == -1)
+                    _id = values.getAsLong(AlexandriaContract.PendingEntry._ID);
+                returnUri = AlexandriaContract.PendingEntry.buildPendingUri(_id);
+                notifyChange(AlexandriaContract.PendingEntry.CONTENT_URI);
+                break;
+            }
+            case PREVIEW: {
+                // fetching a book again replaces its entry, then the cache is cut back to its capacity
+                long _id = db.insertWithOnConflict(AlexandriaContract.PreviewEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
                 if (_id > 0)
-                    returnUri = AlexandriaContract.CategoryEntry.buildCategoryUri(values.getAsLong("_id"));
+                    returnUri = AlexandriaContract.PreviewEntry.buildPreviewUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                getStatements(db).trimPreviews(PREVIEW_CAPACITY);
                 break;
             }
             default:
@@ -259,32 +424,85 @@ public class BookProvider extends ContentProvider {
                         selectionArgs);
                 break;
             case AUTHOR:
+                // the authors are a view, its rows are the links of the books to the names
                 rowsDeleted = db.delete(
-                        AlexandriaContract.AuthorEntry.TABLE_NAME,
-                        selection,
+                        AlexandriaContract.AuthorEntry.LINK_TABLE,
+                        whereLinks(AlexandriaContract.AuthorEntry.LINK_TABLE,
+                                AlexandriaContract.AuthorEntry.DICTIONARY_TABLE,
+                                AlexandriaContract.AuthorEntry.NAME_ID,
+                                AlexandriaContract.AuthorEntry.AUTHOR, selection),
                         selectionArgs);
                 break;
             case CATEGORY:
                 rowsDeleted = db.delete(
-                        AlexandriaContract.CategoryEntry.TABLE_NAME,
-                        selection,
+                        AlexandriaContract.CategoryEntry.LINK_TABLE,
+                        whereLinks(AlexandriaContract.CategoryEntry.LINK_TABLE,
+                                AlexandriaContract.CategoryEntry.DICTIONARY_TABLE,
+                                AlexandriaContract.CategoryEntry.NAME_ID,
+                                AlexandriaContract.CategoryEntry.CATEGORY, selection),
                         selectionArgs);
                 break;
             case BOOK_ID:
+                if (selection == null) {
+                    rowsDeleted = getStatements(db).deleteBook(ContentUris.parseId(uri));
+                } else {
+                    rowsDeleted = db.delete(
+                            AlexandriaContract.BookEntry.TABLE_NAME,
+                            whereId(AlexandriaContract.BookEntry._ID, selection),
+                            idArgs(uri, selectionArgs));
+                }
+                break;
+            case NOT_FOUND:
                 rowsDeleted = db.delete(
-                        AlexandriaContract.BookEntry.TABLE_NAME,
-                        AlexandriaContract.BookEntry._ID + " = '" + ContentUris.parseId(uri) + "'",
+                        AlexandriaContract.NotFoundEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+                break;
+            case NOT_FOUND_ID:
+                if (selection == null) {
+                    rowsDeleted = getStatements(db).deleteNotFound(ContentUris.parseId(uri));
+                } else {
+                    rowsDeleted = db.delete(
+                            AlexandriaContract.NotFoundEntry.TABLE_NAME,
+                            whereId(AlexandriaContract.NotFoundEntry._ID, selection),
+                            idArgs(uri, selectionArgs));
+                }
+                break;
+            case PENDING:
+                rowsDeleted = db.delete(
+                        AlexandriaContract.PendingEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+                break;
+            case PENDING_ID:
+                if (selection == null) {
+                    rowsDeleted = getStatements(db).deletePending(ContentUris.parseId(uri));
+                } else {
+                    rowsDeleted = db.delete(
+                            AlexandriaContract.PendingEntry.TABLE_NAME,
+                            whereId(AlexandriaContract.PendingEntry._ID, selection),
+                            idArgs(uri, selectionArgs));
+                }
+                break;
+            case PREVIEW:
+                rowsDeleted = db.delete(
+                        AlexandriaContract.PreviewEntry.TABLE_NAME,
+                        selection,
                         selectionArgs);
                 break;
+            case PREVIEW_ID:
+                rowsDeleted = db.delete(
+                        AlexandriaContract.PreviewEntry.TABLE_NAME,
+                        whereId(AlexandriaContract.PreviewEntry._ID, selection),
+                        idArgs(uri, selectionArgs));
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (selection == null || rowsDeleted != 0) {
-            Context context = getContext();
-            if (context != null) {
-                context.getContentResolver().notifyChange(uri, null);
-            }
+            notifyChange(uri);
+            notifyBookViews(match, uri);
         }
         return rowsDeleted;
     }
@@ -300,23 +518,353 @@ public class BookProvider extends ContentProvider {
                         selectionArgs);
                 break;
             case AUTHOR:
-                rowsUpdated = db.update(AlexandriaContract.AuthorEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
             case CATEGORY:
-                rowsUpdated = db.update(AlexandriaContract.CategoryEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // a name is shared by the books, a book gets another one by delete and insert
+                throw new UnsupportedOperationException("Names are not updatable: " + uri);
+            case BOOK_ID:
+                if (selection == null && values.size() == 1 && values.containsKey(AlexandriaContract.BookEntry.SAVED)) {
+                    // saving a fetched book
+                    rowsUpdated = getStatements(db).updateSaved(ContentUris.parseId(uri),
+                            values.getAsLong(AlexandriaContract.BookEntry.SAVED));
+                } else {
+                    rowsUpdated = db.update(AlexandriaContract.BookEntry.TABLE_NAME, values,
+                            whereId(AlexandriaContract.BookEntry._ID, selection), idArgs(uri, selectionArgs));
+                }
+                break;
+            case PREVIEW_ID:
+                // a book shown again, or revalidated, moves up in the preview cache
+                rowsUpdated = db.update(AlexandriaContract.PreviewEntry.TABLE_NAME, values,
+                        whereId(AlexandriaContract.PreviewEntry._ID, selection), idArgs(uri, selectionArgs));
                 break;
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            Context context = getContext();
-            if (context != null) {
-                context.getContentResolver().notifyChange(uri, null);
-            }
+            notifyChange(uri);
+            notifyBookViews(match, uri);
         }
         return rowsUpdated;
     }
-}
\ No newline at end of file
+
+    /**
+     * Insert all rows in a single transaction, observers are notified once after the commit
+     * @param uri Uri
+     * @param values ContentValues[]
+     * @return int number of inserted rows
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        beginBatch();
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                insert(uri, value);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            endBatch(successful);
+        }
+        return values.length;
+    }
+
+    /**
+     * Apply all operations in a single transaction, so e.g. a book and its authors and categories
+     *  are written atomically. Observers are notified once after the commit.
+     * @param operations ArrayList
+     * @return ContentProviderResult[]
+     * @throws OperationApplicationException
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        beginBatch();
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            endBatch(successful);
+        }
+    }
+
+    /**
+     * Switch the storage profile of the database, or run a single row lookup by ean, see the
+     *  METHOD_ constants of the contract
+     * @param method String
+     * @param arg String
+     * @param extras Bundle
+     * @return Bundle
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (AlexandriaContract.METHOD_STORAGE_PROFILE.equals(method)) {
+            StorageProfile profile = StorageProfile.forName(arg);
+            dbHelper.setStorageProfile(profile);
+            // the loaders requery once per delay instead of once per imported book
+            notifier.setDebouncing(profile == StorageProfile.BULK_IMPORT);
+            return null;
+        } else if (AlexandriaContract.METHOD_BOOK_SAVED.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(AlexandriaContract.EXTRA_RESULT,
+                    getStatements(dbHelper.getReadableDatabase()).readSaved(Long.parseLong(arg)));
+            return result;
+        } else if (AlexandriaContract.METHOD_NOT_FOUND_CHECKED.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(AlexandriaContract.EXTRA_RESULT,
+                    getStatements(dbHelper.getReadableDatabase()).readNotFoundChecked(Long.parseLong(arg)));
+            return result;
+        } else if (AlexandriaContract.METHOD_PREVIEW_FETCHED.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(AlexandriaContract.EXTRA_RESULT,
+                    getStatements(dbHelper.getReadableDatabase()).readPreviewFetched(Long.parseLong(arg)));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Get the compiled statements of the database, compiling them on first use
+     * @param db SQLiteDatabase
+     * @return BookStatements
+     */
+    private synchronized BookStatements getStatements(SQLiteDatabase db) {
+        if (statements == null || !statements.isFor(db)) {
+            statements = new BookStatements(db);
+        }
+        return statements;
+    }
+
+    /**
+     * Build the where clause of a uri with an id, the id is bound as the first argument
+     * @param idColumn String
+     * @param selection String additional filter, may be null
+     * @return String
+     */
+    private static String whereId(String idColumn, String selection) {
+        return idColumn + " = ?" + (selection == null ? "" : " AND (" + selection + ")");
+    }
+
+    /**
+     * Build the arguments of a uri with an id, see whereId
+     * @param uri Uri
+     * @param selectionArgs String[] arguments of the additional filter, may be null
+     * @return String[]
+     */
+    private static String[] idArgs(Uri uri, String[] selectionArgs) {
+        int extra = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[1 + extra];
+        args[0] = Long.toString(ContentUris.parseId(uri));
+        if (extra > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, extra);
+        }
+        return args;
+    }
+
+    /**
+     * Build the selection of the link rows that are the rows of the authors or categories view
+     *  matching a selection on the view
+     * @param link String link table
+     * @param dictionary String dictionary table
+     * @param nameId String column of the link table referencing the dictionary
+     * @param column String name column of the view
+     * @param selection String filter on the view, null for all rows
+     * @return String selection of the link table, null for all rows
+     */
+    private static String whereLinks(String link, String dictionary, String nameId, String column,
+                                     String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return "rowid IN (SELECT link FROM (SELECT " + link + ".rowid AS link, " + link + "." +
+                AlexandriaContract.AuthorEntry.BOOK_ID + " AS " + AlexandriaContract.AuthorEntry._ID + ", " +
+                dictionary + "." + AlexandriaContract.AuthorEntry.NAME + " AS " + column + " FROM " + link +
+                " JOIN " + dictionary + " ON " + dictionary + "." + AlexandriaContract.AuthorEntry._ID + " = " +
+                link + "." + nameId + ") WHERE " + selection + ")";
+    }
+
+    /**
+     * Query a page of the books ordered by title and ean. The page starts after the book given by
+     *  the after parameters of the uri, seeking in the list index instead of skipping the books of
+     *  the previous pages as an offset would.
+     * @param db SQLiteDatabase
+     * @param uri Uri book list uri with the page parameters, see BookEntry.buildPageUri
+     * @param projection String[] columns of the books table, null for all
+     * @param selection String filter on the books table, may be null
+     * @param selectionArgs String[]
+     * @return Cursor
+     */
+    public static Cursor queryPage(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                                   String[] selectionArgs) {
+        int limit = Integer.parseInt(uri.getQueryParameter(AlexandriaContract.BookEntry.PARAM_LIMIT));
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page limit in uri: " + uri);
+        }
+        StringBuilder where = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        if (selection != null) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+        String afterTitle = uri.getQueryParameter(AlexandriaContract.BookEntry.PARAM_AFTER_TITLE);
+        if (afterTitle != null) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            // the first condition is the index range, the second skips the books with the same
+            //  title up to the last one shown
+            where.append(AlexandriaContract.BookEntry.TITLE).append(" >= ? AND (")
+                    .append(AlexandriaContract.BookEntry.TITLE).append(" > ? OR ")
+                    .append(AlexandriaContract.BookEntry._ID).append(" > ?)");
+            args.add(afterTitle);
+            args.add(afterTitle);
+            args.add(uri.getQueryParameter(AlexandriaContract.BookEntry.PARAM_AFTER_ID));
+        }
+        return db.query(AlexandriaContract.BookEntry.TABLE_NAME, projection,
+                where.length() > 0 ? where.toString() : null, args.toArray(new String[args.size()]),
+                null, null, AlexandriaContract.BookEntry.TITLE + ", " + AlexandriaContract.BookEntry._ID,
+                Integer.toString(limit));
+    }
+
+    /**
+     * Search the books with the full text index. Every word of the text has to match a word of
+     *  the title, subtitle, authors, categories or description by prefix. Books matching in the
+     *  title come first, then the ones matching in the authors, then the others, each by title.
+     * @param db SQLiteDatabase
+     * @param text String
+     * @param projection String[] columns of the books table, null for all
+     * @param selection String filter on the books table, may be null
+     * @param selectionArgs String[]
+     * @param sortOrder String order within the same rank, may be null
+     * @return Cursor
+     */
+    public static Cursor search(SQLiteDatabase db, String text, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        String match = buildMatchQuery(text);
+        if (match == null) {
+            // nothing to search for, e.g. only punctuation
+            return db.query(AlexandriaContract.BookEntry.TABLE_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder);
+        }
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        final String search = AlexandriaContract.SearchEntry.TABLE_NAME;
+        final String docid = AlexandriaContract.SearchEntry.DOCID;
+        String columns;
+        if (projection == null) {
+            columns = books + ".*";
+        } else {
+            StringBuilder joined = new StringBuilder();
+            for (String column : projection) {
+                if (joined.length() > 0) {
+                    joined.append(", ");
+                }
+                joined.append(column.contains(".") || column.contains("(") ? column : books + "." + column);
+            }
+            columns = joined.toString();
+        }
+        String sql = "SELECT " + columns + " FROM " + books + " JOIN (SELECT " + docid + " AS hit, (" +
+                docid + " IN (SELECT " + docid + " FROM " + search + " WHERE " +
+                AlexandriaContract.SearchEntry.TITLE + " MATCH ?)) * 2 + (" +
+                docid + " IN (SELECT " + docid + " FROM " + search + " WHERE " +
+                AlexandriaContract.SearchEntry.AUTHORS + " MATCH ?)) AS rank FROM " + search +
+                " WHERE " + search + " MATCH ?) ON " + books + "." + AlexandriaContract.BookEntry._ID + " = hit" +
+                (selection != null ? " WHERE " + selection : "") +
+                " ORDER BY rank DESC, " + (sortOrder != null ? sortOrder : books + "." + AlexandriaContract.BookEntry.TITLE);
+        int extra = selection != null && selectionArgs != null ? selectionArgs.length : 0;
+        String[] args = new String[3 + extra];
+        args[0] = match;
+        args[1] = match;
+        args[2] = match;
+        if (extra > 0) {
+            System.arraycopy(selectionArgs, 0, args, 3, extra);
+        }
+        return db.rawQuery(sql, args);
+    }
+
+    /**
+     * Turn the text into a full text query that matches every word by prefix. Only letters and
+     *  digits are kept, ascii letters are lowercased so no word is taken for an operator.
+     * @param text String
+     * @return String query, or null when the text has no words
+     */
+    public static String buildMatchQuery(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                inWord = true;
+            } else {
+                if (inWord) {
+                    match.append('*');
+                }
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            match.append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Notify the book views that a change of the books, authors or categories tables shows up in,
+     *  the full books with the display columns and the search results that use the books uri
+     * @param match int
+     * @param uri Uri
+     */
+    private void notifyBookViews(int match, Uri uri) {
+        switch (match) {
+            case BOOK:
+            case AUTHOR:
+            case CATEGORY:
+                notifyChange(AlexandriaContract.BookEntry.CONTENT_URI);
+                notifyChange(AlexandriaContract.BookEntry.FULL_CONTENT_URI);
+                break;
+            case BOOK_ID:
+                notifyChange(AlexandriaContract.BookEntry.buildFullBookUri(ContentUris.parseId(uri)));
+                break;
+        }
+    }
+
+    /**
+     * Start collecting the change notifications of the current thread
+     */
+    private void beginBatch() {
+        notifier.beginBatch();
+    }
+
+    /**
+     * Stop collecting change notifications and send the collected ones when the batch was committed
+     * @param successful boolean
+     */
+    private void endBatch(boolean successful) {
+        notifier.endBatch(successful);
+    }
+
+    /**
+     * Notify the observers of the given uri, or remember the uri when a batch is running
+     * @param uri Uri
+     */
+    private void notifyChange(Uri uri) {
+        notifier.notifyChange(uri);
+    }
+}
@@ -0,0 +1,162 @@
+package it.jaschke.alexandria.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Compiled statements of the single row lookups and writes by ean, e.g. checking if a book is
+ *  stored before fetching it, saving it or removing an ean from the queue. The ean is bound as a
+ *  long, so the sql never changes and the statements are prepared once per database. A statement
+ *  holds its bindings until it runs, each one is used by one thread at a time.
+ */
+class BookStatements {
+
+    // returned by the lookups when there is no row for the ean
+    static final long NO_ROW = -1;
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mSelectSaved;
+    private final SQLiteStatement mSelectChecked;
+    private final SQLiteStatement mSelectFetched;
+    private final SQLiteStatement mUpdateSaved;
+    private final SQLiteStatement mDeleteBook;
+    private final SQLiteStatement mDeleteNotFound;
+    private final SQLiteStatement mDeletePending;
+    private final SQLiteStatement mTrimPreviews;
+
+    /**
+     * Constructor, compiles the statements
+     * @param db SQLiteDatabase
+     */
+    BookStatements(SQLiteDatabase db) {
+        mDb = db;
+        mSelectSaved = db.compileStatement("SELECT " + AlexandriaContract.BookEntry.SAVED + " FROM " +
+                AlexandriaContract.BookEntry.TABLE_NAME + " WHERE " + AlexandriaContract.BookEntry._ID + " = ?");
+        mSelectChecked = db.compileStatement("SELECT " + AlexandriaContract.NotFoundEntry.CHECKED + " FROM " +
+                AlexandriaContract.NotFoundEntry.TABLE_NAME + " WHERE " + AlexandriaContract.NotFoundEntry._ID + " = ?");
+        mSelectFetched = db.compileStatement("SELECT " + AlexandriaContract.PreviewEntry.FETCHED + " FROM " +
+                AlexandriaContract.PreviewEntry.TABLE_NAME + " WHERE " + AlexandriaContract.PreviewEntry._ID + " = ?");
+        mUpdateSaved = db.compileStatement("UPDATE " + AlexandriaContract.BookEntry.TABLE_NAME + " SET " +
+                AlexandriaContract.BookEntry.SAVED + " = ? WHERE " + AlexandriaContract.BookEntry._ID + " = ?");
+        mDeleteBook = compileDelete(db, AlexandriaContract.BookEntry.TABLE_NAME);
+        mDeleteNotFound = compileDelete(db, AlexandriaContract.NotFoundEntry.TABLE_NAME);
+        mDeletePending = compileDelete(db, AlexandriaContract.PendingEntry.TABLE_NAME);
+        // the previews after the most recently used ones, read from the index by last use
+        mTrimPreviews = db.compileStatement("DELETE FROM " + AlexandriaContract.PreviewEntry.TABLE_NAME +
+                " WHERE " + AlexandriaContract.PreviewEntry._ID + " IN (SELECT " + AlexandriaContract.PreviewEntry._ID +
+                " FROM " + AlexandriaContract.PreviewEntry.TABLE_NAME + " ORDER BY " +
+                AlexandriaContract.PreviewEntry.USED + " DESC LIMIT -1 OFFSET ?)");
+    }
+
+    private static SQLiteStatement compileDelete(SQLiteDatabase db, String table) {
+        return db.compileStatement("DELETE FROM " + table + " WHERE _id = ?");
+    }
+
+    /**
+     * Check if the statements were compiled for the database
+     * @param db SQLiteDatabase
+     * @return boolean
+     */
+    boolean isFor(SQLiteDatabase db) {
+        return mDb == db;
+    }
+
+    /**
+     * Read the saved flag of a stored book
+     * @param ean long
+     * @return long 1 saved, 0 only fetched, or NO_ROW when the book is not stored
+     */
+    long readSaved(long ean) {
+        return readLong(mSelectSaved, ean);
+    }
+
+    /**
+     * Read the time the books api last did not know the ean
+     * @param ean long
+     * @return long milliseconds, or NO_ROW when the ean is not in the negative cache
+     */
+    long readNotFoundChecked(long ean) {
+        return readLong(mSelectChecked, ean);
+    }
+
+    /**
+     * Read the time a book in the preview cache was fetched
+     * @param ean long
+     * @return long milliseconds, or NO_ROW when the book is not in the preview cache
+     */
+    long readPreviewFetched(long ean) {
+        return readLong(mSelectFetched, ean);
+    }
+
+    /**
+     * Set the saved flag of a stored book
+     * @param ean long
+     * @param saved long
+     * @return int number of updated rows
+     */
+    int updateSaved(long ean, long saved) {
+        synchronized (mUpdateSaved) {
+            mUpdateSaved.bindLong(1, saved);
+            mUpdateSaved.bindLong(2, ean);
+            return mUpdateSaved.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Delete a book, its authors and categories are removed with it by trigger
+     * @param ean long
+     * @return int number of deleted rows
+     */
+    int deleteBook(long ean) {
+        return delete(mDeleteBook, ean);
+    }
+
+    /**
+     * Delete an ean from the negative cache
+     * @param ean long
+     * @return int number of deleted rows
+     */
+    int deleteNotFound(long ean) {
+        return delete(mDeleteNotFound, ean);
+    }
+
+    /**
+     * Delete an ean from the queue
+     * @param ean long
+     * @return int number of deleted rows
+     */
+    int deletePending(long ean) {
+        return delete(mDeletePending, ean);
+    }
+
+    /**
+     * Evict the least recently used books from the preview cache
+     * @param capacity int number of books to keep
+     * @return int number of evicted books
+     */
+    int trimPreviews(int capacity) {
+        synchronized (mTrimPreviews) {
+            mTrimPreviews.bindLong(1, capacity);
+            return mTrimPreviews.executeUpdateDelete();
+        }
+    }
+
+    private static long readLong(SQLiteStatement statement, long ean) {
+        synchronized (statement) {
+            statement.bindLong(1, ean);
+            try {
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return NO_ROW;
+            }
+        }
+    }
+
+    private static int delete(SQLiteStatement statement, long ean) {
+        synchronized (statement) {
+            statement.bindLong(1, ean);
+            return statement.executeUpdateDelete();
+        }
+    }
+}
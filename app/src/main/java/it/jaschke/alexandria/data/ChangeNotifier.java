@@ -0,0 +1,222 @@
+package it.jaschke.alexandria.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Delivers the change notifications of the provider. Changes made inside a batch are collected
+ *  per thread and delivered once when the batch commits, or dropped when it fails. The collected
+ *  uris are deduplicated and rolled up: a uri whose parent is notified as well is left out, and
+ *  many uris under the same parent are replaced by the parent. Observers registered with
+ *  notifyForDescendants, as the cursors of the loaders are, still see every change.
+ * <p/>
+ * While debouncing, e.g. during a long import, the delivered changes are held back and sent
+ *  together at most once per delay, so the loaders requery once per delay instead of once per
+ *  book.
+ */
+class ChangeNotifier {
+
+    // number of uris under the same parent that are replaced by the parent
+    static final int ROLLUP_THRESHOLD = 8;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mDelay;
+
+    // uris collected by the batches running on each thread
+    private final ThreadLocal<Set<Uri>> mBatch = new ThreadLocal<Set<Uri>>();
+    // nesting depth of the batches on each thread
+    private final ThreadLocal<int[]> mDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    // changes held back while debouncing, guarded by this
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private boolean mDebouncing;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructor
+     * @param resolver ContentResolver
+     * @param handler Handler running the delayed deliveries
+     * @param delay long milliseconds the changes are held back while debouncing
+     */
+    ChangeNotifier(ContentResolver resolver, Handler handler, long delay) {
+        mResolver = resolver;
+        mHandler = handler;
+        mDelay = delay;
+    }
+
+    /**
+     * Start collecting the changes of the current thread. Batches may nest, the changes are
+     *  delivered when the outermost batch ends.
+     */
+    void beginBatch() {
+        if (mDepth.get()[0]++ == 0) {
+            mBatch.set(new LinkedHashSet<Uri>());
+        }
+    }
+
+    /**
+     * End a batch of the current thread, the outermost one delivers the collected changes when the
+     *  batch was committed
+     * @param successful boolean
+     */
+    void endBatch(boolean successful) {
+        int[] depth = mDepth.get();
+        Set<Uri> uris = mBatch.get();
+        if (--depth[0] > 0) {
+            // an inner failure is left to the outer transaction
+            return;
+        }
+        mBatch.remove();
+        if (successful && uris != null) {
+            deliver(uris);
+        }
+    }
+
+    /**
+     * Notify the observers of the uri, or collect it when a batch is running
+     * @param uri Uri
+     */
+    void notifyChange(Uri uri) {
+        Set<Uri> uris = mBatch.get();
+        if (uris != null) {
+            uris.add(uri);
+            return;
+        }
+        Set<Uri> single = new LinkedHashSet<Uri>();
+        single.add(uri);
+        deliver(single);
+    }
+
+    /**
+     * Hold back the changes and deliver them together at most once per delay, or deliver the held
+     *  back changes and go back to immediate delivery
+     * @param debouncing boolean
+     */
+    void setDebouncing(boolean debouncing) {
+        synchronized (this) {
+            mDebouncing = debouncing;
+        }
+        if (!debouncing) {
+            flush();
+        }
+    }
+
+    /**
+     * Deliver the changes now, or add them to the held back ones when debouncing
+     * @param uris Set
+     */
+    private void deliver(Set<Uri> uris) {
+        synchronized (this) {
+            if (mDebouncing) {
+                mPending.addAll(uris);
+                if (!mFlushScheduled) {
+                    mFlushScheduled = true;
+                    mHandler.postAtTime(mFlush, this, SystemClock.uptimeMillis() + mDelay);
+                }
+                return;
+            }
+        }
+        send(rollup(uris));
+    }
+
+    /**
+     * Deliver the held back changes
+     */
+    private void flush() {
+        Set<Uri> uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush, this);
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uris = new LinkedHashSet<Uri>(mPending);
+            mPending.clear();
+        }
+        send(rollup(uris));
+    }
+
+    private void send(Set<Uri> uris) {
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Replace many uris under the same parent by the parent, and leave out the uris whose parent is
+     *  notified
+     * @param uris Set
+     * @return Set
+     */
+    static Set<Uri> rollup(Set<Uri> uris) {
+        Map<Uri, Integer> children = new HashMap<Uri, Integer>();
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            if (parent != null) {
+                Integer count = children.get(parent);
+                children.put(parent, count == null ? 1 : count + 1);
+            }
+        }
+        Set<Uri> rolledUp = new LinkedHashSet<Uri>();
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            Integer count = parent == null ? null : children.get(parent);
+            rolledUp.add(count != null && count >= ROLLUP_THRESHOLD ? parent : uri);
+        }
+        Iterator<Uri> iterator = rolledUp.iterator();
+        while (iterator.hasNext()) {
+            if (hasAncestorIn(iterator.next(), rolledUp)) {
+                iterator.remove();
+            }
+        }
+        return rolledUp;
+    }
+
+    private static boolean hasAncestorIn(Uri uri, Set<Uri> uris) {
+        for (Uri parent = getParent(uri); parent != null; parent = getParent(parent)) {
+            if (uris.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the uri without its last path segment
+     * @param uri Uri
+     * @return Uri or null for a collection uri, the authority itself is never notified
+     */
+    private static Uri getParent(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return null;
+        }
+        Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+}
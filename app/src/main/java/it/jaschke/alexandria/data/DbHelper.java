@@ -1,24 +1,156 @@
 package it.jaschke.alexandria.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 /**
  * Created by saj on 22/12/14.
+ * <p/>
+ * The schema is versioned: onCreate builds the version 1 tables and then runs the same migrations,
+ * one version at a time, as an upgrade does. A new version adds a step to {@link #migrate}.
  */
 public class DbHelper extends SQLiteOpenHelper {
     private static final String LOG_TAG = DbHelper.class.getSimpleName();
-    private static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 10;
     public static final String DATABASE_NAME = "alexandria.db";
 
+    // names of the indexes of version 4
+    public static final String AUTHOR_INDEX = "authors_id_author";
+    public static final String CATEGORY_INDEX = "categories_id_category";
+    public static final String SAVED_INDEX = "books_saved";
+    // name of the index of version 7
+    public static final String SAVED_TITLE_INDEX = "books_saved_title";
+    // name of the index of version 8
+    public static final String LIST_INDEX = "books_list";
+    // names of the indexes of version 9, from the names to the books
+    public static final String AUTHOR_BOOK_INDEX = "book_author_author";
+    public static final String CATEGORY_BOOK_INDEX = "book_category_category";
+    // name of the index of version 10, the preview cache by last use
+    public static final String PREVIEW_USED_INDEX = "preview_cache_used";
+
+    private StorageProfile mProfile = StorageProfile.INTERACTIVE;
+
     public DbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructor for a database with another name, e.g. in tests
+     * @param context Context
+     * @param name String
+     */
+    public DbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        // readers keep going while the service writes books
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Apply the storage profile to the primary connection, which does all the writes
+     * @param db SQLiteDatabase
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        mProfile.apply(db);
+    }
+
+    /**
+     * Switch the open database to another storage profile. Leaving a profile with a larger log
+     *  checkpoints the log right away, so the readers don't have to search it.
+     * @param profile StorageProfile
+     */
+    public synchronized void setStorageProfile(StorageProfile profile) {
+        if (profile == mProfile) {
+            return;
+        }
+        StorageProfile previous = mProfile;
+        mProfile = profile;
+        SQLiteDatabase db = getWritableDatabase();
+        profile.apply(db);
+        if (previous.getCheckpointPages() > profile.getCheckpointPages()) {
+            Cursor result = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+            result.moveToFirst();
+            result.close();
+        }
+    }
+
+    /**
+     * Get the storage profile in use
+     * @return StorageProfile
+     */
+    public synchronized StorageProfile getStorageProfile() {
+        return mProfile;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createTables(db);
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * Run the migrations from the old version up to the new version, one version at a time
+     * @param db SQLiteDatabase
+     * @param oldVersion int
+     * @param newVersion int
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Log.d(LOG_TAG, "Migrating to version " + version);
+            migrate(db, version);
+        }
+    }
+
+    /**
+     * Migrate the database from the previous version to the given version
+     * @param db SQLiteDatabase
+     * @param version int
+     */
+    private void migrate(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                createNotFoundTable(db);
+                break;
+            case 3:
+                createPendingTable(db);
+                break;
+            case 4:
+                removeDuplicateChildren(db);
+                createJoinIndexes(db);
+                break;
+            case 5:
+                createSearchIndex(db);
+                break;
+            case 6:
+                addDisplayColumns(db);
+                break;
+            case 7:
+                createPageIndex(db);
+                break;
+            case 8:
+                createListIndex(db);
+                break;
+            case 9:
+                normalizeNames(db);
+                break;
+            case 10:
+                createPreviewCache(db);
+                removeOrphans(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to version " + version);
+        }
+    }
+
+    /**
+     * Create the book, author and category tables (version 1)
+     * @param db SQLiteDatabase
+     */
+    private void createTables(SQLiteDatabase db) {
 
         final String SQL_CREATE_BOOK_TABLE = "CREATE TABLE " + AlexandriaContract.BookEntry.TABLE_NAME + " (" +
                 AlexandriaContract.BookEntry._ID + " INTEGER PRIMARY KEY," +
@@ -41,7 +173,6 @@ public class DbHelper extends SQLiteOpenHelper {
                 " FOREIGN KEY (" + AlexandriaContract.CategoryEntry._ID + ") REFERENCES " +
                 AlexandriaContract.BookEntry.TABLE_NAME + " (" + AlexandriaContract.BookEntry._ID + "))";
 
-
         Log.d(LOG_TAG, SQL_CREATE_BOOK_TABLE);
         db.execSQL(SQL_CREATE_BOOK_TABLE);
         Log.d(LOG_TAG, SQL_CREATE_AUTHOR_TABLE);
@@ -50,19 +181,486 @@ public class DbHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_CATEGORY_TABLE);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        final String SQL_UPDATE_BOOK_TABLE = "ALTER TABLE " + AlexandriaContract.BookEntry.TABLE_NAME +
-                " ADD "+ AlexandriaContract.BookEntry.SAVED + " INTEGER;";
+    /**
+     * Create the table remembering the eans the books api does not know (version 2)
+     * @param db SQLiteDatabase
+     */
+    private void createNotFoundTable(SQLiteDatabase db) {
+        final String SQL_CREATE_NOT_FOUND_TABLE = "CREATE TABLE " + AlexandriaContract.NotFoundEntry.TABLE_NAME + " (" +
+                AlexandriaContract.NotFoundEntry._ID + " INTEGER PRIMARY KEY," +
+                AlexandriaContract.NotFoundEntry.CHECKED + " INTEGER NOT NULL)";
+
+        Log.d(LOG_TAG, SQL_CREATE_NOT_FOUND_TABLE);
+        db.execSQL(SQL_CREATE_NOT_FOUND_TABLE);
+    }
+
+    /**
+     * Create the table queueing the eans scanned while offline (version 3)
+     * @param db SQLiteDatabase
+     */
+    private void createPendingTable(SQLiteDatabase db) {
+        final String SQL_CREATE_PENDING_TABLE = "CREATE TABLE " + AlexandriaContract.PendingEntry.TABLE_NAME + " (" +
+                AlexandriaContract.PendingEntry._ID + " INTEGER PRIMARY KEY," +
+                AlexandriaContract.PendingEntry.QUEUED + " INTEGER NOT NULL)";
+
+        Log.d(LOG_TAG, SQL_CREATE_PENDING_TABLE);
+        db.execSQL(SQL_CREATE_PENDING_TABLE);
+    }
+
+    /**
+     * Remove the author and category rows that were written more than once for a book, e.g. by
+     *  fetching a cached book again (version 4)
+     * @param db SQLiteDatabase
+     */
+    private void removeDuplicateChildren(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + AlexandriaContract.AuthorEntry.TABLE_NAME + " WHERE rowid NOT IN (" +
+                "SELECT MIN(rowid) FROM " + AlexandriaContract.AuthorEntry.TABLE_NAME + " GROUP BY " +
+                AlexandriaContract.AuthorEntry._ID + ", " + AlexandriaContract.AuthorEntry.AUTHOR + ")");
+        db.execSQL("DELETE FROM " + AlexandriaContract.CategoryEntry.TABLE_NAME + " WHERE rowid NOT IN (" +
+                "SELECT MIN(rowid) FROM " + AlexandriaContract.CategoryEntry.TABLE_NAME + " GROUP BY " +
+                AlexandriaContract.CategoryEntry._ID + ", " + AlexandriaContract.CategoryEntry.CATEGORY + ")");
+    }
+
+    /**
+     * Index the join keys of the author and category tables, unique with the value so a book
+     *  can't get the same author or category twice, and the saved flag of the books (version 4)
+     * @param db SQLiteDatabase
+     */
+    private void createJoinIndexes(SQLiteDatabase db) {
+        final String SQL_CREATE_AUTHOR_INDEX = "CREATE UNIQUE INDEX " + AUTHOR_INDEX + " ON " +
+                AlexandriaContract.AuthorEntry.TABLE_NAME + " (" +
+                AlexandriaContract.AuthorEntry._ID + ", " + AlexandriaContract.AuthorEntry.AUTHOR + ")";
+        final String SQL_CREATE_CATEGORY_INDEX = "CREATE UNIQUE INDEX " + CATEGORY_INDEX + " ON " +
+                AlexandriaContract.CategoryEntry.TABLE_NAME + " (" +
+                AlexandriaContract.CategoryEntry._ID + ", " + AlexandriaContract.CategoryEntry.CATEGORY + ")";
+        final String SQL_CREATE_SAVED_INDEX = "CREATE INDEX " + SAVED_INDEX + " ON " +
+                AlexandriaContract.BookEntry.TABLE_NAME + " (" + AlexandriaContract.BookEntry.SAVED + ")";
+
+        Log.d(LOG_TAG, SQL_CREATE_AUTHOR_INDEX);
+        db.execSQL(SQL_CREATE_AUTHOR_INDEX);
+        Log.d(LOG_TAG, SQL_CREATE_CATEGORY_INDEX);
+        db.execSQL(SQL_CREATE_CATEGORY_INDEX);
+        Log.d(LOG_TAG, SQL_CREATE_SAVED_INDEX);
+        db.execSQL(SQL_CREATE_SAVED_INDEX);
+    }
+
+    /**
+     * Create the full text index of the books with the triggers keeping it in sync, and index the
+     *  existing books (version 5)
+     * @param db SQLiteDatabase
+     */
+    private void createSearchIndex(SQLiteDatabase db) {
+        final String search = AlexandriaContract.SearchEntry.TABLE_NAME;
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        final String authors = AlexandriaContract.AuthorEntry.TABLE_NAME;
+        final String categories = AlexandriaContract.CategoryEntry.TABLE_NAME;
+        final String SQL_CREATE_SEARCH_TABLE = "CREATE VIRTUAL TABLE " + search + " USING fts4(" +
+                AlexandriaContract.SearchEntry.TITLE + ", " +
+                AlexandriaContract.SearchEntry.SUBTITLE + ", " +
+                AlexandriaContract.SearchEntry.AUTHORS + ", " +
+                AlexandriaContract.SearchEntry.CATEGORIES + ", " +
+                AlexandriaContract.SearchEntry.DESC + ")";
+
+        Log.d(LOG_TAG, SQL_CREATE_SEARCH_TABLE);
+        db.execSQL(SQL_CREATE_SEARCH_TABLE);
+
+        // a book is indexed with the authors and categories it has at that time
+        db.execSQL("INSERT INTO " + search + " (" + AlexandriaContract.SearchEntry.DOCID + ", " +
+                AlexandriaContract.SearchEntry.TITLE + ", " + AlexandriaContract.SearchEntry.SUBTITLE + ", " +
+                AlexandriaContract.SearchEntry.AUTHORS + ", " + AlexandriaContract.SearchEntry.CATEGORIES + ", " +
+                AlexandriaContract.SearchEntry.DESC + ") SELECT " +
+                AlexandriaContract.BookEntry._ID + ", " + AlexandriaContract.BookEntry.TITLE + ", " +
+                AlexandriaContract.BookEntry.SUBTITLE + ", " +
+                selectAuthors(books + "." + AlexandriaContract.BookEntry._ID) + ", " +
+                selectCategories(books + "." + AlexandriaContract.BookEntry._ID) + ", " +
+                AlexandriaContract.BookEntry.DESC + " FROM " + books);
+
+        createBookSearchInsertTrigger(db, selectAuthors("new." + AlexandriaContract.BookEntry._ID),
+                selectCategories("new." + AlexandriaContract.BookEntry._ID));
+        db.execSQL("CREATE TRIGGER " + books + "_search_update AFTER UPDATE OF " +
+                AlexandriaContract.BookEntry.TITLE + ", " + AlexandriaContract.BookEntry.SUBTITLE + ", " +
+                AlexandriaContract.BookEntry.DESC + " ON " + books + " BEGIN " +
+                "UPDATE " + search + " SET " +
+                AlexandriaContract.SearchEntry.TITLE + " = new." + AlexandriaContract.BookEntry.TITLE + ", " +
+                AlexandriaContract.SearchEntry.SUBTITLE + " = new." + AlexandriaContract.BookEntry.SUBTITLE + ", " +
+                AlexandriaContract.SearchEntry.DESC + " = new." + AlexandriaContract.BookEntry.DESC +
+                " WHERE " + AlexandriaContract.SearchEntry.DOCID + " = new." + AlexandriaContract.BookEntry._ID + "; END");
+        db.execSQL("CREATE TRIGGER " + books + "_search_delete AFTER DELETE ON " + books + " BEGIN " +
+                "DELETE FROM " + search + " WHERE " + AlexandriaContract.SearchEntry.DOCID +
+                " = old." + AlexandriaContract.BookEntry._ID + "; END");
+
+        // authors and categories are rewritten as a whole for their book
+        String[] events = { "INSERT", "DELETE" };
+        String[] names = { "insert", "delete" };
+        String[] rows = { "new.", "old." };
+        for (int i = 0; i < events.length; i++) {
+            String event = events[i];
+            String row = rows[i];
+            db.execSQL("CREATE TRIGGER " + authors + "_search_" + names[i] + " AFTER " + event +
+                    " ON " + authors + " BEGIN UPDATE " + search + " SET " + AlexandriaContract.SearchEntry.AUTHORS +
+                    " = " + selectAuthors(row + AlexandriaContract.AuthorEntry._ID) +
+                    " WHERE " + AlexandriaContract.SearchEntry.DOCID + " = " + row + AlexandriaContract.AuthorEntry._ID +
+                    "; END");
+            db.execSQL("CREATE TRIGGER " + categories + "_search_" + names[i] + " AFTER " + event +
+                    " ON " + categories + " BEGIN UPDATE " + search + " SET " +
+                    AlexandriaContract.SearchEntry.CATEGORIES + " = " +
+                    selectCategories(row + AlexandriaContract.CategoryEntry._ID) +
+                    " WHERE " + AlexandriaContract.SearchEntry.DOCID + " = " + row + AlexandriaContract.CategoryEntry._ID +
+                    "; END");
+        }
+    }
+
+    /**
+     * Create the trigger indexing a new book with its authors and categories
+     * @param db SQLiteDatabase
+     * @param authors String sub query of the authors of the new book
+     * @param categories String sub query of the categories of the new book
+     */
+    private static void createBookSearchInsertTrigger(SQLiteDatabase db, String authors, String categories) {
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        db.execSQL("CREATE TRIGGER " + books + "_search_insert AFTER INSERT ON " + books + " BEGIN " +
+                "INSERT INTO " + AlexandriaContract.SearchEntry.TABLE_NAME + " (" +
+                AlexandriaContract.SearchEntry.DOCID + ", " +
+                AlexandriaContract.SearchEntry.TITLE + ", " + AlexandriaContract.SearchEntry.SUBTITLE + ", " +
+                AlexandriaContract.SearchEntry.AUTHORS + ", " + AlexandriaContract.SearchEntry.CATEGORIES + ", " +
+                AlexandriaContract.SearchEntry.DESC + ") VALUES (new." + AlexandriaContract.BookEntry._ID + ", " +
+                "new." + AlexandriaContract.BookEntry.TITLE + ", new." + AlexandriaContract.BookEntry.SUBTITLE + ", " +
+                authors + ", " + categories + ", new." + AlexandriaContract.BookEntry.DESC + "); END");
+    }
 
-        final String SQL_UPDATE_BOOK_RECORDS = "UPDATE "+ AlexandriaContract.BookEntry.TABLE_NAME +
-                " SET "+ AlexandriaContract.BookEntry.SAVED +" = 1 "+
-                " WHERE 1 = 1;";
+    /**
+     * Sub query concatenating the authors of a book for the search index
+     * @param ean String expression of the ean
+     * @return String
+     */
+    private static String selectAuthors(String ean) {
+        return "(SELECT group_concat(" + AlexandriaContract.AuthorEntry.AUTHOR + ", ' ') FROM " +
+                AlexandriaContract.AuthorEntry.TABLE_NAME + " WHERE " +
+                AlexandriaContract.AuthorEntry._ID + " = " + ean + ")";
+    }
+
+    /**
+     * Sub query concatenating the categories of a book for the search index
+     * @param ean String expression of the ean
+     * @return String
+     */
+    private static String selectCategories(String ean) {
+        return "(SELECT group_concat(" + AlexandriaContract.CategoryEntry.CATEGORY + ", ' ') FROM " +
+                AlexandriaContract.CategoryEntry.TABLE_NAME + " WHERE " +
+                AlexandriaContract.CategoryEntry._ID + " = " + ean + ")";
+    }
+
+    /**
+     * Add the authors and categories of a book to the books table, joined by the display
+     *  separator, with the triggers keeping them up to date, so the full book queries read a
+     *  single table (version 6)
+     * @param db SQLiteDatabase
+     */
+    private void addDisplayColumns(SQLiteDatabase db) {
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        final String authors = AlexandriaContract.AuthorEntry.TABLE_NAME;
+        final String categories = AlexandriaContract.CategoryEntry.TABLE_NAME;
+        final String authorsDisplay = AlexandriaContract.BookEntry.AUTHORS_DISPLAY;
+        final String categoriesDisplay = AlexandriaContract.BookEntry.CATEGORIES_DISPLAY;
+
+        db.execSQL("ALTER TABLE " + books + " ADD COLUMN " + authorsDisplay + " TEXT");
+        db.execSQL("ALTER TABLE " + books + " ADD COLUMN " + categoriesDisplay + " TEXT");
+        db.execSQL("UPDATE " + books + " SET " +
+                authorsDisplay + " = " + selectAuthorsDisplay(books + "." + AlexandriaContract.BookEntry._ID) + ", " +
+                categoriesDisplay + " = " + selectCategoriesDisplay(books + "." + AlexandriaContract.BookEntry._ID));
+
+        // a book stored after its authors and categories picks them up as well
+        createBookDisplayInsertTrigger(db, selectAuthorsDisplay("new." + AlexandriaContract.BookEntry._ID),
+                selectCategoriesDisplay("new." + AlexandriaContract.BookEntry._ID));
+
+        String[] events = { "INSERT", "DELETE" };
+        String[] names = { "insert", "delete" };
+        String[] rows = { "new.", "old." };
+        for (int i = 0; i < events.length; i++) {
+            String row = rows[i];
+            db.execSQL("CREATE TRIGGER " + authors + "_display_" + names[i] + " AFTER " + events[i] +
+                    " ON " + authors + " BEGIN UPDATE " + books + " SET " + authorsDisplay + " = " +
+                    selectAuthorsDisplay(row + AlexandriaContract.AuthorEntry._ID) +
+                    " WHERE " + AlexandriaContract.BookEntry._ID + " = " + row + AlexandriaContract.AuthorEntry._ID +
+                    "; END");
+            db.execSQL("CREATE TRIGGER " + categories + "_display_" + names[i] + " AFTER " + events[i] +
+                    " ON " + categories + " BEGIN UPDATE " + books + " SET " + categoriesDisplay + " = " +
+                    selectCategoriesDisplay(row + AlexandriaContract.CategoryEntry._ID) +
+                    " WHERE " + AlexandriaContract.BookEntry._ID + " = " + row + AlexandriaContract.CategoryEntry._ID +
+                    "; END");
+        }
+    }
+
+    /**
+     * Create the trigger filling the display columns of a new book
+     * @param db SQLiteDatabase
+     * @param authors String sub query of the authors of the new book
+     * @param categories String sub query of the categories of the new book
+     */
+    private static void createBookDisplayInsertTrigger(SQLiteDatabase db, String authors, String categories) {
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        db.execSQL("CREATE TRIGGER " + books + "_display_insert AFTER INSERT ON " + books + " BEGIN " +
+                "UPDATE " + books + " SET " +
+                AlexandriaContract.BookEntry.AUTHORS_DISPLAY + " = " + authors + ", " +
+                AlexandriaContract.BookEntry.CATEGORIES_DISPLAY + " = " + categories +
+                " WHERE " + AlexandriaContract.BookEntry._ID + " = new." + AlexandriaContract.BookEntry._ID + "; END");
+    }
+
+    /**
+     * Sub query joining the authors of a book for the display column, in the order they were stored
+     * @param ean String expression of the ean
+     * @return String
+     */
+    private static String selectAuthorsDisplay(String ean) {
+        return "(SELECT group_concat(" + AlexandriaContract.AuthorEntry.AUTHOR + ", '" +
+                AlexandriaContract.BookEntry.DISPLAY_SEPARATOR + "') FROM (SELECT " +
+                AlexandriaContract.AuthorEntry.AUTHOR + " FROM " + AlexandriaContract.AuthorEntry.TABLE_NAME +
+                " WHERE " + AlexandriaContract.AuthorEntry._ID + " = " + ean + " ORDER BY rowid))";
+    }
+
+    /**
+     * Sub query joining the categories of a book for the display column, in the order they were stored
+     * @param ean String expression of the ean
+     * @return String
+     */
+    private static String selectCategoriesDisplay(String ean) {
+        return "(SELECT group_concat(" + AlexandriaContract.CategoryEntry.CATEGORY + ", '" +
+                AlexandriaContract.BookEntry.DISPLAY_SEPARATOR + "') FROM (SELECT " +
+                AlexandriaContract.CategoryEntry.CATEGORY + " FROM " + AlexandriaContract.CategoryEntry.TABLE_NAME +
+                " WHERE " + AlexandriaContract.CategoryEntry._ID + " = " + ean + " ORDER BY rowid))";
+    }
+
+    /**
+     * Index the books by saved flag and title, the rowid completes the key, so a page of the
+     *  books ordered by title and ean is a range of the index (version 7)
+     * @param db SQLiteDatabase
+     */
+    private void createPageIndex(SQLiteDatabase db) {
+        final String SQL_CREATE_SAVED_TITLE_INDEX = "CREATE INDEX " + SAVED_TITLE_INDEX + " ON " +
+                AlexandriaContract.BookEntry.TABLE_NAME + " (" + AlexandriaContract.BookEntry.SAVED + ", " +
+                AlexandriaContract.BookEntry.TITLE + ")";
+
+        Log.d(LOG_TAG, SQL_CREATE_SAVED_TITLE_INDEX);
+        db.execSQL(SQL_CREATE_SAVED_TITLE_INDEX);
+    }
+
+    /**
+     * Index the books by saved flag and title with the other columns of the book list, so the
+     *  list is read from the index alone and never loads the description pages of the books
+     *  table. The ean follows the title to keep the pages in index order. It replaces the index
+     *  of version 7, which is a prefix of it (version 8).
+     * @param db SQLiteDatabase
+     */
+    private void createListIndex(SQLiteDatabase db) {
+        final String SQL_CREATE_LIST_INDEX = "CREATE INDEX " + LIST_INDEX + " ON " +
+                AlexandriaContract.BookEntry.TABLE_NAME + " (" + AlexandriaContract.BookEntry.SAVED + ", " +
+                AlexandriaContract.BookEntry.TITLE + ", " + AlexandriaContract.BookEntry._ID + ", " +
+                AlexandriaContract.BookEntry.SUBTITLE + ", " + AlexandriaContract.BookEntry.IMAGE_URL + ")";
+
+        Log.d(LOG_TAG, SQL_CREATE_LIST_INDEX);
+        db.execSQL(SQL_CREATE_LIST_INDEX);
+        db.execSQL("DROP INDEX IF EXISTS " + SAVED_TITLE_INDEX);
+    }
 
-        Log.d(LOG_TAG, SQL_UPDATE_BOOK_TABLE);
-        db.execSQL(SQL_UPDATE_BOOK_TABLE);
+    /**
+     * Store each author and category name once, in a dictionary keyed by integer id, with link
+     *  tables from the books to the names. The authors and categories tables are replaced by views
+     *  of the same names and columns: reads join the links with the dictionary, inserts intern the
+     *  name through the insert trigger of the view. The display and search triggers move to the
+     *  link tables (version 9).
+     * @param db SQLiteDatabase
+     */
+    private void normalizeNames(SQLiteDatabase db) {
+        normalizeNames(db, AlexandriaContract.AuthorEntry.TABLE_NAME, AlexandriaContract.AuthorEntry.AUTHOR,
+                AlexandriaContract.AuthorEntry.DICTIONARY_TABLE, AlexandriaContract.AuthorEntry.LINK_TABLE,
+                AlexandriaContract.AuthorEntry.NAME_ID, AUTHOR_BOOK_INDEX);
+        normalizeNames(db, AlexandriaContract.CategoryEntry.TABLE_NAME, AlexandriaContract.CategoryEntry.CATEGORY,
+                AlexandriaContract.CategoryEntry.DICTIONARY_TABLE, AlexandriaContract.CategoryEntry.LINK_TABLE,
+                AlexandriaContract.CategoryEntry.NAME_ID, CATEGORY_BOOK_INDEX);
+
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        final String ean = "new." + AlexandriaContract.BookEntry._ID;
+        db.execSQL("DROP TRIGGER " + books + "_search_insert");
+        createBookSearchInsertTrigger(db, selectAuthorNames(ean, " "), selectCategoryNames(ean, " "));
+        db.execSQL("DROP TRIGGER " + books + "_display_insert");
+        createBookDisplayInsertTrigger(db, selectAuthorNames(ean, AlexandriaContract.BookEntry.DISPLAY_SEPARATOR),
+                selectCategoryNames(ean, AlexandriaContract.BookEntry.DISPLAY_SEPARATOR));
+
+        // the authors and categories of a book are rewritten as a whole for it
+        String[] events = { "INSERT", "DELETE" };
+        String[] names = { "insert", "delete" };
+        String[] rows = { "new.", "old." };
+        for (int i = 0; i < events.length; i++) {
+            String authorsEan = rows[i] + AlexandriaContract.AuthorEntry.BOOK_ID;
+            String categoriesEan = rows[i] + AlexandriaContract.CategoryEntry.BOOK_ID;
+            db.execSQL("CREATE TRIGGER " + AlexandriaContract.AuthorEntry.LINK_TABLE + "_" + names[i] + " AFTER " +
+                    events[i] + " ON " + AlexandriaContract.AuthorEntry.LINK_TABLE + " BEGIN " +
+                    "UPDATE " + books + " SET " + AlexandriaContract.BookEntry.AUTHORS_DISPLAY + " = " +
+                    selectAuthorNames(authorsEan, AlexandriaContract.BookEntry.DISPLAY_SEPARATOR) +
+                    " WHERE " + AlexandriaContract.BookEntry._ID + " = " + authorsEan + "; " +
+                    "UPDATE " + AlexandriaContract.SearchEntry.TABLE_NAME + " SET " +
+                    AlexandriaContract.SearchEntry.AUTHORS + " = " + selectAuthorNames(authorsEan, " ") +
+                    " WHERE " + AlexandriaContract.SearchEntry.DOCID + " = " + authorsEan + "; END");
+            db.execSQL("CREATE TRIGGER " + AlexandriaContract.CategoryEntry.LINK_TABLE + "_" + names[i] + " AFTER " +
+                    events[i] + " ON " + AlexandriaContract.CategoryEntry.LINK_TABLE + " BEGIN " +
+                    "UPDATE " + books + " SET " + AlexandriaContract.BookEntry.CATEGORIES_DISPLAY + " = " +
+                    selectCategoryNames(categoriesEan, AlexandriaContract.BookEntry.DISPLAY_SEPARATOR) +
+                    " WHERE " + AlexandriaContract.BookEntry._ID + " = " + categoriesEan + "; " +
+                    "UPDATE " + AlexandriaContract.SearchEntry.TABLE_NAME + " SET " +
+                    AlexandriaContract.SearchEntry.CATEGORIES + " = " + selectCategoryNames(categoriesEan, " ") +
+                    " WHERE " + AlexandriaContract.SearchEntry.DOCID + " = " + categoriesEan + "; END");
+        }
+    }
+
+    /**
+     * Move the names of a table of version 1 to a dictionary and a link table, and replace the
+     *  table by a view
+     * @param db SQLiteDatabase
+     * @param table String authors or categories table
+     * @param column String name column of the table
+     * @param dictionary String dictionary table
+     * @param link String link table
+     * @param nameId String column of the link table referencing the dictionary
+     * @param index String name of the index from the names to the books
+     */
+    private static void normalizeNames(SQLiteDatabase db, String table, String column, String dictionary,
+                                       String link, String nameId, String index) {
+        // both value classes have the same column names
+        final String id = AlexandriaContract.AuthorEntry._ID;
+        final String name = AlexandriaContract.AuthorEntry.NAME;
+        final String bookId = AlexandriaContract.AuthorEntry.BOOK_ID;
+
+        final String SQL_CREATE_DICTIONARY_TABLE = "CREATE TABLE " + dictionary + " (" +
+                id + " INTEGER PRIMARY KEY," +
+                name + " TEXT NOT NULL UNIQUE)";
+        // the unique key is the index from the books to the names
+        final String SQL_CREATE_LINK_TABLE = "CREATE TABLE " + link + " (" +
+                bookId + " INTEGER NOT NULL," +
+                nameId + " INTEGER NOT NULL," +
+                " FOREIGN KEY (" + bookId + ") REFERENCES " + AlexandriaContract.BookEntry.TABLE_NAME + " (" +
+                AlexandriaContract.BookEntry._ID + ")," +
+                " FOREIGN KEY (" + nameId + ") REFERENCES " + dictionary + " (" + id + ")," +
+                " UNIQUE (" + bookId + ", " + nameId + "))";
+        final String SQL_CREATE_NAME_INDEX = "CREATE INDEX " + index + " ON " + link + " (" +
+                nameId + ", " + bookId + ")";
+
+        Log.d(LOG_TAG, SQL_CREATE_DICTIONARY_TABLE);
+        db.execSQL(SQL_CREATE_DICTIONARY_TABLE);
+        Log.d(LOG_TAG, SQL_CREATE_LINK_TABLE);
+        db.execSQL(SQL_CREATE_LINK_TABLE);
+        Log.d(LOG_TAG, SQL_CREATE_NAME_INDEX);
+        db.execSQL(SQL_CREATE_NAME_INDEX);
+
+        // the links keep the order the names were stored in
+        db.execSQL("INSERT OR IGNORE INTO " + dictionary + " (" + name + ") SELECT " + column + " FROM " + table +
+                " WHERE " + column + " IS NOT NULL ORDER BY rowid");
+        db.execSQL("INSERT OR IGNORE INTO " + link + " (" + bookId + ", " + nameId + ") SELECT " +
+                table + "." + id + ", " + dictionary + "." + id + " FROM " + table + " JOIN " + dictionary +
+                " ON " + dictionary + "." + name + " = " + table + "." + column + " ORDER BY " + table + ".rowid");
+        // drops the triggers of the table as well
+        db.execSQL("DROP TABLE " + table);
+
+        final String SQL_CREATE_VIEW = "CREATE VIEW " + table + " AS SELECT " +
+                link + "." + bookId + " AS " + id + ", " + dictionary + "." + name + " AS " + column +
+                " FROM " + link + " JOIN " + dictionary + " ON " + dictionary + "." + id + " = " + link + "." + nameId;
+        Log.d(LOG_TAG, SQL_CREATE_VIEW);
+        db.execSQL(SQL_CREATE_VIEW);
+        // a name is stored the first time a book has it, a link the book already has is kept
+        db.execSQL("CREATE TRIGGER " + table + "_insert INSTEAD OF INSERT ON " + table + " BEGIN " +
+                "INSERT OR IGNORE INTO " + dictionary + " (" + name + ") VALUES (new." + column + "); " +
+                "INSERT OR IGNORE INTO " + link + " (" + bookId + ", " + nameId + ") SELECT new." + id + ", " + id +
+                " FROM " + dictionary + " WHERE " + name + " = new." + column + "; END");
+    }
+
+    /**
+     * Create the table of the books fetched for the preview and not saved, so they stay out of the
+     *  books table until they are saved, and drop the unsaved books the books table still has, as
+     *  the cleanup at startup did (version 10)
+     * @param db SQLiteDatabase
+     */
+    private void createPreviewCache(SQLiteDatabase db) {
+        final String SQL_CREATE_PREVIEW_TABLE = "CREATE TABLE " + AlexandriaContract.PreviewEntry.TABLE_NAME + " (" +
+                AlexandriaContract.PreviewEntry._ID + " INTEGER PRIMARY KEY," +
+                AlexandriaContract.PreviewEntry.TITLE + " TEXT NOT NULL," +
+                AlexandriaContract.PreviewEntry.SUBTITLE + " TEXT," +
+                AlexandriaContract.PreviewEntry.DESC + " TEXT," +
+                AlexandriaContract.PreviewEntry.IMAGE_URL + " TEXT," +
+                AlexandriaContract.PreviewEntry.AUTHORS_DISPLAY + " TEXT," +
+                AlexandriaContract.PreviewEntry.CATEGORIES_DISPLAY + " TEXT," +
+                AlexandriaContract.PreviewEntry.FETCHED + " INTEGER NOT NULL," +
+                AlexandriaContract.PreviewEntry.USED + " INTEGER NOT NULL)";
+        final String SQL_CREATE_PREVIEW_USED_INDEX = "CREATE INDEX " + PREVIEW_USED_INDEX + " ON " +
+                AlexandriaContract.PreviewEntry.TABLE_NAME + " (" + AlexandriaContract.PreviewEntry.USED + ")";
+
+        Log.d(LOG_TAG, SQL_CREATE_PREVIEW_TABLE);
+        db.execSQL(SQL_CREATE_PREVIEW_TABLE);
+        Log.d(LOG_TAG, SQL_CREATE_PREVIEW_USED_INDEX);
+        db.execSQL(SQL_CREATE_PREVIEW_USED_INDEX);
+
+        db.execSQL("DELETE FROM " + AlexandriaContract.BookEntry.TABLE_NAME + " WHERE " +
+                AlexandriaContract.BookEntry.SAVED + " = 0");
+    }
+
+    /**
+     * Remove the authors and categories left behind by deleted books, and the names no book has
+     *  anymore, with the triggers that remove them along with a book or its last link from now on
+     *  (version 10)
+     * @param db SQLiteDatabase
+     */
+    private void removeOrphans(SQLiteDatabase db) {
+        final String books = AlexandriaContract.BookEntry.TABLE_NAME;
+        final String bookId = AlexandriaContract.AuthorEntry.BOOK_ID;
+        final String[] links = { AlexandriaContract.AuthorEntry.LINK_TABLE, AlexandriaContract.CategoryEntry.LINK_TABLE };
+        final String[] dictionaries = { AlexandriaContract.AuthorEntry.DICTIONARY_TABLE,
+                AlexandriaContract.CategoryEntry.DICTIONARY_TABLE };
+        final String[] nameIds = { AlexandriaContract.AuthorEntry.NAME_ID, AlexandriaContract.CategoryEntry.NAME_ID };
+
+        StringBuilder deleteLinks = new StringBuilder();
+        for (int i = 0; i < links.length; i++) {
+            db.execSQL("DELETE FROM " + links[i] + " WHERE " + bookId + " NOT IN (SELECT " +
+                    AlexandriaContract.BookEntry._ID + " FROM " + books + ")");
+            db.execSQL("DELETE FROM " + dictionaries[i] + " WHERE " + AlexandriaContract.AuthorEntry._ID +
+                    " NOT IN (SELECT " + nameIds[i] + " FROM " + links[i] + ")");
+            // a name goes with the last book that has it
+            db.execSQL("CREATE TRIGGER " + links[i] + "_orphan AFTER DELETE ON " + links[i] + " BEGIN " +
+                    "DELETE FROM " + dictionaries[i] + " WHERE " + AlexandriaContract.AuthorEntry._ID + " = old." +
+                    nameIds[i] + " AND NOT EXISTS (SELECT 1 FROM " + links[i] + " WHERE " + nameIds[i] + " = old." +
+                    nameIds[i] + "); END");
+            deleteLinks.append("DELETE FROM ").append(links[i]).append(" WHERE ").append(bookId)
+                    .append(" = old.").append(AlexandriaContract.BookEntry._ID).append("; ");
+        }
+        db.execSQL("CREATE TRIGGER " + books + "_links_delete AFTER DELETE ON " + books + " BEGIN " +
+                deleteLinks + "END");
+    }
+
+    /**
+     * Sub query joining the author names of a book, in the order they were stored (version 9)
+     * @param ean String expression of the ean
+     * @param separator String
+     * @return String
+     */
+    private static String selectAuthorNames(String ean, String separator) {
+        return selectNames(AlexandriaContract.AuthorEntry.LINK_TABLE, AlexandriaContract.AuthorEntry.DICTIONARY_TABLE,
+                AlexandriaContract.AuthorEntry.NAME_ID, ean, separator);
+    }
+
+    /**
+     * Sub query joining the category names of a book, in the order they were stored (version 9)
+     * @param ean String expression of the ean
+     * @param separator String
+     * @return String
+     */
+    private static String selectCategoryNames(String ean, String separator) {
+        return selectNames(AlexandriaContract.CategoryEntry.LINK_TABLE,
+                AlexandriaContract.CategoryEntry.DICTIONARY_TABLE, AlexandriaContract.CategoryEntry.NAME_ID, ean,
+                separator);
+    }
 
-        Log.d(LOG_TAG, SQL_UPDATE_BOOK_RECORDS);
-        db.execSQL(SQL_UPDATE_BOOK_RECORDS);
+    private static String selectNames(String link, String dictionary, String nameId, String ean, String separator) {
+        final String name = AlexandriaContract.AuthorEntry.NAME;
+        return "(SELECT group_concat(" + name + ", '" + separator + "') FROM (SELECT " + dictionary + "." + name +
+                " AS " + name + " FROM " + link + " JOIN " + dictionary + " ON " + dictionary + "." +
+                AlexandriaContract.AuthorEntry._ID + " = " + link + "." + nameId + " WHERE " + link + "." +
+                AlexandriaContract.AuthorEntry.BOOK_ID + " = " + ean + " ORDER BY " + link + ".rowid))";
     }
 }
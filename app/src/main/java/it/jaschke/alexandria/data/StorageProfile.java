@@ -0,0 +1,96 @@
+package it.jaschke.alexandria.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Connection settings of the database for a kind of workload. The database runs with write-ahead
+ *  logging, so readers see the last commit while a writer is busy, and the profile only tunes how
+ *  the writes reach the disk:
+ * <ul>
+ * <li>interactive: a single book saved by the user is synced with its commit, small page cache</li>
+ * <li>bulk import: many books written in a row, commits are synced at checkpoints only and the log
+ *  may grow larger before it is checkpointed, with a larger page cache</li>
+ * </ul>
+ * Neither profile can corrupt the database on a crash, the bulk import profile may lose the last
+ *  commits on a power loss, which are fetched again from the queue.
+ * <p/>
+ * The settings are per connection and only reach the primary connection, which does all the
+ *  writes. The pooled connections of the read queries keep the defaults of the platform.
+ */
+public final class StorageProfile {
+    private static final String LOG_TAG = StorageProfile.class.getSimpleName();
+
+    public static final StorageProfile INTERACTIVE = new StorageProfile("interactive", "FULL", 2048, 1000);
+    public static final StorageProfile BULK_IMPORT = new StorageProfile("bulk_import", "NORMAL", 8192, 10000);
+
+    private final String mName;
+    private final String mSynchronous;
+    private final int mCacheSize;
+    private final int mCheckpointPages;
+
+    /**
+     * Constructor
+     * @param name String
+     * @param synchronous String value of the synchronous pragma
+     * @param cacheSize int page cache size in KiB
+     * @param checkpointPages int number of pages in the log that triggers a checkpoint
+     */
+    private StorageProfile(String name, String synchronous, int cacheSize, int checkpointPages) {
+        mName = name;
+        mSynchronous = synchronous;
+        mCacheSize = cacheSize;
+        mCheckpointPages = checkpointPages;
+    }
+
+    /**
+     * Get the profile with the given name
+     * @param name String
+     * @return StorageProfile
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static StorageProfile forName(String name) {
+        if (INTERACTIVE.mName.equals(name)) {
+            return INTERACTIVE;
+        } else if (BULK_IMPORT.mName.equals(name)) {
+            return BULK_IMPORT;
+        }
+        throw new IllegalArgumentException("Unknown storage profile: " + name);
+    }
+
+    /**
+     * Get the name of the profile
+     * @return String
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Get the number of pages in the log that triggers a checkpoint
+     * @return int
+     */
+    public int getCheckpointPages() {
+        return mCheckpointPages;
+    }
+
+    /**
+     * Apply the settings to the primary connection, the one the writes go through. Temporary
+     *  tables and indexes of the writes, e.g. of the migrations, are kept in memory by every
+     *  profile. Read queries outside of a transaction run on other connections and are not
+     *  affected.
+     * @param db SQLiteDatabase
+     */
+    void apply(SQLiteDatabase db) {
+        Log.d(LOG_TAG, "Applying storage profile " + mName);
+        db.execSQL("PRAGMA synchronous = " + mSynchronous);
+        // a negative size is in KiB instead of pages
+        db.execSQL("PRAGMA cache_size = -" + mCacheSize);
+        db.execSQL("PRAGMA temp_store = MEMORY");
+        // returns the new value, which execSQL refuses
+        Cursor result = db.rawQuery("PRAGMA wal_autocheckpoint = " + mCheckpointPages, null);
+        result.moveToFirst();
+        result.close();
+    }
+}
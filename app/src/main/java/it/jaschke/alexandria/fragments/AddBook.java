@@ -1,14 +1,23 @@
 package it.jaschke.alexandria.fragments;
 
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.util.Patterns;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -25,24 +34,55 @@ import com.bumptech.glide.Glide;
 import com.google.zxing.integration.android.IntentIntegrator;
 import com.google.zxing.integration.android.IntentResult;
 
+import it.jaschke.alexandria.IsbnCodec;
 import it.jaschke.alexandria.R;
 import it.jaschke.alexandria.Utility;
 import it.jaschke.alexandria.activities.ScanActivity;
 import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.Book;
 import it.jaschke.alexandria.services.BookService;
+import it.jaschke.alexandria.services.ConnectivityReceiver;
 
 
 public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    // use classname when logging
+    private static final String LOG_TAG = AddBook.class.getSimpleName();
+
     // reference to the ean search field
     private EditText mEanSearchField;
-    // unique id for the loadermanager
-    private final int LOADER_ID = 30;
+    // unique id of the loader counting the eans queued while offline
+    private final int PENDING_LOADER_ID = 31;
     private View rootView;
     // key for storing the ean search field value in the savedinstance bundel
     private final String EAN_CONTENT="eanContent";
+    // key for storing the previewed book in the savedinstance bundle
+    private final String BOOK_CONTENT="bookContent";
+    // book shown in the preview, null when there is none
+    private Book mBook;
+    // time the last fetch was started, in milliseconds of elapsed realtime
+    private long mSubmitTime;
     // the first 3 digits of a isbn13 are always the same
     private String mEanPrefix;
+    // milliseconds the input has to be unchanged before a typed isbn is submitted
+    private static final long SUBMIT_DELAY = 500;
+    // posts the delayed submit of typed input
+    private final Handler mHandler = new Handler();
+    private final Runnable mSubmitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            handleSubmit(false);
+        }
+    };
+    // ean of the last fetch started by this fragment, null when there is none to cancel
+    private String mFetchingEan;
+    // receives the books fetched by the bookservice
+    private final BroadcastReceiver mBookReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBookFetched(intent.getStringExtra(BookService.EAN), (Book) intent.getParcelableExtra(BookService.BOOK));
+        }
+    };
 
     /***
      * Constructor
@@ -60,6 +100,9 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
         if(mEanSearchField!=null) {
             outState.putString(EAN_CONTENT, mEanSearchField.getText().toString());
         }
+        if(mBook!=null) {
+            outState.putParcelable(BOOK_CONTENT, mBook);
+        }
     }
 
     /***
@@ -91,9 +134,16 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
             @Override
             public void afterTextChanged(Editable s) {
                 String ean = s.toString();
-                //catch isbn10 numbers
+                // a newer keystroke replaces the pending submit
+                mHandler.removeCallbacks(mSubmitRunnable);
+                // stop fetching a book that no longer matches the input
+                if (mFetchingEan != null && !mFetchingEan.equals(String.valueOf(IsbnCodec.parse(ean.trim())))) {
+                    cancelFetch();
+                }
+                //catch isbn10 numbers, wait for the input to settle so a typed isbn13 is not
+                //  fetched at its 10th digit already
                 if ((ean.length() == 10 && !ean.startsWith(mEanPrefix)) || (ean.length() == 13)) {
-                    handleSubmit(false);
+                    mHandler.postDelayed(mSubmitRunnable, SUBMIT_DELAY);
                 } else {
                     clearFields();
                 }
@@ -108,6 +158,7 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
                         (event.getKeyCode() == KeyEvent.KEYCODE_ENTER)) ||
                         (actionId == EditorInfo.IME_ACTION_DONE)) {
                     // force a submit
+                    mHandler.removeCallbacks(mSubmitRunnable);
                     handleSubmit(true);
                     // keep the focus on the textfield
                     mEanSearchField.requestFocus();
@@ -120,6 +171,7 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
             @Override
             public void onClick(View view) {
                 // force a submit
+                mHandler.removeCallbacks(mSubmitRunnable);
                 handleSubmit(true);
                 // set the focus on the textfield
                 mEanSearchField.requestFocus();
@@ -129,14 +181,8 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
         rootView.findViewById(R.id.scan_button).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                // TODO: launch the barcode scanner,when done, remove the toast below.
-                //CharSequence text = "This button should let you scan a book for its barcode!";
-                // launch the barcode scanner
-                if (Utility.isNetworkAvailable(getActivity())) {
-                    scanBarcode();
-                } else {
-                    Toast.makeText(getActivity(), getString(R.string.network_required_notice), Toast.LENGTH_SHORT).show();
-                }
+                // launch the barcode scanner, scans made while offline are queued
+                scanBarcode();
             }
 
         });
@@ -149,6 +195,8 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
                 bookIntent.putExtra(BookService.EAN, mEanSearchField.getText().toString());
                 bookIntent.setAction(BookService.CONFIRM_BOOK);
                 getActivity().startService(bookIntent);
+                // the fetch is done, there is nothing to cancel
+                mFetchingEan = null;
                 // clear the search field
                 mEanSearchField.setText("");
             }
@@ -161,8 +209,13 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
                 mEanSearchField.setText("");
             }
         });
+        // receive the fetched books while the view exists
+        LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mBookReceiver,
+                new IntentFilter(BookService.BOOK_EVENT));
         // load previously values from instancestate, if available
         if(savedInstanceState!=null){
+            // get the previewed book, it is shown again when the search field is restored
+            mBook = savedInstanceState.getParcelable(BOOK_CONTENT);
             // get ean search field value and update if not empty
             String tempEan = savedInstanceState.getString(EAN_CONTENT);
             if (tempEan != null) {
@@ -178,6 +231,29 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
         return rootView;
     }
 
+    /**
+     * Start the loader counting the queued eans
+     * @param savedInstanceState Bundle
+     */
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        getLoaderManager().initLoader(PENDING_LOADER_ID, null, this);
+    }
+
+    /**
+     * Drop the pending submit, and cancel the running fetch when the fragment is not recreated
+     */
+    @Override
+    public void onDestroyView() {
+        LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mBookReceiver);
+        mHandler.removeCallbacks(mSubmitRunnable);
+        if (!getActivity().isChangingConfigurations()) {
+            cancelFetch();
+        }
+        super.onDestroyView();
+    }
+
     /**
      * Trigger the fetch bookservice on various events
      * @param forced boolean show toast notices when forced is true
@@ -190,22 +266,30 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
         // check if an isbn number was entered
         if ((tempEan.length() == 10) || (tempEan.length() == 13)) {
 
-            // prefix isbn10 numbers
-            if ((tempEan.length() == 10) && !tempEan.startsWith(mEanPrefix)) {
-                tempEan = mEanPrefix + tempEan;
-            }
-            // if we have a string of 13 digits
-            if (tempEan.length() == 13) {
-                // start a bookservice intent to call the books api
-                if (Utility.isNetworkAvailable(getActivity())) {
+            // validate the check digit and turn isbn10 numbers into an ean
+            long ean = IsbnCodec.parse(tempEan);
+            if (ean == IsbnCodec.INVALID) {
+                if (forced || tempEan.length() == 13) {
+                    // show toast for a mistyped or misread number
+                    Toast.makeText(getActivity(), getString(R.string.invalid_isbn),Toast.LENGTH_SHORT).show();
+                }
+            } else {
+                tempEan = String.valueOf(ean);
+                if (mBook != null && mBook.getEan().equals(tempEan)) {
+                    // the book is known already, e.g. after a rotation
+                    showBook(mBook);
+                } else if (Utility.isNetworkAvailable(getActivity())) {
+                    // start a bookservice intent to call the books api, it sends the book to
+                    //  the preview when done
+                    clearFields();
                     fetchBookFromService(tempEan);
-                    // restart the loader to populate the preview view
-                    restartLoader();
-                } else {
-                    if (forced) {
-                        // show toast when we don't have a network connection
-                        Toast.makeText(getActivity(), getString(R.string.network_required_notice),Toast.LENGTH_SHORT).show();
-                    }
+                } else if (forced || mEanSearchField.getText().length() == 13) {
+                    // queue the ean when we don't have a network connection, partially typed
+                    //  isbn-13 numbers are only queued on an explicit submit
+                    queueBook(tempEan);
+                    Toast.makeText(getActivity(), getString(R.string.book_queued),Toast.LENGTH_SHORT).show();
+                    // clear the search field for the next scan
+                    mEanSearchField.setText("");
                 }
             }
         } else if (forced) {
@@ -219,98 +303,133 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
      * @param ean String
      */
     private void fetchBookFromService(String ean) {
+        // a fetch of another ean is no longer needed
+        if (!ean.equals(mFetchingEan)) {
+            cancelFetch();
+        }
         Intent bookIntent = new Intent(getActivity(), BookService.class);
         bookIntent.putExtra(BookService.EAN, ean);
         bookIntent.setAction(BookService.FETCH_BOOK);
         getActivity().startService(bookIntent);
+        mFetchingEan = ean;
+        mSubmitTime = SystemClock.elapsedRealtime();
     }
 
     /**
-     * Restart the loader
+     * Show a book fetched by the bookservice, when it still matches the search field
+     * @param ean String
+     * @param book Book
      */
-    private void restartLoader(){
-        getLoaderManager().restartLoader(LOADER_ID, null, this);
+    private void onBookFetched(String ean, Book book) {
+        if (book == null || !ean.equals(String.valueOf(IsbnCodec.parse(mEanSearchField.getText().toString().trim())))) {
+            return;
+        }
+        if (ean.equals(mFetchingEan)) {
+            // the fetch is done, there is nothing to cancel
+            mFetchingEan = null;
+        }
+        mBook = book;
+        showBook(book);
+        Log.d(LOG_TAG, "Preview of " + ean + " rendered " + (SystemClock.elapsedRealtime() - mSubmitTime)
+                + " ms after the submit");
     }
 
     /**
-     * Create the loader to load full book date for entered ean
+     * Tell the BookService to cancel the last fetch, it is skipped when still queued or its
+     *  request is aborted when running
+     */
+    private void cancelFetch() {
+        if (mFetchingEan == null) {
+            return;
+        }
+        Intent bookIntent = new Intent(getActivity(), BookService.class);
+        bookIntent.putExtra(BookService.EAN, mFetchingEan);
+        bookIntent.setAction(BookService.CANCEL_FETCH);
+        getActivity().startService(bookIntent);
+        mFetchingEan = null;
+    }
+
+    /**
+     * Add an ean to the queue of books that are fetched when the network is back
+     * @param ean String
+     */
+    private void queueBook(String ean) {
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.PendingEntry._ID, ean);
+        values.put(AlexandriaContract.PendingEntry.QUEUED, System.currentTimeMillis());
+        getActivity().getContentResolver().insert(AlexandriaContract.PendingEntry.CONTENT_URI, values);
+        // listen to connectivity changes until the queue is drained
+        ConnectivityReceiver.setEnabled(getActivity(), true);
+    }
+
+    /**
+     * Create the loader counting the eans waiting for the network
      * @param id int
      * @param args Bundle
      * @return Loader
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        if(mEanSearchField.getText().length()>0){
-            // get the string value from the ean search field
-            String eanStr= mEanSearchField.getText().toString();
-            // add prefix if entered value length is 10
-            if(eanStr.length()==10 && !eanStr.startsWith(mEanPrefix)){
-                eanStr = mEanPrefix + eanStr;
-            }
-            // load full book date for entered ean
-            return new CursorLoader(
-                    getActivity(),
-                    AlexandriaContract.BookEntry.buildFullBookUri(Long.parseLong(eanStr)),
-                    null,
-                    null,
-                    null,
-                    null
-            );
-        } else {
-            return null;
-        }
+        return new CursorLoader(
+                getActivity(),
+                AlexandriaContract.PendingEntry.CONTENT_URI,
+                new String[] { AlexandriaContract.PendingEntry._ID },
+                null,
+                null,
+                null
+        );
     }
 
     /**
-     * Populate the view when finished loading
+     * Show the number of queued eans when finished loading
      * @param loader Loader
      * @param data Cursor
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data.moveToFirst()) {
-            // populate the view items
-            View view = getView();
-            if (view != null) {
-                // cover image
-                String imgUrl = data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.IMAGE_URL));
-                ImageView coverView = (ImageView) view.findViewById(R.id.bookCover);
-                if (Patterns.WEB_URL.matcher(imgUrl).matches()) {
-                    // load the cover image
-                    Glide.with(this)
-                            .load(imgUrl)
-                            .error(R.drawable.cover_not_available)
-                            .crossFade()
-                            .into(coverView);
-                } else {
-                    // or set the image-not-available resource
-                    coverView.setImageResource(R.drawable.cover_not_available);
-                }
-                coverView.setVisibility(View.VISIBLE);
-                // book title
-                String bookTitle = data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.TITLE));
-                ((TextView) rootView.findViewById(R.id.bookTitle)).setText(bookTitle);
-                // subtitle
-                String bookSubTitle = data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.SUBTITLE));
-                ((TextView) rootView.findViewById(R.id.bookSubTitle)).setText(bookSubTitle);
-                // authors
-                String authors = data.getString(data.getColumnIndex(AlexandriaContract.AuthorEntry.AUTHOR));
-                if (authors != null) {
-                    String[] authorsArr = authors.split(",");
-                    ((TextView) rootView.findViewById(R.id.authors)).setLines(authorsArr.length);
-                    ((TextView) rootView.findViewById(R.id.authors)).setText(authors.replace(",", "\n"));
-                }
-                // categories
-                String categories = data.getString(data.getColumnIndex(AlexandriaContract.CategoryEntry.CATEGORY));
-                ((TextView) rootView.findViewById(R.id.categories)).setText(categories);
-                // description
-                String desc = data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.DESC));
-                ((TextView) view.findViewById(R.id.bookDescription)).setText(desc);
-
-                // show the delete and save button
-                rootView.findViewById(R.id.save_button).setVisibility(View.VISIBLE);
-                rootView.findViewById(R.id.delete_button).setVisibility(View.VISIBLE);
+        showPendingCount(data.getCount());
+    }
+
+    /**
+     * Populate the preview with the book
+     * @param book Book
+     */
+    private void showBook(Book book) {
+        // populate the view items
+        View view = getView();
+        if (view != null) {
+            // cover image
+            String imgUrl = book.getImageUrl();
+            ImageView coverView = (ImageView) view.findViewById(R.id.bookCover);
+            if (Patterns.WEB_URL.matcher(imgUrl).matches()) {
+                // load the cover image
+                Glide.with(this)
+                        .load(imgUrl)
+                        .error(R.drawable.cover_not_available)
+                        .crossFade()
+                        .into(coverView);
+            } else {
+                // or set the image-not-available resource
+                coverView.setImageResource(R.drawable.cover_not_available);
             }
+            coverView.setVisibility(View.VISIBLE);
+            // book title
+            ((TextView) rootView.findViewById(R.id.bookTitle)).setText(book.getTitle());
+            // subtitle
+            ((TextView) rootView.findViewById(R.id.bookSubTitle)).setText(book.getSubtitle());
+            // authors
+            if (!book.getAuthors().isEmpty()) {
+                ((TextView) rootView.findViewById(R.id.authors)).setLines(book.getAuthors().size());
+                ((TextView) rootView.findViewById(R.id.authors)).setText(TextUtils.join("\n", book.getAuthors()));
+            }
+            // categories
+            ((TextView) rootView.findViewById(R.id.categories)).setText(TextUtils.join(",", book.getCategories()));
+            // description
+            ((TextView) view.findViewById(R.id.bookDescription)).setText(book.getDescription());
+
+            // show the delete and save button
+            rootView.findViewById(R.id.save_button).setVisibility(View.VISIBLE);
+            rootView.findViewById(R.id.delete_button).setVisibility(View.VISIBLE);
         }
     }
 
@@ -321,10 +440,21 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {}
 
+    /**
+     * Show the number of queued eans, hidden when the queue is empty
+     * @param count int
+     */
+    private void showPendingCount(int count) {
+        TextView pendingView = (TextView) rootView.findViewById(R.id.pending_scans);
+        pendingView.setText(getString(R.string.pending_scans, count));
+        pendingView.setVisibility(count > 0 ? View.VISIBLE : View.GONE);
+    }
+
     /**
      * Helper method to clear the book preview view items
      */
     private void clearFields(){
+        mBook = null;
         View view = getView();
 
         if (view != null) {
@@ -384,8 +514,11 @@ public class AddBook extends Fragment implements LoaderManager.LoaderCallbacks<C
                 // inform the user about the ean number
                 Toast.makeText(getActivity(),"Scanned barcode: "+ ean, Toast.LENGTH_SHORT).show();
 
-                // once we have an isbn, add it to the search field (this will trigger the bookservice call)
+                // once we have an isbn, add it to the search field and submit it without waiting
+                //  for more input
                 mEanSearchField.setText(ean);
+                mHandler.removeCallbacks(mSubmitRunnable);
+                handleSubmit(false);
             }
         }
     }
@@ -9,6 +9,7 @@ import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.widget.ShareActionProvider;
+import android.text.TextUtils;
 import android.util.Patterns;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -21,6 +22,9 @@ import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
 
+import java.util.List;
+
+import it.jaschke.alexandria.IsbnCodec;
 import it.jaschke.alexandria.R;
 import it.jaschke.alexandria.activities.MainActivity;
 import it.jaschke.alexandria.data.AlexandriaContract;
@@ -186,11 +190,11 @@ public class BookDetail extends Fragment implements LoaderManager.LoaderCallback
             String desc = data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.DESC));
             ((TextView) rootView.findViewById(R.id.fullBookDesc)).setText(desc);
             // authors
-            String authors = data.getString(data.getColumnIndex(AlexandriaContract.AuthorEntry.AUTHOR));
-            if (authors != null) {
-                String[] authorsArr = authors.split(",");
-                ((TextView) rootView.findViewById(R.id.authors)).setLines(authorsArr.length);
-                ((TextView) rootView.findViewById(R.id.authors)).setText(authors.replace(",", "\n"));
+            List<String> authors = AlexandriaContract.BookEntry.splitDisplay(
+                    data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.AUTHORS_DISPLAY)));
+            if (!authors.isEmpty()) {
+                ((TextView) rootView.findViewById(R.id.authors)).setLines(authors.size());
+                ((TextView) rootView.findViewById(R.id.authors)).setText(TextUtils.join("\n", authors));
             }
             // cover image
             String imgUrl = data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.IMAGE_URL));
@@ -208,10 +212,16 @@ public class BookDetail extends Fragment implements LoaderManager.LoaderCallback
             }
             coverView.setVisibility(View.VISIBLE);
             // categories
-            String categories = data.getString(data.getColumnIndex(AlexandriaContract.CategoryEntry.CATEGORY));
-            ((TextView) rootView.findViewById(R.id.categories)).setText(categories);
-            // ean
-            ((TextView) view.findViewById(R.id.ean)).setText(getString(R.string.isbn_13) +": "+ ean);
+            List<String> categories = AlexandriaContract.BookEntry.splitDisplay(
+                    data.getString(data.getColumnIndex(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY)));
+            ((TextView) rootView.findViewById(R.id.categories)).setText(TextUtils.join(", ", categories));
+            // ean, with the isbn-10 printed in older books when the ean has one
+            String isbn = getString(R.string.isbn_13) + ": " + ean;
+            String isbn10 = IsbnCodec.toIsbn10(Long.parseLong(ean));
+            if (isbn10 != null) {
+                isbn += ", " + getString(R.string.isbn_10) + ": " + isbn10;
+            }
+            ((TextView) view.findViewById(R.id.ean)).setText(isbn);
         }
     }
 
@@ -20,18 +20,22 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import it.jaschke.alexandria.R;
-import it.jaschke.alexandria.adapter.BookListAdapter;
+import it.jaschke.alexandria.adapter.PagedBookListAdapter;
 import it.jaschke.alexandria.data.AlexandriaContract;
 
 
 public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
 
     // adapter for population of the booklist view
-    private BookListAdapter bookListAdapter;
+    private PagedBookListAdapter bookListAdapter;
     // reference to the books listview
     private ListView bookList;
     // books listitem position
     private int mListPosition = ListView.INVALID_POSITION;
+    // offset of the first visible book from the top of the list, restored with it after a reload
+    private int mAnchorTop;
+    // true when the loader was restarted for another query, so the scroll position is not kept
+    private boolean mRestarted;
     // reference to the search textfield
     private EditText searchText;
     // unique id for the loadermanager
@@ -157,19 +161,20 @@ public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbac
                 }
             }
         );
-        // get cursor containing all the saved books
-        Cursor cursor = getActivity().getContentResolver().query(
-            AlexandriaContract.BookEntry.CONTENT_URI,
-            null, // leaving "columns" null just returns all the columns.
-            AlexandriaContract.BookEntry.SAVED +" = ? ", // cols for "where" clause
-            new String[] {"1"}, // values for "where" clause
-            null  // sort order
-        );
-
         // get the emptyview for the books listview
         View emptyView = rootView.findViewById(R.id.listview_empty);
-        // create the booklist adapter and populate it with the loaded books
-        bookListAdapter = new BookListAdapter(getActivity(), cursor, 0,emptyView);
+        // create the booklist adapter, the loader delivers the first page of the saved books and the
+        // adapter loads the following pages while scrolling
+        bookListAdapter = new PagedBookListAdapter(getActivity(), emptyView,
+                AlexandriaContract.BookEntry.LIST_PROJECTION,
+                AlexandriaContract.BookEntry.SAVED + " = ? ", new String[] {"1"});
+        bookListAdapter.setOnAnchorLoadedListener(new PagedBookListAdapter.OnAnchorLoadedListener() {
+            @Override
+            public void onAnchorLoaded(int position) {
+                // the books up to the first visible one are loaded again after a change of the books
+                bookList.setSelectionFromTop(position, mAnchorTop);
+            }
+        });
         // get the booklist view, attach the adapter, and attach onclick handler on the list items to open the bookdetail fragment
         bookList = (ListView) rootView.findViewById(R.id.listOfBooks);
         bookList.setAdapter(bookListAdapter);
@@ -177,8 +182,8 @@ public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbac
 
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                Cursor cursor = bookListAdapter.getCursor();
-                if (cursor != null && cursor.moveToPosition(position)) {
+                if (position < bookListAdapter.getCount()) {
+                    Cursor cursor = (Cursor) bookListAdapter.getItem(position);
                     // get the clicked listitem position
                     mListPosition = position;
                     // call the mainactivity method to open the bookdetail fragment
@@ -206,10 +211,21 @@ public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbac
         return rootView;
     }
 
+    /**
+     * Start loading the books
+     * @param savedInstanceState Bundle
+     */
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        getLoaderManager().initLoader(LOADER_ID, null, this);
+    }
+
     /**
      * Restart the loader
      */
     private void restartLoader(){
+        mRestarted = true;
         getLoaderManager().restartLoader(LOADER_ID, null, this);
     }
 
@@ -243,26 +259,22 @@ public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbac
         String searchString = searchText.getText().toString();
 
         // if not empty, use it to query the books
-        if(searchString.length() > 0) {
-            // search in the book title and subtitle
-            selection += " AND (" + AlexandriaContract.BookEntry.TITLE + " LIKE ? OR " + AlexandriaContract.BookEntry.SUBTITLE + " LIKE ? )";
-            searchString = "%" + searchString + "%";
-
-            // create the loader with given criteria
+        if(searchString.trim().length() > 0) {
+            // search the words in the full text index of the books, best matches first
             return new CursorLoader(
                     getActivity(),
-                    AlexandriaContract.BookEntry.CONTENT_URI,
-                    null,
+                    AlexandriaContract.SearchEntry.buildSearchUri(searchString),
+                    AlexandriaContract.BookEntry.LIST_PROJECTION,
                     selection,
-                    new String[]{saved, searchString, searchString},
+                    new String[]{saved},
                     null
             );
         }else {
-            // else return all the books
+            // else return the first page of the book list, by title
             return new CursorLoader(
                     getActivity(),
-                    AlexandriaContract.BookEntry.CONTENT_URI,
-                    null,
+                    AlexandriaContract.BookEntry.buildPageUri(PagedBookListAdapter.PAGE_SIZE, null, 0),
+                    AlexandriaContract.BookEntry.LIST_PROJECTION,
                     selection,
                     new String[]{saved},
                     null
@@ -277,7 +289,19 @@ public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbac
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        bookListAdapter.swapCursor(data);
+        int limit = getPageLimit((CursorLoader) loader);
+        int first = bookList.getFirstVisiblePosition();
+        if (!mRestarted && limit > 0 && first > 0 && first < bookListAdapter.getCount()) {
+            // a reload after a change of the books only gets the first page, the adapter loads the
+            // following pages again up to the first visible book, which keeps the scroll position
+            View top = bookList.getChildAt(0);
+            mAnchorTop = top != null ? top.getTop() : 0;
+            bookListAdapter.swapFirstPage(data, limit, bookListAdapter.getTitle(first),
+                    bookListAdapter.getItemId(first));
+            return;
+        }
+        mRestarted = false;
+        bookListAdapter.swapFirstPage(data, limit);
         // scroll to the saved list scroll position
         if (mListPosition != ListView.INVALID_POSITION) {
             bookList.smoothScrollToPosition(mListPosition);
@@ -290,7 +314,26 @@ public class ListOfBooks extends Fragment implements LoaderManager.LoaderCallbac
      */
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        bookListAdapter.swapCursor(null);
+        bookListAdapter.swapFirstPage(null, 0);
+    }
+
+    /**
+     * Get the number of books the loader queries as first page
+     * @param loader CursorLoader
+     * @return int limit of the page, 0 for the search results that are not paged
+     */
+    private static int getPageLimit(CursorLoader loader) {
+        String limit = loader.getUri().getQueryParameter(AlexandriaContract.BookEntry.PARAM_LIMIT);
+        return limit != null ? Integer.parseInt(limit) : 0;
+    }
+
+    /**
+     * Close the pages loaded by the adapter with the list
+     */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        bookListAdapter.close();
     }
 
     /**
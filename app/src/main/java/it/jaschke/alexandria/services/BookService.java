@@ -1,33 +1,58 @@
 package it.jaschke.alexandria.services;
 
 import android.app.IntentService;
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.jaschke.alexandria.IsbnCodec;
 import it.jaschke.alexandria.activities.MainActivity;
 import it.jaschke.alexandria.R;
+import it.jaschke.alexandria.Utility;
 import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.Book;
+import it.jaschke.alexandria.data.StorageProfile;
 
 
 /**
  * An {@link IntentService} subclass for handling asynchronous task requests in
  * a service on a separate handler thread.
  * <p/>
+ * When the pool size preference is larger than 1 the intents are not handled on the single
+ * handler thread, but on a bounded thread pool. Intents for different eans then run in parallel,
+ * while intents for the same ean keep their order (e.g. FETCH, then CONFIRM, then DELETE).
+ * <p/>
+ * A CANCEL_FETCH intent takes effect when it arrives, instead of waiting for its turn: a queued
+ * fetch of the ean is skipped (superseded) and a running one aborts its request (cancelled).
  */
 public class BookService extends IntentService {
 
@@ -38,11 +63,68 @@ public class BookService extends IntentService {
     public static final String FETCH_BOOK = "it.jaschke.alexandria.services.action.FETCH_BOOK";
     public static final String DELETE_BOOK = "it.jaschke.alexandria.services.action.DELETE_BOOK";
     public static final String CONFIRM_BOOK = "it.jaschke.alexandria.services.action.CONFIRM_BOOK";
-    public static final String DELETE_NOT_SAVED = "it.jaschke.alexandria.services.action.DELETE_NOT_SAVED";
+    public static final String DRAIN_QUEUE = "it.jaschke.alexandria.services.action.DRAIN_QUEUE";
+    public static final String CANCEL_FETCH = "it.jaschke.alexandria.services.action.CANCEL_FETCH";
 
     // ean book variable name
     public static final String EAN = "it.jaschke.alexandria.services.extra.EAN";
 
+    // broadcast with the fetched book, so the preview doesn't have to load it from the database
+    public static final String BOOK_EVENT = "it.jaschke.alexandria.services.event.BOOK";
+    // fetched book variable name, a Book
+    public static final String BOOK = "it.jaschke.alexandria.services.extra.BOOK";
+
+    // default number of threads handling the intents, 1 means serial handling by the intentservice
+    private static final String DEFAULT_POOL_SIZE = "4";
+    // default number of days an ean unknown to the books api is answered from the negative cache
+    private static final String DEFAULT_NOT_FOUND_TTL = "7";
+    // milliseconds a book in the preview cache is shown without asking the sources again
+    private static final long PREVIEW_TTL = DateUtils.DAY_IN_MILLIS;
+    // number of queued eans fetched in parallel when draining the offline queue
+    private static final int DRAIN_BATCH_SIZE = 4;
+    // default number of eans looked up in one volumes request, 1 disables batching
+    private static final String DEFAULT_BATCH_SIZE = "1";
+    // default milliseconds to wait for more eans before a partial batch is sent
+    private static final String DEFAULT_BATCH_WAIT = "250";
+
+    // striped thread pool, null when running in serial mode
+    private StripedExecutor mExecutor;
+    // number of intents submitted to the thread pool that are not finished yet
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    // most recent start id, used to stop the service once the thread pool is idle
+    private final AtomicInteger mLastStartId = new AtomicInteger();
+    // time to live of negative cache entries in milliseconds
+    private long mNotFoundTtl;
+    // metadata sources, asked in order
+    private final List<MetadataSource> mSources = new ArrayList<MetadataSource>();
+    // batches the google books lookups, null when not batching
+    private VolumeBatcher mBatcher;
+    // number of queued eans fetched in parallel when draining
+    private int mDrainBatchSize = DRAIN_BATCH_SIZE;
+
+    // fetches in flight per ean, duplicate fetch intents share a single lookup
+    private static final SingleFlight<FetchResult> sFetches = new SingleFlight<FetchResult>();
+    // cancellation signal of the queued or running fetch intents per ean
+    private final Map<String, CancellationSignal> mFetchSignals = new HashMap<String, CancellationSignal>();
+    // number of fetches aborted while running, and skipped before they started
+    private static final AtomicInteger sCancelledCount = new AtomicInteger();
+    private static final AtomicInteger sSupersededCount = new AtomicInteger();
+    // true while the offline queue is drained, further drain intents are skipped
+    private static final AtomicBoolean sDraining = new AtomicBoolean();
+
+    // maximum size of the on-disk volume response cache
+    private static final long RESPONSE_CACHE_SIZE = 2 * 1024 * 1024;
+    // volume responses with their validators, shared by all service instances
+    private static VolumeResponseCache sResponseCache;
+
+    // name of the offline catalog file in the external files directory of the app
+    private static final String CATALOG_FILE = "isbn_catalog.bin";
+
+    // make up to 3 attempts per lookup, with jittered waits of up to 0.5 and 1 second in between
+    private static final RetryPolicy sRetryPolicy = new RetryPolicy(3, 500, 8 * DateUtils.SECOND_IN_MILLIS, new Random());
+    // stop calling the books api for 30 seconds after 5 consecutive failures
+    private static final CircuitBreaker sBreaker = new CircuitBreaker(5, 30 * DateUtils.SECOND_IN_MILLIS);
+
     /**
      * Constructor
      */
@@ -51,60 +133,323 @@ public class BookService extends IntentService {
     }
 
     /**
-     * Handle the given intent by fetching or deleting a book, depending given action
+     * On create read the preferences and start the thread pool when needed
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        int poolSize = Integer.parseInt(prefs.getString(getString(R.string.pool_size_preference_key), DEFAULT_POOL_SIZE));
+        if (poolSize > 1) {
+            mExecutor = new StripedExecutor(poolSize, "Alexandria");
+        }
+        // apply the configured timeouts to the shared http client
+        int connectTimeout = Integer.parseInt(prefs.getString(getString(R.string.connect_timeout_preference_key),
+                String.valueOf(BooksHttpClient.DEFAULT_CONNECT_TIMEOUT / 1000)));
+        int readTimeout = Integer.parseInt(prefs.getString(getString(R.string.read_timeout_preference_key),
+                String.valueOf(BooksHttpClient.DEFAULT_READ_TIMEOUT / 1000)));
+        BooksHttpClient.getInstance().setTimeouts(connectTimeout * 1000, readTimeout * 1000);
+        // open the volume response cache
+        synchronized (BookService.class) {
+            if (sResponseCache == null) {
+                sResponseCache = new VolumeResponseCache(new File(getCacheDir(), "volumes"), RESPONSE_CACHE_SIZE);
+            }
+        }
+        // time to live of the negative cache
+        mNotFoundTtl = Integer.parseInt(prefs.getString(getString(R.string.not_found_ttl_preference_key),
+                DEFAULT_NOT_FOUND_TTL)) * DateUtils.DAY_IN_MILLIS;
+        // consult the offline catalog, when installed, before the google books api
+        File catalogDir = getExternalFilesDir(null);
+        if (catalogDir != null && new File(catalogDir, CATALOG_FILE).isFile()) {
+            try {
+                CatalogSource catalog = CatalogSource.open(new File(catalogDir, CATALOG_FILE));
+                mSources.add(catalog);
+                Log.d(LOG_TAG, "Using offline catalog with " + catalog.size() + " books");
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't open the offline catalog", e);
+            }
+        }
+        GoogleBooksSource googleBooks = new GoogleBooksSource(getString(R.string.googleapis_books_api),
+                sResponseCache, sRetryPolicy, sBreaker);
+        // batch the lookups of the offline queue drain, a scan is never held back for a batch
+        int batchSize = Integer.parseInt(prefs.getString(getString(R.string.batch_size_preference_key), DEFAULT_BATCH_SIZE));
+        if (batchSize > 1) {
+            long batchWait = Long.parseLong(prefs.getString(getString(R.string.batch_wait_preference_key), DEFAULT_BATCH_WAIT));
+            mBatcher = new VolumeBatcher(googleBooks, batchSize, batchWait);
+            googleBooks.setBatcher(mBatcher);
+            // drain the offline queue a batch at a time
+            mDrainBatchSize = Math.max(DRAIN_BATCH_SIZE, batchSize);
+        }
+        mSources.add(googleBooks);
+    }
+
+    /**
+     * Queue the intent on the thread pool, striped by ean, or hand it to the intentservice when
+     *  running in serial mode
+     * @param intent Intent
+     * @param flags int
+     * @param startId int
+     * @return int
+     */
+    @Override
+    public int onStartCommand(final Intent intent, int flags, int startId) {
+        String ean = intent != null ? normalizeEan(intent.getStringExtra(EAN)) : null;
+        // announce the fetch, so duplicates queued behind it can share its result
+        if (ean != null && FETCH_BOOK.equals(intent.getAction())) {
+            sFetches.register(ean);
+            synchronized (mFetchSignals) {
+                CancellationSignal signal = mFetchSignals.get(ean);
+                // a new fetch is not affected by the cancellation of an earlier one
+                if (signal == null || signal.isCanceled()) {
+                    mFetchSignals.put(ean, new CancellationSignal());
+                }
+            }
+        } else if (ean != null && CANCEL_FETCH.equals(intent.getAction())) {
+            // cancel right away, the intent itself is handled as a no-op behind the fetch
+            cancelFetch(ean);
+        }
+        if (mExecutor == null) {
+            return super.onStartCommand(intent, flags, startId);
+        }
+        mLastStartId.set(startId);
+        mPendingCount.incrementAndGet();
+        mExecutor.execute(ean, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handleIntent(intent);
+                } catch (RuntimeException e) {
+                    // e.g. a database error while saving or deleting, the next intents still run
+                    Log.e(LOG_TAG, "Error ", e);
+                } finally {
+                    // stop the service when this was the last intent, stopSelf(startId) is
+                    //  ignored when newer intents have arrived in the meantime
+                    if (mPendingCount.decrementAndGet() == 0) {
+                        stopSelf(mLastStartId.get());
+                    }
+                }
+            }
+        });
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Release the thread pool
+     */
+    @Override
+    public void onDestroy() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+        if (mBatcher != null) {
+            mBatcher.shutdown();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Handle the given intent on the handler thread of the intentservice (serial mode)
      * @param intent Intent
      */
     @Override
     protected void onHandleIntent(Intent intent) {
+        handleIntent(intent);
+    }
+
+    /**
+     * Handle the given intent by fetching or deleting a book, depending given action
+     * @param intent Intent
+     */
+    private void handleIntent(Intent intent) {
         if (intent != null) {
             String action = intent.getAction();
-            String ean = intent.getStringExtra(EAN);
-
-            if ((ean != null) && (ean.length() == 10) && !ean.startsWith(getString(R.string.ean_13_prefix))) {
-                ean = getString(R.string.ean_13_prefix) + ean;
-            }
-
-            if (FETCH_BOOK.equals(action)) {
-                // fetch book with given ean from the google books api and save it to the database
-                fetchBook(ean);
+            final String ean = normalizeEan(intent.getStringExtra(EAN));
+
+            if (FETCH_BOOK.equals(action) && ean == null) {
+                // reject an invalid isbn before any database or network work
+                Intent messageIntent = new Intent(MainActivity.MESSAGE_EVENT);
+                messageIntent.putExtra(MainActivity.MESSAGE_KEY, getResources().getString(R.string.invalid_isbn));
+                LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(messageIntent);
+            } else if (FETCH_BOOK.equals(action)) {
+                final CancellationSignal signal;
+                synchronized (mFetchSignals) {
+                    signal = mFetchSignals.get(ean);
+                }
+                if (signal != null && signal.isCanceled()) {
+                    // the ean was cancelled before the fetch started
+                    sFetches.unregister(ean);
+                    finishFetch(ean, signal);
+                    Log.d(LOG_TAG, "Skipped " + ean + ", superseded fetches: " + sSupersededCount.incrementAndGet());
+                    return;
+                }
+                // fetch book with given ean from the google books api and save it to the database,
+                //  or share the result of a fetch for the same ean that is already in flight
+                FetchResult result = null;
+                try {
+                    result = sFetches.execute(ean, new Callable<FetchResult>() {
+                        @Override
+                        public FetchResult call() {
+                            return fetchBook(ean, signal);
+                        }
+                    });
+                } catch (OperationCanceledException e) {
+                    // nobody waits for the result of a cancelled fetch
+                    Log.d(LOG_TAG, "Aborted " + ean + ", cancelled fetches: " + sCancelledCount.incrementAndGet());
+                    return;
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "Error ", e);
+                } finally {
+                    finishFetch(ean, signal);
+                }
+                Log.d(LOG_TAG, "Fetched " + ean + ", coalesced fetches: " + sFetches.getCoalescedCount());
+                // hand the book to the preview, a book that was stored before is read once here
+                if (result != null && result.found) {
+                    Book book = result.book != null ? result.book : readBook(Long.parseLong(ean));
+                    if (book != null) {
+                        Intent bookIntent = new Intent(BOOK_EVENT);
+                        bookIntent.putExtra(EAN, ean);
+                        bookIntent.putExtra(BOOK, book);
+                        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(bookIntent);
+                    }
+                }
+                // every requester gets the result broadcasted
+                Intent messageIntent = new Intent(MainActivity.MESSAGE_EVENT);
+                if (result != null && result.message != null) {
+                    messageIntent.putExtra(MainActivity.MESSAGE_KEY, result.message);
+                }
+                LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(messageIntent);
             }  else if (CONFIRM_BOOK.equals(action)) {
-                // mark the book that already exists in the database as saved
+                // move the book from the preview cache to the library
                 int saved = saveBook(ean);
+                // the book is saved now, later fetches must not share an older result
+                sFetches.forget(ean);
                 if (saved != 0) {
                     Intent messageIntent = new Intent(MainActivity.MESSAGE_EVENT);
                     messageIntent.putExtra(MainActivity.MESSAGE_KEY, getResources().getString(R.string.book_saved));
                     LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(messageIntent);
                 }
             } else if (DELETE_BOOK.equals(action)) {
+                sFetches.forget(ean);
                 int deleted = deleteBook(ean);
                 if (deleted != 0) {
                     Intent messageIntent = new Intent(MainActivity.MESSAGE_EVENT);
                     messageIntent.putExtra(MainActivity.MESSAGE_KEY, getResources().getString(R.string.book_deleted));
                     LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(messageIntent);
                 }
-            } else if (DELETE_NOT_SAVED.equals(action)) {
-                // cleanup books table by removing books that were previously cached, but not added to the booklist
-                deleteNotSavedBooks();
+            } else if (DRAIN_QUEUE.equals(action)) {
+                // fetch and save the books scanned while offline, once at a time
+                if (!sDraining.compareAndSet(false, true)) {
+                    Log.d(LOG_TAG, "Drain already running");
+                    return;
+                }
+                try {
+                    drainQueue();
+                } finally {
+                    sDraining.set(false);
+                }
             }
         }
     }
 
     /**
-     * Mark a temporarily inserted book as saved
-     * @param ean String
+     * Validate an isbn-10 or isbn-13 and turn it into an ean
+     * @param isbn String
+     * @return String ean, or null when the isbn is not valid
+     */
+    private static String normalizeEan(String isbn) {
+        long ean = IsbnCodec.parse(isbn);
+        return ean == IsbnCodec.INVALID ? null : String.valueOf(ean);
+    }
+
+    /**
+     * Get the number of fetch intents that were answered by a fetch for the same ean
      * @return int
      */
-    private int saveBook(String ean) {
-        if (ean != null) {
-            ContentValues values = new ContentValues();
-            values.put(AlexandriaContract.BookEntry.SAVED, 1);
-            return getContentResolver().update(
-                    AlexandriaContract.BookEntry.CONTENT_URI,
-                    values,
-                    AlexandriaContract.BookEntry._ID +" = ?",
-                    new String[] { ean }
-            );
-        } else {
+    public static int getCoalescedFetchCount() {
+        return sFetches.getCoalescedCount();
+    }
+
+    /**
+     * Get the number of fetches that were aborted while running
+     * @return int
+     */
+    public static int getCancelledFetchCount() {
+        return sCancelledCount.get();
+    }
+
+    /**
+     * Get the number of fetch intents that were skipped, because the ean was cancelled before
+     *  their turn
+     * @return int
+     */
+    public static int getSupersededFetchCount() {
+        return sSupersededCount.get();
+    }
+
+    /**
+     * Cancel the queued and running fetches of the ean
+     * @param ean String
+     */
+    private void cancelFetch(String ean) {
+        CancellationSignal signal;
+        synchronized (mFetchSignals) {
+            signal = mFetchSignals.get(ean);
+        }
+        if (signal != null) {
+            // disconnects a running request, the signal stays registered so queued fetches are skipped
+            signal.cancel();
+        }
+    }
+
+    /**
+     * Forget the signal of a fetch that is done, unless a newer fetch of the ean replaced it
+     * @param ean String
+     * @param signal CancellationSignal
+     */
+    private void finishFetch(String ean, CancellationSignal signal) {
+        synchronized (mFetchSignals) {
+            if (signal != null && mFetchSignals.get(ean) == signal) {
+                mFetchSignals.remove(ean);
+            }
+        }
+    }
+
+    /**
+     * Save a book from the preview cache to the library. A book that was evicted from the cache
+     *  since the preview is fetched again, sharing a fetch of the ean that is still in flight.
+     * @param ean String
+     * @return int 1 when the book was saved, 0 when it was saved before or could not be fetched
+     */
+    private int saveBook(final String ean) {
+        if (ean == null) {
+            return 0;
+        }
+        Book book = readPreview(Long.parseLong(ean));
+        if (book == null) {
+            FetchResult result;
+            try {
+                result = sFetches.execute(ean, new Callable<FetchResult>() {
+                    @Override
+                    public FetchResult call() {
+                        return fetchBook(ean, null);
+                    }
+                });
+            } catch (Exception e) {
+                // includes a shared fetch that was cancelled
+                Log.e(LOG_TAG, "Error ", e);
+                return 0;
+            }
+            // null when the book is in the library already
+            book = result.found ? result.book : null;
+        }
+        if (book == null) {
+            return 0;
+        }
+        try {
+            writeBack(book);
+            return 1;
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Error ", e);
             return 0;
         }
     }
@@ -126,221 +471,483 @@ public class BookService extends IntentService {
     }
 
     /**
-     * Remove the previously fetched, but not saved, books from the books table
-     * @return int
+     * Fetch and save the queued eans in batches of parallel lookups. Draining stops when the
+     *  network is lost or a whole batch failed, the remaining eans stay queued for the next
+     *  connectivity change.
      */
-    private int deleteNotSavedBooks() {
-        return getContentResolver().delete(
-                AlexandriaContract.BookEntry.CONTENT_URI,
-                AlexandriaContract.BookEntry.SAVED +" = ?",
-                new String[] {"0"}
+    private void drainQueue() {
+        List<String> eans = readQueue();
+        ExecutorService batchExecutor = Executors.newFixedThreadPool(mDrainBatchSize);
+        int added = 0;
+        if (!eans.isEmpty()) {
+            setStorageProfile(StorageProfile.BULK_IMPORT);
+        }
+        try {
+            for (int start = 0; start < eans.size() && Utility.isNetworkAvailable(this); start += mDrainBatchSize) {
+                List<Future<FetchResult>> batch = new ArrayList<Future<FetchResult>>();
+                List<String> round = eans.subList(start, Math.min(start + mDrainBatchSize, eans.size()));
+                if (mBatcher != null) {
+                    // the lookups of this round may share volumes requests
+                    mBatcher.begin(round.size());
+                }
+                for (final String ean : round) {
+                    batch.add(batchExecutor.submit(new Callable<FetchResult>() {
+                        @Override
+                        public FetchResult call() throws Exception {
+                            if (mBatcher != null) {
+                                mBatcher.enter();
+                            }
+                            try {
+                                return drainBook(ean);
+                            } finally {
+                                if (mBatcher != null) {
+                                    mBatcher.end();
+                                }
+                            }
+                        }
+                    }));
+                }
+                int failed = 0;
+                for (Future<FetchResult> future : batch) {
+                    try {
+                        FetchResult result = future.get();
+                        if (result.found && result.message == null) {
+                            added++;
+                        } else if (result.failed) {
+                            failed++;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException e) {
+                        Log.e(LOG_TAG, "Error ", e);
+                        failed++;
+                    }
+                }
+                if (failed == batch.size()) {
+                    break;
+                }
+            }
+        } finally {
+            batchExecutor.shutdown();
+            if (!eans.isEmpty()) {
+                setStorageProfile(StorageProfile.INTERACTIVE);
+            }
+        }
+        Log.d(LOG_TAG, "Drained " + added + " of " + eans.size() + " queued eans");
+        // stop listening to connectivity changes once the queue is empty
+        if (readQueue().isEmpty()) {
+            ConnectivityReceiver.setEnabled(this, false);
+        }
+        if (added > 0) {
+            Intent messageIntent = new Intent(MainActivity.MESSAGE_EVENT);
+            messageIntent.putExtra(MainActivity.MESSAGE_KEY, getResources().getString(R.string.pending_added, added));
+            LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(messageIntent);
+        }
+    }
+
+    /**
+     * Switch the storage profile of the provider's database
+     * @param profile StorageProfile
+     */
+    private void setStorageProfile(StorageProfile profile) {
+        getContentResolver().call(AlexandriaContract.BASE_CONTENT_URI,
+                AlexandriaContract.METHOD_STORAGE_PROFILE, profile.getName(), null);
+    }
+
+    /**
+     * Fetch and save a queued ean, and remove it from the queue unless the lookup failed
+     * @param ean String
+     * @return FetchResult
+     * @throws Exception
+     */
+    private FetchResult drainBook(final String ean) throws Exception {
+        FetchResult result = sFetches.execute(ean, new Callable<FetchResult>() {
+            @Override
+            public FetchResult call() {
+                return fetchBook(ean, null);
+            }
+        });
+        // a book that was saved before comes back without one, there is nothing to write
+        if (result.found && result.book != null) {
+            // a failed write throws and leaves the ean queued
+            writeBack(result.book);
+        }
+        // found or definitely not found, a failed lookup is retried on the next drain
+        if (!result.failed) {
+            getContentResolver().delete(
+                    AlexandriaContract.PendingEntry.buildPendingUri(Long.parseLong(ean)),
+                    null,
+                    null);
+        }
+        return result;
+    }
+
+    /**
+     * Read the queued eans, oldest first
+     * @return List
+     */
+    private List<String> readQueue() {
+        List<String> eans = new ArrayList<String>();
+        Cursor pending = getContentResolver().query(
+                AlexandriaContract.PendingEntry.CONTENT_URI,
+                new String[] { AlexandriaContract.PendingEntry._ID },
+                null,
+                null,
+                AlexandriaContract.PendingEntry.QUEUED
         );
+        if (pending != null) {
+            while (pending.moveToNext()) {
+                eans.add(pending.getString(0));
+            }
+            pending.close();
+        }
+        return eans;
     }
 
     /**
-     * Fetch book with given ean from the google books api and save it to the database
+     * Fetch book with given ean from the google books api and put it in the preview cache. A book
+     *  in the library or fresh in the preview cache is not fetched, a stale one is revalidated.
      * @param ean String
-     * @return boolean
+     * @param signal CancellationSignal aborts the lookup, may be null
+     * @return FetchResult
+     * @throws OperationCanceledException when the fetch was cancelled before it was saved
      */
-    private boolean fetchBook(String ean) {
+    private FetchResult fetchBook(String ean, CancellationSignal signal) {
 
         boolean found = false;
         boolean cached = false;
-        // only continue if ean number has 13 digits
-        if (ean.length() != 13) {
-            return found;
-        }
-        // create an intent for broadcasting the result back to the mainactivity
-        Intent messageIntent = new Intent(MainActivity.MESSAGE_EVENT);
-        Cursor bookEntry = getContentResolver().query(
-                AlexandriaContract.BookEntry.buildBookUri(Long.parseLong(ean)),
-                null, // leaving "columns" null just returns all the columns.
-                null, // cols for "where" clause
-                null, // values for "where" clause
-                null  // sort order
-        );
-        // exit if book already exists in the database
-        if (bookEntry != null) {
-            if (bookEntry.getCount() > 0) {
-                if (bookEntry.moveToFirst()) {
-                    int saved = bookEntry.getInt(bookEntry.getColumnIndex(AlexandriaContract.BookEntry.SAVED));
-                    if (saved == 1) {
-                        found = true;
-                        messageIntent.putExtra(MainActivity.MESSAGE_KEY, getResources().getString(R.string.book_saved_before));
-                    } else {
-                        cached = true;
-                    }
+        boolean failed = false;
+        String message = null;
+        // book returned by a source or read from the preview cache
+        Book fetched = null;
+        // the ean was validated by normalizeEan, parse it once for the provider uris
+        long eanId = Long.parseLong(ean);
+        // exit if book already exists in the library
+        long saved = readLong(AlexandriaContract.METHOD_BOOK_SAVED, eanId);
+        if (saved == 1) {
+            found = true;
+            message = getResources().getString(R.string.book_saved_before);
+        } else {
+            long previewFetched = readLong(AlexandriaContract.METHOD_PREVIEW_FETCHED, eanId);
+            if (previewFetched > System.currentTimeMillis() - PREVIEW_TTL) {
+                // scanned again while the preview is fresh, no need to ask the sources
+                fetched = readPreview(eanId);
+                found = fetched != null;
+                if (found) {
+                    touchPreview(eanId, false);
                 }
             }
-            bookEntry.close();
+            // a stale preview is revalidated by the sources
+            cached = !found && previewFetched != -1;
         }
 
-        if (!found) {
-            HttpURLConnection urlConnection = null;
-            BufferedReader reader = null;
-            String bookJsonString = null;
+        // answer eans the books api does not know from the negative cache, until the entry expires
+        if (!found && !cached && isCachedNotFound(eanId)) {
+            message = getResources().getString(R.string.book_not_found);
+            return new FetchResult(found, message, failed, null);
+        }
 
+        if (!found) {
             try {
-                final String BOOKS_BASE_URL = getString(R.string.googleapis_books_api);
-                final String QUERY_PARAM = "q";
-
-                final String ISBN_PARAM = "isbn:" + ean;
-
-                Uri builtUri = Uri.parse(BOOKS_BASE_URL).buildUpon()
-                        .appendQueryParameter(QUERY_PARAM, ISBN_PARAM)
-                        .build();
-
-                URL url = new URL(builtUri.toString());
-
-                urlConnection = (HttpURLConnection) url.openConnection();
-                urlConnection.setRequestMethod("GET");
-                urlConnection.connect();
-
-                InputStream inputStream = urlConnection.getInputStream();
-                StringBuffer buffer = new StringBuffer();
-
-                if (inputStream != null) {
-                    reader = new BufferedReader(new InputStreamReader(inputStream));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        buffer.append(line);
-                        buffer.append("\n");
+                // ask the sources in order, the first one that knows the ean wins
+                Book book = null;
+                for (MetadataSource source : mSources) {
+                    book = source.lookup(ean, cached, signal);
+                    if (book != null) {
+                        break;
                     }
+                }
 
-                    if (buffer.length() != 0) {
-                        bookJsonString = buffer.toString();
-                    }
+                if (book == MetadataSource.UNCHANGED) {
+                    // the cached book is up to date, keep it for another time to live
+                    touchPreview(eanId, true);
+                    fetched = readPreview(eanId);
+                    found = fetched != null;
+                } else if (book == null) {
+                    // if no source knows the ean, send message with intent to main activity to show a toast
+                    message = getResources().getString(R.string.book_not_found);
+                    // remember the miss, so the next scan of this ean does not go to the network
+                    cacheNotFound(eanId);
+                } else {
+                    // keep the book in the preview cache until it is saved
+                    cachePreview(book);
+                    found = true;
+                    fetched = book;
                 }
+            } catch (OperationCanceledException e) {
+                throw e;
+            } catch (UnavailableException e) {
+                // tell the user to try again later, instead of reporting the book as not found
+                Log.w(LOG_TAG, "Books api unavailable: " + e.getMessage());
+                message = getResources().getString(R.string.books_api_unavailable);
+                failed = true;
             } catch (Exception e) {
                 Log.e(LOG_TAG, "Error ", e);
-            } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-                }
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (final IOException e) {
-                        Log.e(LOG_TAG, "Error closing stream", e);
-                    }
-                }
+                failed = true;
+            }
+        }
+        return new FetchResult(found, message, failed, fetched);
+    }
 
+    /**
+     * Read a stored book with its authors and categories
+     * @param ean long
+     * @return Book or null when the book is not stored
+     */
+    private Book readBook(long ean) {
+        Cursor bookEntry = getContentResolver().query(
+                AlexandriaContract.BookEntry.buildFullBookUri(ean),
+                null,
+                null,
+                null,
+                null
+        );
+        if (bookEntry == null) {
+            return null;
+        }
+        try {
+            if (!bookEntry.moveToFirst()) {
+                return null;
             }
+            return new Book(String.valueOf(ean),
+                    bookEntry.getString(bookEntry.getColumnIndex(AlexandriaContract.BookEntry.TITLE)),
+                    bookEntry.getString(bookEntry.getColumnIndex(AlexandriaContract.BookEntry.SUBTITLE)),
+                    bookEntry.getString(bookEntry.getColumnIndex(AlexandriaContract.BookEntry.DESC)),
+                    bookEntry.getString(bookEntry.getColumnIndex(AlexandriaContract.BookEntry.IMAGE_URL)),
+                    AlexandriaContract.BookEntry.splitDisplay(bookEntry.getString(
+                            bookEntry.getColumnIndex(AlexandriaContract.BookEntry.AUTHORS_DISPLAY))),
+                    AlexandriaContract.BookEntry.splitDisplay(bookEntry.getString(
+                            bookEntry.getColumnIndex(AlexandriaContract.BookEntry.CATEGORIES_DISPLAY))));
+        } finally {
+            bookEntry.close();
+        }
+    }
 
-            final String ITEMS = "items";
-            final String VOLUME_INFO = "volumeInfo";
-            final String TITLE = "title";
-            final String SUBTITLE = "subtitle";
-            final String AUTHORS = "authors";
-            final String DESC = "description";
-            final String CATEGORIES = "categories";
-            final String IMG_URL_PATH = "imageLinks";
-            final String IMG_URL = "thumbnail";
+    /**
+     * Read a book from the preview cache
+     * @param ean long
+     * @return Book or null when the book is not in the preview cache
+     */
+    private Book readPreview(long ean) {
+        Cursor preview = getContentResolver().query(
+                AlexandriaContract.PreviewEntry.buildPreviewUri(ean),
+                null,
+                null,
+                null,
+                null
+        );
+        if (preview == null) {
+            return null;
+        }
+        try {
+            if (!preview.moveToFirst()) {
+                return null;
+            }
+            return new Book(String.valueOf(ean),
+                    preview.getString(preview.getColumnIndex(AlexandriaContract.PreviewEntry.TITLE)),
+                    preview.getString(preview.getColumnIndex(AlexandriaContract.PreviewEntry.SUBTITLE)),
+                    preview.getString(preview.getColumnIndex(AlexandriaContract.PreviewEntry.DESC)),
+                    preview.getString(preview.getColumnIndex(AlexandriaContract.PreviewEntry.IMAGE_URL)),
+                    AlexandriaContract.BookEntry.splitDisplay(preview.getString(
+                            preview.getColumnIndex(AlexandriaContract.PreviewEntry.AUTHORS_DISPLAY))),
+                    AlexandriaContract.BookEntry.splitDisplay(preview.getString(
+                            preview.getColumnIndex(AlexandriaContract.PreviewEntry.CATEGORIES_DISPLAY))));
+        } finally {
+            preview.close();
+        }
+    }
 
-            try {
-                JSONObject bookJson = new JSONObject(bookJsonString);
-                JSONArray bookArray;
-                if (!bookJson.has(ITEMS)) {
-                    // if json has no items, send message with intent to main activity to show a toast
-                    messageIntent.putExtra(MainActivity.MESSAGE_KEY, getResources().getString(R.string.book_not_found));
-                } else {
-                    // get the books from the json
-                    bookArray = bookJson.getJSONArray(ITEMS);
-                    JSONObject bookInfo = ((JSONObject) bookArray.get(0)).getJSONObject(VOLUME_INFO);
-                    // get title
-                    String title = bookInfo.getString(TITLE);
-                    // get subtitle
-                    String subtitle = "";
-                    if (bookInfo.has(SUBTITLE)) {
-                        subtitle = bookInfo.getString(SUBTITLE);
-                    }
-                    // get description
-                    String desc = "";
-                    if (bookInfo.has(DESC)) {
-                        desc = bookInfo.getString(DESC);
-                    }
-                    // get image url
-                    String imgUrl = "";
-                    if (bookInfo.has(IMG_URL_PATH) && bookInfo.getJSONObject(IMG_URL_PATH).has(IMG_URL)) {
-                        imgUrl = bookInfo.getJSONObject(IMG_URL_PATH).getString(IMG_URL);
-                    }
-                    // insert a book in the database
-                    if (!cached) {
-                        writeBackBook(ean, title, subtitle, desc, imgUrl);
-                    }
-                    // insert the books authors in the database
-                    if (bookInfo.has(AUTHORS)) {
-                        writeBackAuthors(ean, bookInfo.getJSONArray(AUTHORS));
-                    }
-                    // insert the books categories in the database
-                    if (bookInfo.has(CATEGORIES)) {
-                        writeBackCategories(ean, bookInfo.getJSONArray(CATEGORIES));
-                    }
-                    found = true;
-                }
+    /**
+     * Put a fetched book in the preview cache, replacing an older entry of the ean
+     * @param book Book
+     */
+    private void cachePreview(Book book) {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.PreviewEntry._ID, book.getEan());
+        values.put(AlexandriaContract.PreviewEntry.TITLE, book.getTitle());
+        values.put(AlexandriaContract.PreviewEntry.SUBTITLE, book.getSubtitle());
+        values.put(AlexandriaContract.PreviewEntry.DESC, book.getDescription());
+        values.put(AlexandriaContract.PreviewEntry.IMAGE_URL, book.getImageUrl());
+        values.put(AlexandriaContract.PreviewEntry.AUTHORS_DISPLAY, TextUtils.join(
+                AlexandriaContract.BookEntry.DISPLAY_SEPARATOR, normalizeNames(book.getAuthors())));
+        values.put(AlexandriaContract.PreviewEntry.CATEGORIES_DISPLAY, TextUtils.join(
+                AlexandriaContract.BookEntry.DISPLAY_SEPARATOR, normalizeNames(book.getCategories())));
+        values.put(AlexandriaContract.PreviewEntry.FETCHED, now);
+        values.put(AlexandriaContract.PreviewEntry.USED, now);
+        getContentResolver().insert(AlexandriaContract.PreviewEntry.CONTENT_URI, values);
+    }
 
-            } catch (JSONException e) {
-                Log.e(LOG_TAG, "Error ", e);
-            }
+    /**
+     * Mark a book of the preview cache as used now
+     * @param ean long
+     * @param revalidated boolean true when the sources confirmed the book, it is fresh again
+     */
+    private void touchPreview(long ean, boolean revalidated) {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.PreviewEntry.USED, now);
+        if (revalidated) {
+            values.put(AlexandriaContract.PreviewEntry.FETCHED, now);
         }
-        LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(messageIntent);
-        return found;
+        getContentResolver().update(AlexandriaContract.PreviewEntry.buildPreviewUri(ean), values, null, null);
     }
 
     /**
-     * Insert a book in the database
+     * Check if the ean is in the negative cache and the entry has not expired yet
+     * @param ean long
+     * @return boolean
+     */
+    private boolean isCachedNotFound(long ean) {
+        long checked = readLong(AlexandriaContract.METHOD_NOT_FOUND_CHECKED, ean);
+        return checked != -1 && checked > System.currentTimeMillis() - mNotFoundTtl;
+    }
+
+    /**
+     * Look up a single value by ean through the compiled statements of the provider
+     * @param method String one of the METHOD_ constants of the contract
+     * @param ean long
+     * @return long the value, or -1 when there is no row
+     */
+    private long readLong(String method, long ean) {
+        Bundle result = getContentResolver().call(AlexandriaContract.BASE_CONTENT_URI, method,
+                Long.toString(ean), null);
+        return result != null ? result.getLong(AlexandriaContract.EXTRA_RESULT, -1) : -1;
+    }
+
+    /**
+     * Remember that the books api does not know the ean
+     * @param ean long
+     */
+    private void cacheNotFound(long ean) {
+        ContentValues values = new ContentValues();
+        values.put(AlexandriaContract.NotFoundEntry._ID, ean);
+        values.put(AlexandriaContract.NotFoundEntry.CHECKED, System.currentTimeMillis());
+        getContentResolver().insert(AlexandriaContract.NotFoundEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Insert a saved book with its authors and categories in the library and remove it from the
+     *  preview cache, as a single transaction
+     * @param book Book
+     * @throws RemoteException
+     * @throws OperationApplicationException
+     */
+    private void writeBack(Book book) throws RemoteException, OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        // insert a book in the database
+        writeBackBook(operations, book.getEan(), book.getTitle(), book.getSubtitle(), book.getDescription(), book.getImageUrl());
+        // insert the books authors in the database
+        writeBackAuthors(operations, book.getEan(), book.getAuthors());
+        // insert the books categories in the database
+        writeBackCategories(operations, book.getEan(), book.getCategories());
+        operations.add(ContentProviderOperation.newDelete(
+                AlexandriaContract.PreviewEntry.buildPreviewUri(Long.parseLong(book.getEan())))
+                .build());
+        getContentResolver().applyBatch(AlexandriaContract.CONTENT_AUTHORITY, operations);
+    }
+
+    /**
+     * Add the insert of a book to the list of operations
+     * @param operations ArrayList
      * @param ean String
      * @param title String
      * @param subtitle String
      * @param desc String
      * @param imgUrl String
-     * @return Uri
      */
-    private void writeBackBook(String ean, String title, String subtitle, String desc, String imgUrl) {
+    private void writeBackBook(ArrayList<ContentProviderOperation> operations, String ean, String title,
+                               String subtitle, String desc, String imgUrl) {
         ContentValues values= new ContentValues();
         values.put(AlexandriaContract.BookEntry._ID, ean);
-        values.put(AlexandriaContract.BookEntry.SAVED, 0);
+        values.put(AlexandriaContract.BookEntry.SAVED, 1);
         values.put(AlexandriaContract.BookEntry.TITLE, title);
         values.put(AlexandriaContract.BookEntry.IMAGE_URL, imgUrl);
         values.put(AlexandriaContract.BookEntry.SUBTITLE, subtitle);
         values.put(AlexandriaContract.BookEntry.DESC, desc);
-        getContentResolver().insert(AlexandriaContract.BookEntry.CONTENT_URI,values);
+        operations.add(ContentProviderOperation.newInsert(AlexandriaContract.BookEntry.CONTENT_URI)
+                .withValues(values)
+                .build());
     }
 
     /**
-     * Insert list of author names in the database for given book ean
+     * Add the inserts of the author names for given book ean to the list of operations
+     * @param operations ArrayList
      * @param ean String
-     * @param authors JSONArray
-     * @throws JSONException
+     * @param authors List
      */
-    private void writeBackAuthors(String ean, JSONArray authors) throws JSONException {
-        // loop through array containing the authors
-        for (int i = 0; i < authors.length(); i++) {
+    private void writeBackAuthors(ArrayList<ContentProviderOperation> operations, String ean, List<String> authors) {
+        authors = normalizeNames(authors);
+        // loop through list containing the authors
+        for (int i = 0; i < authors.size(); i++) {
             // create contentvalues object and add fields for database insert
             ContentValues values= new ContentValues();
             values.put(AlexandriaContract.AuthorEntry._ID, ean);
-            values.put(AlexandriaContract.AuthorEntry.AUTHOR, authors.getString(i));
+            values.put(AlexandriaContract.AuthorEntry.AUTHOR, authors.get(i));
             // insert author in the database
-            getContentResolver().insert(AlexandriaContract.AuthorEntry.CONTENT_URI, values);
-
+            operations.add(ContentProviderOperation.newInsert(AlexandriaContract.AuthorEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
         }
     }
 
     /**
-     * Insert list of categories in the database for given book ean
+     * Add the inserts of the categories for given book ean to the list of operations
+     * @param operations ArrayList
      * @param ean String
-     * @param categories JSONArray
-     * @throws JSONException
+     * @param categories List
      */
-    private void writeBackCategories(String ean, JSONArray categories) throws JSONException {
-        // loop through array containing the categories
-        for (int i = 0; i < categories.length(); i++) {
+    private void writeBackCategories(ArrayList<ContentProviderOperation> operations, String ean, List<String> categories) {
+        categories = normalizeNames(categories);
+        // loop through list containing the categories
+        for (int i = 0; i < categories.size(); i++) {
             // create contentvalues object and add fields for database insert
             ContentValues values= new ContentValues();
             values.put(AlexandriaContract.CategoryEntry._ID, ean);
-            values.put(AlexandriaContract.CategoryEntry.CATEGORY, categories.getString(i));
+            values.put(AlexandriaContract.CategoryEntry.CATEGORY, categories.get(i));
             // insert category in the database
-            getContentResolver().insert(AlexandriaContract.CategoryEntry.CONTENT_URI, values);
+            operations.add(ContentProviderOperation.newInsert(AlexandriaContract.CategoryEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+    }
+
+    /**
+     * Prepare names for the dictionary of the database, where each name is stored once and shared
+     *  by the books: trimmed, without empty names and without repeats, in the original order
+     * @param names List
+     * @return List
+     */
+    private static List<String> normalizeNames(List<String> names) {
+        Set<String> normalized = new LinkedHashSet<String>();
+        for (String name : names) {
+            if (name != null && name.trim().length() > 0) {
+                normalized.add(name.trim());
+            }
+        }
+        return new ArrayList<String>(normalized);
+    }
+
+    /**
+     * Outcome of a fetch, shared by all requests for the same ean
+     */
+    private static class FetchResult {
+        // true when the ean is known: the book is in the library, then book is null, or it was
+        //  fetched or read from the preview cache, then book holds it
+        final boolean found;
+        // message to show to the user, or null
+        final String message;
+        // true when the lookup failed and can be tried again later
+        final boolean failed;
+        // book returned by a source or the preview cache, or null when the book was saved before
+        final Book book;
+
+        FetchResult(boolean found, String message, boolean failed, Book book) {
+            this.found = found;
+            this.message = message;
+            this.failed = failed;
+            this.book = book;
         }
     }
- }
\ No newline at end of file
+}
@@ -0,0 +1,383 @@
+package it.jaschke.alexandria.services;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared http client for the google books api calls made by the BookService.
+ * <p/>
+ * Connections are kept alive and pooled by the platform HttpURLConnection, as long as a response
+ * body is read to the end and closed instead of disconnecting the connection. Responses are
+ * requested gzip compressed and every request has explicit connect and read timeouts. Failed
+ * requests can be retried with a {@link RetryPolicy}, guarded by a {@link CircuitBreaker}. A request
+ * with a {@link CancellationSignal} is aborted by disconnecting it when the signal is cancelled.
+ */
+public class BooksHttpClient {
+
+    // use classname when logging
+    private static final String LOG_TAG = BooksHttpClient.class.getSimpleName();
+
+    // default timeouts in milliseconds
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 15000;
+
+    // maximum number of idle connections kept in the pool per host
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    private static BooksHttpClient sInstance;
+
+    private volatile int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int mReadTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Get the client shared by all service instances, so the connection pool survives intents
+     * @return BooksHttpClient
+     */
+    public static synchronized BooksHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new BooksHttpClient();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor, enables keep-alive for the platform connection pool
+     */
+    BooksHttpClient() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    /**
+     * Set the timeouts used for new requests
+     * @param connectTimeout int milliseconds
+     * @param readTimeout int milliseconds
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * Execute a get request. The returned response must be closed, which returns the connection to
+     *  the pool.
+     * @param url URL
+     * @return Response
+     * @throws IOException when the request fails or times out
+     */
+    public Response get(URL url) throws IOException {
+        return get(url, null);
+    }
+
+    /**
+     * Execute a get request with extra request headers
+     * @param url URL
+     * @param headers Map extra request headers, may be null
+     * @return Response
+     * @throws IOException when the request fails or times out
+     */
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        return get(url, headers, (CancellationSignal) null);
+    }
+
+    /**
+     * Execute a get request that can be cancelled. Cancelling disconnects the connection, which
+     *  aborts a blocking connect or read, until the response is closed.
+     * @param url URL
+     * @param headers Map extra request headers, may be null
+     * @param signal CancellationSignal may be null
+     * @return Response
+     * @throws IOException when the request fails or times out
+     * @throws OperationCanceledException when the request was cancelled
+     */
+    public Response get(URL url, Map<String, String> headers, CancellationSignal signal) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    connection.disconnect();
+                }
+            });
+        }
+        try {
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            connection.connect();
+            long connected = SystemClock.elapsedRealtime();
+
+            int code = connection.getResponseCode();
+            long firstByte = SystemClock.elapsedRealtime();
+
+            return new Response(connection, code, start, connected, firstByte, signal);
+        } catch (IOException e) {
+            connection.disconnect();
+            if (signal != null) {
+                signal.setOnCancelListener(null);
+                // the disconnect of a cancelled request shows up as an io error
+                signal.throwIfCanceled();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Execute a get request, retrying network errors and retryable responses with backoff. Every
+     *  attempt has to pass the circuit breaker and reports its outcome to it.
+     * @param url URL
+     * @param headers Map extra request headers, may be null
+     * @param policy RetryPolicy
+     * @param breaker CircuitBreaker
+     * @return Response with a code that is not retryable
+     * @throws UnavailableException when the circuit is open or all attempts failed
+     * @throws IOException when interrupted while waiting for the next attempt
+     */
+    public Response get(URL url, Map<String, String> headers, RetryPolicy policy, CircuitBreaker breaker)
+            throws IOException {
+        return get(url, headers, policy, breaker, null);
+    }
+
+    /**
+     * Execute a get request with retries that can be cancelled, also while waiting for the next
+     *  attempt. A cancelled attempt is not reported to the circuit breaker as a failure.
+     * @param url URL
+     * @param headers Map extra request headers, may be null
+     * @param policy RetryPolicy
+     * @param breaker CircuitBreaker
+     * @param signal CancellationSignal may be null
+     * @return Response with a code that is not retryable
+     * @throws UnavailableException when the circuit is open or all attempts failed
+     * @throws IOException when interrupted while waiting for the next attempt
+     * @throws OperationCanceledException when the request was cancelled
+     */
+    public Response get(URL url, Map<String, String> headers, RetryPolicy policy, CircuitBreaker breaker,
+                        CancellationSignal signal) throws IOException {
+        IOException lastFailure = null;
+        for (int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++) {
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            if (!breaker.allowRequest()) {
+                throw new UnavailableException("Circuit open for " + url.getHost(), lastFailure);
+            }
+            String retryAfter = null;
+            try {
+                Response response;
+                try {
+                    response = get(url, headers, signal);
+                } catch (OperationCanceledException e) {
+                    // the endpoint may still be healthy
+                    breaker.onCancelled();
+                    throw e;
+                }
+                if (!policy.isRetryable(response.getCode())) {
+                    // the endpoint answered, even a client error means it is healthy
+                    breaker.onSuccess();
+                    return response;
+                }
+                breaker.onFailure();
+                retryAfter = response.getHeader("Retry-After");
+                lastFailure = new IOException("Response code " + response.getCode());
+                response.close();
+            } catch (IOException e) {
+                breaker.onFailure();
+                lastFailure = e;
+            }
+            if (attempt < policy.getMaxAttempts()) {
+                long delay = policy.getDelay(attempt, retryAfter);
+                Log.d(LOG_TAG, "Attempt " + attempt + " failed (" + lastFailure.getMessage() + "), retrying in " + delay + " ms");
+                waitForRetry(delay, signal);
+            }
+        }
+        throw new UnavailableException("Giving up after " + policy.getMaxAttempts() + " attempts", lastFailure);
+    }
+
+    /**
+     * Wait before the next attempt, returns early when the request is cancelled
+     * @param delay long milliseconds
+     * @param signal CancellationSignal may be null
+     * @throws InterruptedIOException when interrupted while waiting
+     * @throws OperationCanceledException when the request was cancelled
+     */
+    private static void waitForRetry(long delay, CancellationSignal signal) throws InterruptedIOException {
+        try {
+            if (signal == null) {
+                Thread.sleep(delay);
+                return;
+            }
+            final CountDownLatch cancelled = new CountDownLatch(1);
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancelled.countDown();
+                }
+            });
+            try {
+                cancelled.await(delay, TimeUnit.MILLISECONDS);
+            } finally {
+                signal.setOnCancelListener(null);
+            }
+            signal.throwIfCanceled();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Response of a request, gives access to the status, headers and the (decompressed) body
+     */
+    public static class Response {
+
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final long mStart;
+        private final long mConnected;
+        private final long mFirstByte;
+        private CountingInputStream mRawBody;
+        private InputStream mBody;
+        private final CancellationSignal mSignal;
+        private boolean mGzip;
+        private boolean mClosed;
+
+        Response(HttpURLConnection connection, int code, long start, long connected, long firstByte,
+                 CancellationSignal signal) {
+            mConnection = connection;
+            mSignal = signal;
+            mCode = code;
+            mStart = start;
+            mConnected = connected;
+            mFirstByte = firstByte;
+        }
+
+        /**
+         * Get the http status code
+         * @return int
+         */
+        public int getCode() {
+            return mCode;
+        }
+
+        /**
+         * Get a response header
+         * @param name String
+         * @return String or null
+         */
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * Get the response body, decompressed when the server sent it gzipped
+         * @return InputStream
+         * @throws IOException
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream in = mCode >= HttpURLConnection.HTTP_BAD_REQUEST ?
+                        mConnection.getErrorStream() : mConnection.getInputStream();
+                if (in == null) {
+                    in = new ByteArrayInputStream(new byte[0]);
+                }
+                mRawBody = new CountingInputStream(in);
+                mGzip = "gzip".equalsIgnoreCase(mConnection.getContentEncoding());
+                mBody = mGzip ? new GZIPInputStream(mRawBody) : mRawBody;
+            }
+            return mBody;
+        }
+
+        /**
+         * Read the rest of the body and close it, so the connection can be reused. Logs the
+         *  timings of the request.
+         */
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mSignal != null) {
+                // the connection may go back to the pool, it must not be disconnected anymore
+                mSignal.setOnCancelListener(null);
+            }
+            try {
+                InputStream body = getBody();
+                // the connection only returns to the pool when the body is fully consumed
+                byte[] buffer = new byte[1024];
+                while (mRawBody.read(buffer) != -1) {
+                    // drain
+                }
+                body.close();
+            } catch (IOException e) {
+                // the connection can't be reused, drop it
+                mConnection.disconnect();
+            }
+            long end = SystemClock.elapsedRealtime();
+            Log.d(LOG_TAG, String.format("%s %d: connect %d ms, ttfb %d ms, body %d ms, %d bytes%s",
+                    mConnection.getURL().getPath(), mCode,
+                    mConnected - mStart,
+                    mFirstByte - mConnected,
+                    end - mFirstByte,
+                    mRawBody != null ? mRawBody.getCount() : 0,
+                    mGzip ? " gzip" : ""));
+        }
+    }
+
+    /**
+     * Input stream that counts the bytes read from the wire
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+    }
+}
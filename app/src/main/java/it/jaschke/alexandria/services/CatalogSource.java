@@ -0,0 +1,175 @@
+package it.jaschke.alexandria.services;
+
+import android.os.CancellationSignal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.jaschke.alexandria.data.Book;
+
+/**
+ * Looks up books in a local catalog file, built from a csv dump with the CatalogBuilder of the
+ *  tools module.
+ * <p/>
+ * The file is memory-mapped and has three parts:
+ * <ul>
+ * <li>header: magic, version and number of books (3 ints)</li>
+ * <li>index: per book the ean (long) and the offset of its record in the arena (int), sorted by
+ *  ean</li>
+ * <li>arena: per book the title, subtitle, description, image url, authors and categories, each
+ *  an unsigned short length followed by the utf-8 bytes. Authors and categories are separated by
+ *  a newline.</li>
+ * </ul>
+ * A lookup is a binary search over the index that reads the keys straight from the mapping, only
+ * a hit allocates the strings of the book.
+ */
+public class CatalogSource implements MetadataSource {
+
+    // file format, written by the CatalogBuilder of the tools module
+    static final int MAGIC = 0x49534243; // ISBC
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final int MAX_FIELD_LENGTH = 0xFFFF;
+    static final char LIST_SEPARATOR = '\n';
+
+    private final ByteBuffer mBuffer;
+    private final int mCount;
+    private final int mArenaStart;
+
+    /**
+     * Constructor
+     * @param buffer ByteBuffer complete catalog file
+     * @throws IOException when the buffer does not contain a catalog
+     */
+    CatalogSource(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a catalog file");
+        }
+        mCount = buffer.getInt(8);
+        mArenaStart = HEADER_SIZE + mCount * INDEX_ENTRY_SIZE;
+        if (mCount < 0 || mArenaStart > buffer.capacity()) {
+            throw new IOException("Truncated catalog file");
+        }
+    }
+
+    /**
+     * Map the given catalog file
+     * @param file File
+     * @return CatalogSource
+     * @throws IOException when the file can't be read or is not a catalog
+     */
+    public static CatalogSource open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new CatalogSource(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the number of books in the catalog
+     * @return int
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Look up the book in the catalog. The catalog does not change, so a stored book is always
+     *  up to date.
+     * @param ean String 13 digit ean
+     * @param stored boolean true when the book is already in the database
+     * @param signal CancellationSignal not used, a lookup does not block
+     * @return Book, UNCHANGED or null
+     */
+    @Override
+    public Book lookup(String ean, boolean stored, CancellationSignal signal) {
+        long key;
+        try {
+            key = Long.parseLong(ean);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        int index = find(key);
+        if (index < 0) {
+            return null;
+        }
+        if (stored) {
+            return UNCHANGED;
+        }
+        // work on a duplicate, so concurrent lookups don't share a position
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(mArenaStart + mBuffer.getInt(HEADER_SIZE + index * INDEX_ENTRY_SIZE + 8));
+        String title = readString(buffer);
+        String subtitle = readString(buffer);
+        String desc = readString(buffer);
+        String imgUrl = readString(buffer);
+        List<String> authors = split(readString(buffer));
+        List<String> categories = split(readString(buffer));
+        return new Book(ean, title, subtitle, desc, imgUrl, authors, categories);
+    }
+
+    /**
+     * Binary search the index for the given ean
+     * @param key long
+     * @return int index of the entry, or -1
+     */
+    int find(long key) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = mBuffer.getLong(HEADER_SIZE + mid * INDEX_ENTRY_SIZE);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & MAX_FIELD_LENGTH;
+        if (length == 0) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static List<String> split(String value) {
+        if (value.length() == 0) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = value.indexOf(LIST_SEPARATOR, start)) != -1) {
+            values.add(value.substring(start, end));
+            start = end + 1;
+        }
+        values.add(value.substring(start));
+        return values;
+    }
+}
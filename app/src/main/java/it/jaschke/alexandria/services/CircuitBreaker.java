@@ -0,0 +1,94 @@
+package it.jaschke.alexandria.services;
+
+import android.os.SystemClock;
+
+/**
+ * Circuit breaker for the books api. After a number of consecutive failures the circuit opens and
+ *  requests fail fast without touching the network. Once the open period has passed the circuit
+ *  is half open: a single trial request is let through, its outcome closes the circuit again or
+ *  opens it for another period.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int mFailureThreshold;
+    private final long mOpenDuration;
+
+    private State mState = State.CLOSED;
+    private int mFailureCount;
+    // time the circuit opened, in milliseconds of elapsed realtime
+    private long mOpenedAt;
+    // true while the trial request of the half open circuit is running
+    private boolean mTrialRunning;
+
+    /**
+     * Constructor
+     * @param failureThreshold int number of consecutive failures that opens the circuit
+     * @param openDuration long milliseconds the circuit stays open before a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        mFailureThreshold = failureThreshold;
+        mOpenDuration = openDuration;
+    }
+
+    /**
+     * Check if a request may be made now. When the open period has passed, the first caller gets
+     *  the trial request and has to report its outcome.
+     * @return boolean
+     */
+    public synchronized boolean allowRequest() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (mTrialRunning) {
+                    return false;
+                }
+                mTrialRunning = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Report a request that reached a healthy endpoint
+     */
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mFailureCount = 0;
+        mTrialRunning = false;
+    }
+
+    /**
+     * Report a request that failed because the endpoint is unreachable or unhealthy
+     */
+    public synchronized void onFailure() {
+        mFailureCount++;
+        if (mState == State.HALF_OPEN || mFailureCount >= mFailureThreshold) {
+            mState = State.OPEN;
+            mOpenedAt = SystemClock.elapsedRealtime();
+        }
+        mTrialRunning = false;
+    }
+
+    /**
+     * Report a request that was cancelled before it had an outcome, a trial request can then be
+     *  made by the next caller
+     */
+    public synchronized void onCancelled() {
+        mTrialRunning = false;
+    }
+
+    /**
+     * Get the current state, an open circuit becomes half open when its period has passed
+     * @return State
+     */
+    public synchronized State getState() {
+        if (mState == State.OPEN && SystemClock.elapsedRealtime() - mOpenedAt >= mOpenDuration) {
+            mState = State.HALF_OPEN;
+        }
+        return mState;
+    }
+}
@@ -0,0 +1,52 @@
+package it.jaschke.alexandria.services;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+
+import it.jaschke.alexandria.Utility;
+
+/**
+ * Starts draining the queue of eans scanned while offline as soon as the network is back.
+ * <p/>
+ * The receiver is disabled in the manifest and only enabled while the queue is not empty, so the
+ * app is not woken up on every connectivity change.
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+
+    /**
+     * On a connectivity change start the bookservice to drain the queue when we are connected
+     * @param context Context
+     * @param intent Intent
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Utility.isNetworkAvailable(context)) {
+            startDrain(context);
+        }
+    }
+
+    /**
+     * Tell the bookservice to fetch the queued eans
+     * @param context Context
+     */
+    public static void startDrain(Context context) {
+        Intent bookIntent = new Intent(context, BookService.class);
+        bookIntent.setAction(BookService.DRAIN_QUEUE);
+        context.startService(bookIntent);
+    }
+
+    /**
+     * Enable or disable listening to connectivity changes
+     * @param context Context
+     * @param enabled boolean true while there are queued eans
+     */
+    public static void setEnabled(Context context, boolean enabled) {
+        context.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(context, ConnectivityReceiver.class),
+                enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+    }
+}
@@ -0,0 +1,203 @@
+package it.jaschke.alexandria.services;
+
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import it.jaschke.alexandria.data.Book;
+
+/**
+ * Looks up books with the google books api volumes search. Only the first volume and the fields
+ *  we store are requested (partial response). Responses are kept in the volume response cache
+ *  and revalidated with conditional requests, failed requests are retried behind the circuit
+ *  breaker. Cancelling a lookup aborts its request.
+ */
+public class GoogleBooksSource implements MetadataSource {
+
+    // use classname when logging
+    private static final String LOG_TAG = GoogleBooksSource.class.getSimpleName();
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FIELDS_PARAM = "fields";
+    private static final String MAX_RESULTS_PARAM = "maxResults";
+    // largest page the volumes search returns
+    private static final int MAX_BATCH_RESULTS = 40;
+
+    private final String mBaseUrl;
+    private final VolumeResponseCache mResponseCache;
+    private final RetryPolicy mRetryPolicy;
+    private final CircuitBreaker mBreaker;
+    // batches lookups of eans that are not cached yet, null when not batching
+    private VolumeBatcher mBatcher;
+
+    /**
+     * Constructor
+     * @param baseUrl String url of the volumes endpoint
+     * @param responseCache VolumeResponseCache
+     * @param retryPolicy RetryPolicy
+     * @param breaker CircuitBreaker
+     */
+    public GoogleBooksSource(String baseUrl, VolumeResponseCache responseCache, RetryPolicy retryPolicy,
+                             CircuitBreaker breaker) {
+        mBaseUrl = baseUrl;
+        mResponseCache = responseCache;
+        mRetryPolicy = retryPolicy;
+        mBreaker = breaker;
+    }
+
+    /**
+     * Batch the lookups of new eans
+     * @param batcher VolumeBatcher or null to look up every ean on its own
+     */
+    public void setBatcher(VolumeBatcher batcher) {
+        mBatcher = batcher;
+    }
+
+    /**
+     * Look up several eans with a single request of OR'd isbn terms. The volumes are matched to
+     *  the eans by their industry identifiers. Batch responses are not cached per ean.
+     * @param eans List
+     * @return Map of the found books per ean, eans without a matching volume are missing
+     * @throws IOException when the api is unavailable or answers with an error
+     */
+    public Map<String, Book> lookupBatch(List<String> eans) throws IOException {
+        if (eans.size() < 2) {
+            // a single ean is looked up on its own, which also caches the response
+            return new HashMap<String, Book>();
+        }
+        StringBuilder query = new StringBuilder();
+        for (String ean : eans) {
+            if (query.length() > 0) {
+                query.append(" OR ");
+            }
+            query.append("isbn:").append(ean);
+        }
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, query.toString())
+                .appendQueryParameter(FIELDS_PARAM, VolumeParser.getBatchFields())
+                .appendQueryParameter(MAX_RESULTS_PARAM, String.valueOf(MAX_BATCH_RESULTS))
+                .build();
+        BooksHttpClient.Response response = BooksHttpClient.getInstance().get(new URL(builtUri.toString()), null,
+                mRetryPolicy, mBreaker);
+        try {
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response code " + response.getCode());
+            }
+            return VolumeParser.parseBatch(response.getBody(), new HashSet<String>(eans));
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Look up the book, from the response cache while it is fresh, otherwise with a (conditional)
+     *  request. When batching, a new ean of the offline queue drain is first looked up as part of
+     *  a batch.
+     * @param ean String 13 digit ean
+     * @param stored boolean true when the book is already in the database
+     * @param signal CancellationSignal may be null
+     * @return Book, UNCHANGED or null
+     * @throws IOException when the api is unavailable or answers with an error
+     */
+    @Override
+    public Book lookup(String ean, boolean stored, CancellationSignal signal) throws IOException {
+        BooksHttpClient.Response response = null;
+        try {
+            Book book;
+            VolumeResponseCache.Entry cacheEntry = mResponseCache.get(ean);
+            if (mBatcher != null && !stored && cacheEntry == null) {
+                // a batch is shared with other eans, so it is not aborted, but its result is dropped
+                book = null;
+                try {
+                    book = mBatcher.lookup(ean);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Batch lookup of " + ean + " failed: " + e.getMessage());
+                }
+                if (signal != null) {
+                    signal.throwIfCanceled();
+                }
+                if (book != null) {
+                    return book;
+                }
+                // not in the batch response or the batch failed, fall back to a lookup of its own
+            }
+            if (cacheEntry != null && cacheEntry.isFresh()) {
+                // use the cached response without asking the server
+                mResponseCache.countHit();
+                book = stored ? UNCHANGED : VolumeParser.parse(new ByteArrayInputStream(cacheEntry.body), ean);
+            } else {
+                // ask for the first volume only, with just the fields we store
+                Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                        .appendQueryParameter(QUERY_PARAM, "isbn:" + ean)
+                        .appendQueryParameter(FIELDS_PARAM, VolumeParser.getFields())
+                        .appendQueryParameter(MAX_RESULTS_PARAM, "1")
+                        .build();
+
+                // revalidate a stale cached response with a conditional request
+                Map<String, String> headers = new HashMap<String, String>();
+                if (cacheEntry != null && cacheEntry.canRevalidate()) {
+                    if (cacheEntry.etag != null) {
+                        headers.put("If-None-Match", cacheEntry.etag);
+                    }
+                    if (cacheEntry.lastModified != null) {
+                        headers.put("If-Modified-Since", cacheEntry.lastModified);
+                    }
+                }
+
+                // use the shared client, so the connection is kept alive for the next lookup, and
+                //  retry failures unless the books api is known to be unavailable
+                response = BooksHttpClient.getInstance().get(new URL(builtUri.toString()), headers,
+                        mRetryPolicy, mBreaker, signal);
+                long expires = VolumeResponseCache.getExpires(response.getHeader("Cache-Control"));
+
+                if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                    // the volume did not change, skip the parsing and the database rewrite
+                    mResponseCache.countRevalidate();
+                    mResponseCache.refresh(ean, cacheEntry, expires);
+                    book = stored ? UNCHANGED : VolumeParser.parse(new ByteArrayInputStream(cacheEntry.body), ean);
+                } else if (response.getCode() == HttpURLConnection.HTTP_OK) {
+                    mResponseCache.countMiss();
+                    // parse the book straight from the response stream, while it is written to the cache
+                    VolumeResponseCache.RecordingInputStream body = mResponseCache.record(ean,
+                            response.getHeader("ETag"), response.getHeader("Last-Modified"), expires,
+                            response.getBody());
+                    try {
+                        book = VolumeParser.parse(body, ean);
+                        if (book != null) {
+                            body.commit();
+                        }
+                    } finally {
+                        body.abort();
+                    }
+                } else {
+                    throw new IOException("Unexpected response code " + response.getCode());
+                }
+            }
+            Log.d(LOG_TAG, "Response cache: " + mResponseCache.getStats());
+            return book;
+        } catch (IOException e) {
+            // reading the body of a cancelled request fails on the disconnected connection
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            throw e;
+        } finally {
+            // return the connection to the pool
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+}
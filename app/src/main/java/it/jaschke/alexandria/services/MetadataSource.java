@@ -0,0 +1,34 @@
+package it.jaschke.alexandria.services;
+
+import android.os.CancellationSignal;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import it.jaschke.alexandria.data.Book;
+
+/**
+ * Source of book metadata. The BookService asks its sources in order and uses the first book
+ *  found, e.g. the local catalog first and the google books api as fallback.
+ */
+public interface MetadataSource {
+
+    /**
+     * Returned by a source that knows the stored book did not change, so it doesn't have to be
+     *  written again
+     */
+    Book UNCHANGED = new Book("", "", null, null, null,
+            Collections.<String>emptyList(), Collections.<String>emptyList());
+
+    /**
+     * Look up the book with the given ean
+     * @param ean String 13 digit ean
+     * @param stored boolean true when the book is already in the database
+     * @param signal CancellationSignal aborts the lookup when cancelled, may be null
+     * @return Book, UNCHANGED when stored is true and the stored book is up to date, or null when
+     *  the source does not know the ean
+     * @throws IOException when the source is not available
+     * @throws android.os.OperationCanceledException when the lookup was cancelled
+     */
+    Book lookup(String ean, boolean stored, CancellationSignal signal) throws IOException;
+}
@@ -0,0 +1,74 @@
+package it.jaschke.alexandria.services;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * Decides which failed requests are retried and how long to wait before the next attempt.
+ * <p/>
+ * Network errors, 429 too many requests and 5xx server errors are retried, other responses are
+ * passed on. The delay grows exponentially per attempt and is randomized over the whole range
+ * (full jitter), so clients that failed together do not retry together.
+ */
+public class RetryPolicy {
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+
+    /**
+     * Constructor
+     * @param maxAttempts int total number of attempts, including the first one
+     * @param baseDelay long delay before the first retry in milliseconds, doubled per attempt
+     * @param maxDelay long upper bound of a delay in milliseconds
+     * @param random Random source of the jitter
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mRandom = random;
+    }
+
+    /**
+     * Get the total number of attempts
+     * @return int
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Check if a request that got the given response code is worth retrying
+     * @param code int http status code
+     * @return boolean
+     */
+    public boolean isRetryable(int code) {
+        return code == HTTP_TOO_MANY_REQUESTS || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    /**
+     * Get the time to wait before the next attempt
+     * @param attempt int number of the attempt that failed, starting at 1
+     * @param retryAfter String value of the Retry-After header in seconds, or null
+     * @return long milliseconds
+     */
+    public long getDelay(int attempt, String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                // the server knows best, but don't wait longer than the maximum
+                return Math.min(mMaxDelay, Long.parseLong(retryAfter.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // http date, fall back to the backoff
+            }
+        }
+        long ceiling = mMaxDelay;
+        if (attempt - 1 < 31) {
+            ceiling = Math.min(mMaxDelay, mBaseDelay << (attempt - 1));
+        }
+        return (long) (mRandom.nextDouble() * ceiling);
+    }
+}
@@ -0,0 +1,149 @@
+package it.jaschke.alexandria.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-flight execution of calls per key. Requests for a key that arrive while a call for that
+ *  key is running, or that were queued before it finished, share its result instead of running
+ *  the call again.
+ * @param <V> result type
+ */
+public class SingleFlight<V> {
+
+    // requests and current flight per key
+    private final Map<String, Entry<V>> mEntries = new HashMap<String, Entry<V>>();
+    // number of requests that were answered by another request's call
+    private final AtomicInteger mCoalescedCount = new AtomicInteger();
+
+    /**
+     * Announce a request for the given key that will be executed later, so it can share the result
+     *  of a call that runs before its turn
+     * @param key String
+     */
+    public void register(String key) {
+        synchronized (mEntries) {
+            getEntry(key).waiting++;
+        }
+    }
+
+    /**
+     * Withdraw a registered request that will not be executed, e.g. because it was cancelled
+     * @param key String
+     */
+    public void unregister(String key) {
+        synchronized (mEntries) {
+            Entry<V> entry = mEntries.get(key);
+            if (entry != null && --entry.waiting <= 0) {
+                mEntries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Run the call for the given key, or share the result of the call already in flight for it
+     * @param key String
+     * @param call Callable
+     * @return V
+     * @throws Exception the exception of the shared call
+     */
+    public V execute(String key, Callable<V> call) throws Exception {
+        Flight<V> flight;
+        boolean leader = false;
+        synchronized (mEntries) {
+            Entry<V> entry = mEntries.get(key);
+            if (entry == null) {
+                // request that was not registered up front
+                entry = getEntry(key);
+                entry.waiting++;
+            }
+            if (entry.flight == null) {
+                entry.flight = new Flight<V>();
+                leader = true;
+            }
+            flight = entry.flight;
+        }
+
+        if (leader) {
+            try {
+                flight.result = call.call();
+            } catch (Exception e) {
+                flight.error = e;
+                // a failed call is not shared with requests that run after it
+                synchronized (mEntries) {
+                    Entry<V> entry = mEntries.get(key);
+                    if (entry != null && entry.flight == flight) {
+                        entry.flight = null;
+                    }
+                }
+            } finally {
+                flight.done.countDown();
+            }
+        } else {
+            mCoalescedCount.incrementAndGet();
+            flight.done.await();
+        }
+
+        synchronized (mEntries) {
+            Entry<V> entry = mEntries.get(key);
+            if (entry != null && --entry.waiting <= 0) {
+                mEntries.remove(key);
+            }
+        }
+        if (flight.error != null) {
+            throw flight.error;
+        }
+        return flight.result;
+    }
+
+    /**
+     * Forget the result for the given key, e.g. after the data behind it was changed. Requests that
+     *  run afterwards start a new call.
+     * @param key String
+     */
+    public void forget(String key) {
+        synchronized (mEntries) {
+            Entry<V> entry = mEntries.get(key);
+            if (entry != null) {
+                entry.flight = null;
+            }
+        }
+    }
+
+    /**
+     * Get the number of requests that shared the result of another request
+     * @return int
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    private Entry<V> getEntry(String key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry<V>();
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Pending requests for a key and the call serving them
+     */
+    private static class Entry<V> {
+        int waiting;
+        Flight<V> flight;
+    }
+
+    /**
+     * A single call and its outcome
+     */
+    private static class Flight<V> {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile V result;
+        volatile Exception error;
+    }
+}
@@ -0,0 +1,114 @@
+package it.jaschke.alexandria.services;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs tasks on a bounded thread pool. Tasks submitted with the same key (stripe)
+ *  are executed strictly one after another in submission order, tasks with different keys run in
+ *  parallel.
+ */
+public class StripedExecutor {
+    private static final String LOG_TAG = StripedExecutor.class.getSimpleName();
+
+    // the worker pool, every running stripe occupies at most one thread
+    private final ThreadPoolExecutor mExecutor;
+
+    // pending tasks per key, a key is present as long as one of its tasks is queued or running
+    private final Map<String, ArrayDeque<Runnable>> mStripes = new HashMap<String, ArrayDeque<Runnable>>();
+
+    /**
+     * Constructor
+     * @param poolSize int maximum number of threads
+     * @param name String prefix for the worker thread names
+     */
+    public StripedExecutor(int poolSize, final String name) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        // let idle workers die, so an unused service does not keep threads around
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a task behind all earlier tasks with the same key
+     * @param key String stripe key, a null key is a stripe of its own
+     * @param task Runnable
+     */
+    public void execute(String key, Runnable task) {
+        final String stripeKey = key == null ? "" : key;
+        synchronized (mStripes) {
+            ArrayDeque<Runnable> stripe = mStripes.get(stripeKey);
+            if (stripe != null) {
+                // the stripe is busy, the running drainer will pick the task up
+                stripe.addLast(task);
+                return;
+            }
+            stripe = new ArrayDeque<Runnable>();
+            stripe.addLast(task);
+            mStripes.put(stripeKey, stripe);
+        }
+        mExecutor.execute(new StripeDrainer(stripeKey));
+    }
+
+    /**
+     * Stop accepting new tasks, already queued tasks are still executed
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Runs the tasks of one stripe until it is empty. Only one drainer exists per stripe, which
+     *  guarantees the ordering within a stripe.
+     */
+    private class StripeDrainer implements Runnable {
+
+        private final String mKey;
+
+        StripeDrainer(String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (mStripes) {
+                    ArrayDeque<Runnable> stripe = mStripes.get(mKey);
+                    task = stripe.pollFirst();
+                    if (task == null) {
+                        // nothing left, release the stripe
+                        mStripes.remove(mKey);
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // a failed task must not stall the tasks queued behind it in the stripe
+                    Log.e(LOG_TAG, "Task of stripe " + mKey + " failed", e);
+                }
+            }
+        }
+    }
+}
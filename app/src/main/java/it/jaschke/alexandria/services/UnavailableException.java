@@ -0,0 +1,27 @@
+package it.jaschke.alexandria.services;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the books api is temporarily unavailable: the circuit breaker is open or all
+ *  attempts of a request failed
+ */
+public class UnavailableException extends IOException {
+
+    /**
+     * Constructor
+     * @param message String
+     */
+    public UnavailableException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor
+     * @param message String
+     * @param cause Throwable last failure
+     */
+    public UnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
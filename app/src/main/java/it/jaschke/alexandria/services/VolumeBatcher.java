@@ -0,0 +1,210 @@
+package it.jaschke.alexandria.services;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.jaschke.alexandria.data.Book;
+
+/**
+ * Collects the eans of concurrent lookups into batches, that are resolved with a single volumes
+ *  request. Only lookups announced with begin, and running on a thread that entered with enter,
+ *  are batched, like the rounds of the offline queue drain. Any other lookup, e.g. of a scan, is
+ *  left to the caller right away. A batch is sent when it is full, when every
+ *  announced lookup has joined or ended, or when the maximum wait has passed since its first ean
+ *  arrived. Callers block until their batch is answered.
+ */
+public class VolumeBatcher {
+
+    // use classname when logging
+    private static final String LOG_TAG = VolumeBatcher.class.getSimpleName();
+
+    private final GoogleBooksSource mSource;
+    private final int mBatchSize;
+    private final long mMaxWait;
+    private final ScheduledExecutorService mScheduler;
+
+    // batch collecting eans, null when there is none
+    private Batch mCurrent;
+    // number of announced lookups that have not ended yet
+    private int mActive;
+    // set on the threads of announced lookups, between enter and end
+    private final ThreadLocal<Boolean> mEntered = new ThreadLocal<Boolean>();
+
+    private final AtomicInteger mBatchCount = new AtomicInteger();
+    private final AtomicInteger mResolvedCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param source GoogleBooksSource executing the batch requests
+     * @param batchSize int maximum number of eans per request
+     * @param maxWait long milliseconds before a partial batch is sent
+     */
+    public VolumeBatcher(GoogleBooksSource source, int batchSize, long maxWait) {
+        mSource = source;
+        mBatchSize = batchSize;
+        mMaxWait = maxWait;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "VolumeBatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Announce lookups that are going to be batched, each of them must enter on its own thread and
+     *  be ended with a call to end
+     * @param count int number of lookups
+     */
+    public synchronized void begin(int count) {
+        mActive += count;
+    }
+
+    /**
+     * Mark the calling thread as running an announced lookup, so its lookups join the batches
+     */
+    public void enter() {
+        mEntered.set(Boolean.TRUE);
+    }
+
+    /**
+     * End the announced lookup of the calling thread. A batch that holds all remaining lookups is
+     *  sent right away, as nobody else is going to join it.
+     */
+    public void end() {
+        mEntered.remove();
+        Batch complete = null;
+        synchronized (this) {
+            mActive--;
+            if (mCurrent != null && mCurrent.eans.size() >= mActive) {
+                complete = mCurrent;
+                mCurrent = null;
+            }
+        }
+        if (complete != null) {
+            complete.timeout.cancel(false);
+            send(complete);
+        }
+    }
+
+    /**
+     * Look up the ean as part of a batch
+     * @param ean String
+     * @return Book or null when the batch response has no volume for the ean, or when the calling
+     *  thread did not enter an announced lookup
+     * @throws IOException when the batch request failed
+     */
+    public Book lookup(String ean) throws IOException {
+        if (mEntered.get() == null) {
+            // not part of a drain, the caller does not wait for a batch
+            return null;
+        }
+        final Batch batch;
+        boolean full = false;
+        synchronized (this) {
+            if (mCurrent == null) {
+                final Batch created = new Batch();
+                created.timeout = mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushOnTimeout(created);
+                    }
+                }, mMaxWait, TimeUnit.MILLISECONDS);
+                mCurrent = created;
+            }
+            batch = mCurrent;
+            batch.eans.add(ean);
+            if (batch.eans.size() >= mBatchSize || batch.eans.size() >= mActive) {
+                mCurrent = null;
+                full = true;
+            }
+        }
+        if (full) {
+            // the caller that filled the batch, or joined it last, sends it
+            batch.timeout.cancel(false);
+            send(batch);
+        }
+        try {
+            batch.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the batch");
+        }
+        if (batch.error != null) {
+            throw batch.error;
+        }
+        return batch.books.get(ean);
+    }
+
+    /**
+     * Stop the timer thread
+     */
+    public void shutdown() {
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * Send a partial batch when its maximum wait has passed
+     * @param batch Batch
+     */
+    private void flushOnTimeout(Batch batch) {
+        synchronized (this) {
+            if (mCurrent != batch) {
+                // already sent because it was full or complete
+                return;
+            }
+            mCurrent = null;
+        }
+        send(batch);
+    }
+
+    /**
+     * Resolve the eans of the batch and release the waiting callers
+     * @param batch Batch
+     */
+    private void send(Batch batch) {
+        if (batch.eans.size() < 2) {
+            // a lone ean is looked up on its own by the caller, without waiting for a request
+            batch.done.countDown();
+            return;
+        }
+        try {
+            batch.books = mSource.lookupBatch(new ArrayList<String>(batch.eans));
+            mBatchCount.incrementAndGet();
+            mResolvedCount.addAndGet(batch.books.size());
+            Log.d(LOG_TAG, "Resolved " + batch.books.size() + " of " + batch.eans.size() + " eans, total "
+                    + mResolvedCount.get() + " in " + mBatchCount.get() + " batches");
+        } catch (IOException e) {
+            batch.error = e;
+        } finally {
+            batch.done.countDown();
+        }
+    }
+
+    /**
+     * Eans collected for a single request and its outcome
+     */
+    private static class Batch {
+        final Set<String> eans = new LinkedHashSet<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        ScheduledFuture<?> timeout;
+        volatile Map<String, Book> books = Collections.emptyMap();
+        volatile IOException error;
+    }
+}
@@ -0,0 +1,381 @@
+package it.jaschke.alexandria.services;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.jaschke.alexandria.IsbnCodec;
+import it.jaschke.alexandria.data.AlexandriaContract;
+import it.jaschke.alexandria.data.Book;
+
+/**
+ * Parser for the google books api volumes response
+ */
+public class VolumeParser {
+
+    // use classname when logging
+    private static final String LOG_TAG = VolumeParser.class.getSimpleName();
+
+    // json keys
+    private static final String ITEMS = "items";
+    private static final String VOLUME_INFO = "volumeInfo";
+    private static final String TITLE = "title";
+    private static final String SUBTITLE = "subtitle";
+    private static final String AUTHORS = "authors";
+    private static final String DESC = "description";
+    private static final String CATEGORIES = "categories";
+    private static final String IMG_URL_PATH = "imageLinks";
+    private static final String IMG_URL = "thumbnail";
+    private static final String INDUSTRY_IDENTIFIERS = "industryIdentifiers";
+    private static final String IDENTIFIER_TYPE = "type";
+    private static final String IDENTIFIER = "identifier";
+    private static final String ISBN_10 = "ISBN_10";
+    private static final String ISBN_13 = "ISBN_13";
+
+    // volume info field per column we store, the partial response asks for these fields only
+    private static final Map<String, String> COLUMN_FIELDS = new LinkedHashMap<String, String>();
+
+    static {
+        COLUMN_FIELDS.put(AlexandriaContract.BookEntry.TITLE, TITLE);
+        COLUMN_FIELDS.put(AlexandriaContract.BookEntry.SUBTITLE, SUBTITLE);
+        COLUMN_FIELDS.put(AlexandriaContract.BookEntry.DESC, DESC);
+        COLUMN_FIELDS.put(AlexandriaContract.BookEntry.IMAGE_URL, IMG_URL_PATH + "/" + IMG_URL);
+        COLUMN_FIELDS.put(AlexandriaContract.AuthorEntry.AUTHOR, AUTHORS);
+        COLUMN_FIELDS.put(AlexandriaContract.CategoryEntry.CATEGORY, CATEGORIES);
+    }
+
+    // value of the fields parameter of a volumes request
+    private static final String FIELDS = buildFields(COLUMN_FIELDS.keySet(), null);
+    // value of the fields parameter of a batch request, which needs the isbns to match the volumes
+    private static final String BATCH_FIELDS = buildFields(COLUMN_FIELDS.keySet(), INDUSTRY_IDENTIFIERS);
+
+    private VolumeParser() {
+    }
+
+    /**
+     * Get the partial response projection for a volumes request, selecting only the volume info
+     *  fields of the columns we store
+     * @return String value for the fields parameter
+     */
+    public static String getFields() {
+        return FIELDS;
+    }
+
+    /**
+     * Get the partial response projection for a batch request, which adds the industry identifiers
+     *  to the stored fields
+     * @return String value for the fields parameter
+     */
+    public static String getBatchFields() {
+        return BATCH_FIELDS;
+    }
+
+    /**
+     * Build the partial response projection for the given columns
+     * @param columns Iterable of book, author and category columns
+     * @param extraField String volume info field that is not stored, or null
+     * @return String value for the fields parameter, e.g. items(volumeInfo(title,authors))
+     */
+    static String buildFields(Iterable<String> columns, String extraField) {
+        StringBuilder fields = new StringBuilder(ITEMS).append('(').append(VOLUME_INFO).append('(');
+        boolean first = true;
+        if (extraField != null) {
+            fields.append(extraField);
+            first = false;
+        }
+        for (String column : columns) {
+            String field = COLUMN_FIELDS.get(column);
+            if (field == null) {
+                throw new IllegalArgumentException("No volume field for column " + column);
+            }
+            if (!first) {
+                fields.append(',');
+            }
+            fields.append(field);
+            first = false;
+        }
+        return fields.append("))").toString();
+    }
+
+    /**
+     * Parse the first volume of a response straight from the stream. Only the fields we store are
+     *  read, everything else is skipped without building objects, and parsing stops after the
+     *  volume info of the first item. A volume without a title and a malformed response are
+     *  logged and treated as not found, asking again would get the same answer.
+     * @param in InputStream response body, not closed by this method
+     * @param ean String
+     * @return Book or null when the response contains no usable volume
+     * @throws IOException on a read error
+     */
+    public static Book parse(InputStream in, String ean) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (ITEMS.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    if (!reader.hasNext()) {
+                        return null;
+                    }
+                    return readItem(reader, ean);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            return null;
+        } catch (MalformedJsonException e) {
+            Log.e(LOG_TAG, "Malformed volume of " + ean, e);
+            return null;
+        } catch (IllegalStateException e) {
+            // a value of an unexpected type
+            Log.e(LOG_TAG, "Malformed volume of " + ean, e);
+            return null;
+        }
+    }
+
+    /**
+     * Parse the volumes of a batch response and match them to the requested eans by their
+     *  industry identifiers. When several volumes match an ean, the first one is used.
+     * @param in InputStream response body, not closed by this method
+     * @param eans Set of requested eans
+     * @return Map of the found books per ean, eans without a matching volume are missing
+     * @throws IOException on a read error or malformed json
+     */
+    public static Map<String, Book> parseBatch(InputStream in, Set<String> eans) throws IOException {
+        Map<String, Book> books = new HashMap<String, Book>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (ITEMS.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    List<String> identifiers = new ArrayList<String>();
+                    Book volume = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (VOLUME_INFO.equals(reader.nextName())) {
+                            volume = readVolumeInfo(reader, null, identifiers);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (volume == null) {
+                        continue;
+                    }
+                    for (String identifier : identifiers) {
+                        if (eans.contains(identifier) && !books.containsKey(identifier)) {
+                            books.put(identifier, new Book(identifier, volume.getTitle(), volume.getSubtitle(),
+                                    volume.getDescription(), volume.getImageUrl(), volume.getAuthors(),
+                                    volume.getCategories()));
+                        }
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return books;
+    }
+
+    /**
+     * Parse the first volume of a response by building the complete json object, as done before
+     *  the streaming parser. Kept as reference for the parser benchmark.
+     * @param json String complete response body
+     * @param ean String
+     * @return Book or null when the response contains no items
+     * @throws JSONException on malformed json
+     */
+    public static Book parseDom(String json, String ean) throws JSONException {
+        JSONObject bookJson = new JSONObject(json);
+        if (!bookJson.has(ITEMS)) {
+            return null;
+        }
+        JSONObject bookInfo = ((JSONObject) bookJson.getJSONArray(ITEMS).get(0)).getJSONObject(VOLUME_INFO);
+        String imgUrl = null;
+        if (bookInfo.has(IMG_URL_PATH) && bookInfo.getJSONObject(IMG_URL_PATH).has(IMG_URL)) {
+            imgUrl = bookInfo.getJSONObject(IMG_URL_PATH).getString(IMG_URL);
+        }
+        return new Book(ean,
+                bookInfo.getString(TITLE),
+                bookInfo.optString(SUBTITLE),
+                bookInfo.optString(DESC),
+                imgUrl,
+                toList(bookInfo.optJSONArray(AUTHORS)),
+                toList(bookInfo.optJSONArray(CATEGORIES)));
+    }
+
+    /**
+     * Read a single item and return the book from its volume info
+     * @param reader JsonReader positioned at the start of the item
+     * @param ean String
+     * @return Book or null when the volume has no title
+     * @throws IOException
+     */
+    private static Book readItem(JsonReader reader, String ean) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (VOLUME_INFO.equals(reader.nextName())) {
+                Book book = readVolumeInfo(reader, ean, null);
+                if (book == null) {
+                    Log.e(LOG_TAG, "Volume of " + ean + " without " + TITLE);
+                }
+                return book;
+            }
+            reader.skipValue();
+        }
+        Log.e(LOG_TAG, "Volume of " + ean + " without " + VOLUME_INFO);
+        return null;
+    }
+
+    /**
+     * Read the fields we need from the volume info object
+     * @param reader JsonReader positioned at the start of the volume info
+     * @param ean String or null when the ean is not known yet
+     * @param identifiers List to add the eans of the volume to, or null to skip them
+     * @return Book or null when the volume has no title
+     * @throws IOException
+     */
+    private static Book readVolumeInfo(JsonReader reader, String ean, List<String> identifiers) throws IOException {
+        String title = null;
+        String subtitle = null;
+        String desc = null;
+        String imgUrl = null;
+        List<String> authors = null;
+        List<String> categories = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (TITLE.equals(name)) {
+                title = reader.nextString();
+            } else if (SUBTITLE.equals(name)) {
+                subtitle = reader.nextString();
+            } else if (DESC.equals(name)) {
+                desc = reader.nextString();
+            } else if (AUTHORS.equals(name)) {
+                authors = readStringArray(reader);
+            } else if (CATEGORIES.equals(name)) {
+                categories = readStringArray(reader);
+            } else if (IMG_URL_PATH.equals(name)) {
+                imgUrl = readThumbnail(reader);
+            } else if (identifiers != null && INDUSTRY_IDENTIFIERS.equals(name)) {
+                readIdentifiers(reader, identifiers);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (title == null) {
+            return null;
+        }
+        return new Book(ean, title, subtitle, desc, imgUrl, authors, categories);
+    }
+
+    /**
+     * Read the isbns of the industry identifiers array as eans
+     * @param reader JsonReader
+     * @param identifiers List to add the eans to
+     * @throws IOException
+     */
+    private static void readIdentifiers(JsonReader reader, List<String> identifiers) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String type = null;
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.STRING && IDENTIFIER_TYPE.equals(name)) {
+                    type = reader.nextString();
+                } else if (reader.peek() == JsonToken.STRING && IDENTIFIER.equals(name)) {
+                    identifier = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (ISBN_13.equals(type) && identifier != null) {
+                identifiers.add(identifier);
+            } else if (ISBN_10.equals(type)) {
+                long ean = IsbnCodec.parse(identifier);
+                if (ean != IsbnCodec.INVALID) {
+                    identifiers.add(String.valueOf(ean));
+                }
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Read the thumbnail url from the image links object
+     * @param reader JsonReader
+     * @return String or null
+     * @throws IOException
+     */
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String thumbnail = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (IMG_URL.equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                thumbnail = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return thumbnail;
+    }
+
+    /**
+     * Read an array of strings
+     * @param reader JsonReader
+     * @return List
+     * @throws IOException
+     */
+    private static List<String> readStringArray(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<String>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    /**
+     * Convert a json array of strings to a list
+     * @param array JSONArray, may be null
+     * @return List
+     * @throws JSONException
+     */
+    private static List<String> toList(JSONArray array) throws JSONException {
+        List<String> values = new ArrayList<String>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                values.add(array.getString(i));
+            }
+        }
+        return values;
+    }
+}
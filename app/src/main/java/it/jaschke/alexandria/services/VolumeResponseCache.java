@@ -0,0 +1,475 @@
+package it.jaschke.alexandria.services;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of google books volume responses per ean. Together with the body it stores the
+ *  ETag and Last-Modified validators, so a stale entry can be revalidated with a conditional
+ *  request. The cache is bounded in size, the least recently used entries are evicted first. The
+ *  sizes and the access order of the entries are kept in memory, the directory is only listed
+ *  once.
+ */
+public class VolumeResponseCache {
+
+    // use classname when logging
+    private static final String LOG_TAG = VolumeResponseCache.class.getSimpleName();
+
+    private static final String SUFFIX = ".volume";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    // file size per ean in access order, null until the directory was listed
+    private LinkedHashMap<String, Long> mIndex;
+    private long mSize;
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mRevalidateCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param directory File directory holding the cache files
+     * @param maxSize long maximum size of all cache files in bytes
+     */
+    public VolumeResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create cache directory " + mDirectory);
+        }
+    }
+
+    /**
+     * Cached response with its validators
+     */
+    public static class Entry {
+        public final String etag;
+        public final String lastModified;
+        // time until which the entry can be used without revalidation, in milliseconds since epoch
+        public final long expires;
+        public final byte[] body;
+
+        Entry(String etag, String lastModified, long expires, byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.body = body;
+        }
+
+        /**
+         * Check if the entry can be used without asking the server
+         * @return boolean
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        /**
+         * Check if the entry has a validator for a conditional request
+         * @return boolean
+         */
+        public boolean canRevalidate() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    /**
+     * Get the cached response for the given ean and mark it as recently used
+     * @param ean String
+     * @return Entry or null
+     */
+    public synchronized Entry get(String ean) {
+        // also moves the ean to the end of the access order
+        if (getIndex().get(ean) == null) {
+            return null;
+        }
+        File file = getFile(ean);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            String etag = readNullableString(in);
+            String lastModified = readNullableString(in);
+            long expires = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(etag, lastModified, expires, body);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+            remove(ean);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the response for the given ean and evict old entries when the cache is too large
+     * @param ean String
+     * @param etag String or null
+     * @param lastModified String or null
+     * @param expires long
+     * @param body byte[]
+     */
+    public synchronized void put(String ean, String etag, String lastModified, long expires, byte[] body) {
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            tmp = File.createTempFile(ean, TMP_SUFFIX, mDirectory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            writeHeader(out, etag, lastModified, expires, body.length);
+            out.write(body);
+            out.close();
+            out = null;
+            commit(ean, tmp);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + getFile(ean), e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Store a response while it is read. The returned stream copies everything read from it to a
+     *  temporary file in the cache directory, which replaces the entry of the ean when the
+     *  recording is committed.
+     * @param ean String
+     * @param etag String or null
+     * @param lastModified String or null
+     * @param expires long
+     * @param in InputStream response body
+     * @return RecordingInputStream
+     */
+    public RecordingInputStream record(String ean, String etag, String lastModified, long expires, InputStream in) {
+        synchronized (this) {
+            // list the directory before the first temporary file shows up in it
+            getIndex();
+        }
+        return new RecordingInputStream(ean, etag, lastModified, expires, in);
+    }
+
+    /**
+     * Update the expiry of an entry after the server confirmed it is still valid
+     * @param ean String
+     * @param entry Entry
+     * @param expires long
+     */
+    public void refresh(String ean, Entry entry, long expires) {
+        put(ean, entry.etag, entry.lastModified, expires, entry.body);
+    }
+
+    /**
+     * Remove the entry for the given ean
+     * @param ean String
+     */
+    public synchronized void remove(String ean) {
+        Long length = getIndex().remove(ean);
+        if (length != null) {
+            mSize -= length;
+        }
+        getFile(ean).delete();
+    }
+
+    /**
+     * Count a response served from the cache without a request
+     */
+    public void countHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    /**
+     * Count a response the server confirmed with 304 not modified
+     */
+    public void countRevalidate() {
+        mRevalidateCount.incrementAndGet();
+    }
+
+    /**
+     * Count a response that had to be downloaded
+     */
+    public void countMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getRevalidateCount() {
+        return mRevalidateCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Get the counts in a readable form for logging
+     * @return String
+     */
+    public String getStats() {
+        return "hits " + getHitCount() + ", revalidated " + getRevalidateCount() + ", misses " + getMissCount();
+    }
+
+    /**
+     * Get the time until which a response can be used without revalidation, from the max-age of
+     *  its Cache-Control header
+     * @param cacheControl String header value or null
+     * @return long milliseconds since epoch
+     */
+    public static long getExpires(String cacheControl) {
+        long now = System.currentTimeMillis();
+        if (cacheControl == null) {
+            return now;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return now;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return now + Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                } catch (NumberFormatException e) {
+                    return now;
+                }
+            }
+        }
+        return now;
+    }
+
+    /**
+     * Get the index of the entries, the directory is listed on first use only
+     * @return LinkedHashMap of the file size per ean, least recently used first
+     */
+    private LinkedHashMap<String, Long> getIndex() {
+        if (mIndex != null) {
+            return mIndex;
+        }
+        mIndex = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        mSize = 0;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return mIndex;
+        }
+        // the modification time of an entry is its last access, see get
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                long length = file.length();
+                mIndex.put(name.substring(0, name.length() - SUFFIX.length()), length);
+                mSize += length;
+            } else {
+                // left over from an interrupted write
+                file.delete();
+            }
+        }
+        return mIndex;
+    }
+
+    /**
+     * Move a completely written temporary file in place of the entry of the ean
+     * @param ean String
+     * @param tmp File
+     * @throws IOException when the file can't be renamed
+     */
+    private synchronized void commit(String ean, File tmp) throws IOException {
+        File file = getFile(ean);
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can't rename " + tmp);
+        }
+        long length = file.length();
+        Long previous = getIndex().put(ean, length);
+        mSize += length - (previous != null ? previous : 0);
+        evict();
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits its maximum size
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> entries = mIndex.entrySet().iterator();
+        while (mSize > mMaxSize && entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+            getFile(entry.getKey()).delete();
+            mSize -= entry.getValue();
+            entries.remove();
+        }
+    }
+
+    private File getFile(String ean) {
+        return new File(mDirectory, ean + SUFFIX);
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Write the validators and the body length that precede the body in a cache file
+     * @param out DataOutputStream
+     * @param etag String or null
+     * @param lastModified String or null
+     * @param expires long
+     * @param length int body length
+     * @throws IOException
+     */
+    private static void writeHeader(DataOutputStream out, String etag, String lastModified, long expires, int length)
+            throws IOException {
+        writeNullableString(out, etag);
+        writeNullableString(out, lastModified);
+        out.writeLong(expires);
+        out.writeInt(length);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Input stream that writes a copy of everything read from it to a temporary cache file, so a
+     *  response body can be parsed while it is downloaded and stored in the cache without holding
+     *  it in memory. Failing to write the copy only drops the cache entry, reading goes on.
+     */
+    public class RecordingInputStream extends FilterInputStream {
+
+        private final String mEan;
+        private File mTmp;
+        private DataOutputStream mCopy;
+        // position of the body length in the header, patched once the length is known
+        private int mLengthOffset;
+
+        RecordingInputStream(String ean, String etag, String lastModified, long expires, InputStream in) {
+            super(in);
+            mEan = ean;
+            try {
+                mTmp = File.createTempFile(ean, TMP_SUFFIX, mDirectory);
+                mCopy = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTmp)));
+                writeHeader(mCopy, etag, lastModified, expires, 0);
+                mLengthOffset = mCopy.size() - 4;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't record response of " + ean, e);
+                abort();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                copy(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                copy(buffer, offset, read);
+            }
+            return read;
+        }
+
+        /**
+         * Read the remaining input and store the copy as the cache entry of the ean
+         * @throws IOException when reading the input fails
+         */
+        public void commit() throws IOException {
+            byte[] buffer = new byte[1024];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // copy
+            }
+            if (mCopy == null) {
+                return;
+            }
+            RandomAccessFile header = null;
+            try {
+                int length = mCopy.size() - mLengthOffset - 4;
+                mCopy.close();
+                mCopy = null;
+                header = new RandomAccessFile(mTmp, "rw");
+                header.seek(mLengthOffset);
+                header.writeInt(length);
+                header.close();
+                header = null;
+                VolumeResponseCache.this.commit(mEan, mTmp);
+                mTmp = null;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing " + getFile(mEan), e);
+            } finally {
+                closeQuietly(header);
+                abort();
+            }
+        }
+
+        /**
+         * Drop the copy, unless it was committed. Can be called more than once.
+         */
+        public void abort() {
+            closeQuietly(mCopy);
+            mCopy = null;
+            if (mTmp != null) {
+                mTmp.delete();
+                mTmp = null;
+            }
+        }
+
+        private void copy(byte[] buffer, int offset, int count) {
+            if (mCopy == null) {
+                return;
+            }
+            try {
+                mCopy.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't record response of " + mEan, e);
+                abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package it.jaschke.alexandria.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the catalog file read by the CatalogSource of the app from a csv dump. Runs on a
+ *  desktop, it is not part of the app:
+ * <pre>
+ * ./gradlew :tools:jar
+ * java -jar tools/build/libs/tools.jar books.csv isbn_catalog.bin
+ * </pre>
+ * The csv has the columns ean, title, subtitle, description, image url, authors and categories,
+ * authors and categories separated by semicolons. Fields may be quoted, a quote inside a quoted
+ * field is doubled. A first line that does not start with an ean is taken as header.
+ */
+public class CatalogBuilder {
+
+    private static final char LIST_DELIMITER = ';';
+
+    // file format, must match the CatalogSource of the app
+    static final int MAGIC = 0x49534243; // ISBC
+    static final int VERSION = 1;
+    static final int MAX_FIELD_LENGTH = 0xFFFF;
+    static final char LIST_SEPARATOR = '\n';
+
+    // records per ean, sorted
+    private final TreeMap<Long, byte[]> mRecords = new TreeMap<Long, byte[]>();
+    private int mSkipped;
+
+    /**
+     * Add a book, books with an invalid or duplicate ean are skipped
+     * @param ean String 13 digit ean
+     * @param title String
+     * @param subtitle String or null
+     * @param desc String or null
+     * @param imgUrl String or null
+     * @param authors List or null
+     * @param categories List or null
+     * @return boolean true when the book was added
+     */
+    public boolean add(String ean, String title, String subtitle, String desc, String imgUrl,
+                       List<String> authors, List<String> categories) {
+        if (ean == null || !ean.matches("\\d{13}") || title == null || title.length() == 0) {
+            mSkipped++;
+            return false;
+        }
+        Long key = Long.valueOf(ean);
+        if (mRecords.containsKey(key)) {
+            mSkipped++;
+            return false;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, title);
+            writeString(out, subtitle);
+            writeString(out, desc);
+            writeString(out, imgUrl);
+            writeString(out, join(authors));
+            writeString(out, join(categories));
+            mRecords.put(key, bytes.toByteArray());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of books added
+     * @return int
+     */
+    public int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * Get the number of books skipped because of an invalid or duplicate ean
+     * @return int
+     */
+    public int getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * Add all books of a csv dump
+     * @param reader Reader
+     * @throws IOException
+     */
+    public void addCsv(Reader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> row;
+        boolean first = true;
+        while ((row = csv.readRow()) != null) {
+            if (first && (row.isEmpty() || !row.get(0).trim().matches("\\d+"))) {
+                // header
+                first = false;
+                continue;
+            }
+            first = false;
+            add(field(row, 0), field(row, 1), field(row, 2), field(row, 3), field(row, 4),
+                    splitList(field(row, 5)), splitList(field(row, 6)));
+        }
+    }
+
+    /**
+     * Write the catalog file
+     * @param stream OutputStream, not closed by this method
+     * @throws IOException
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mRecords.size());
+        // index, the records follow in the same order
+        int offset = 0;
+        for (Map.Entry<Long, byte[]> record : mRecords.entrySet()) {
+            out.writeLong(record.getKey());
+            out.writeInt(offset);
+            offset += record.getValue().length;
+        }
+        // arena
+        for (byte[] record : mRecords.values()) {
+            out.write(record);
+        }
+        out.flush();
+    }
+
+    /**
+     * Convert a csv dump into a catalog file
+     * @param args String[] csv file and catalog file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CatalogBuilder <books.csv> <catalog.bin>");
+            System.exit(1);
+        }
+        CatalogBuilder builder = new CatalogBuilder();
+        Reader reader = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+        try {
+            builder.addCsv(reader);
+        } finally {
+            reader.close();
+        }
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            builder.write(out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + builder.size() + " books, skipped " + builder.getSkipped());
+    }
+
+    /**
+     * Write a string as unsigned short length and utf-8 bytes, cut off at the maximum length
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes("UTF-8");
+        int length = bytes.length;
+        if (length > MAX_FIELD_LENGTH) {
+            length = MAX_FIELD_LENGTH;
+            // don't cut a multi-byte character in half
+            while ((bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+        }
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    private static String join(List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(LIST_SEPARATOR);
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static String field(List<String> row, int index) {
+        return index < row.size() ? row.get(index).trim() : null;
+    }
+
+    private static List<String> splitList(String value) {
+        List<String> values = new ArrayList<String>();
+        if (value != null) {
+            for (String part : value.split(String.valueOf(LIST_DELIMITER))) {
+                if (part.trim().length() > 0) {
+                    values.add(part.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reader for rfc 4180 csv, quoted fields may contain delimiters and line breaks
+     */
+    static class CsvReader {
+
+        private final Reader mReader;
+        private int mNext = -2;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Read the next row
+         * @return List of fields, or null at the end of the input
+         * @throws IOException
+         */
+        List<String> readRow() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> row = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field");
+                    } else if (c == '"') {
+                        if (peek() == '"') {
+                            field.append('"');
+                            read();
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    row.add(field.toString());
+                    return row;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (mNext != -2) {
+                int c = mNext;
+                mNext = -2;
+                return c;
+            }
+            return mReader.read();
+        }
+
+        private int peek() throws IOException {
+            if (mNext == -2) {
+                mNext = mReader.read();
+            }
+            return mNext;
+        }
+    }
+}